@@ -2,11 +2,23 @@ package com.andyinthecloud.githubsfdeploy;
     
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
 
 @SpringBootApplication
 public class GitHubSalesforceDeployApp {
 
     public static void main(String[] args) {
-        SpringApplication.run(GitHubSalesforceDeployApp.class, args);
+        SpringApplication application = new SpringApplication(GitHubSalesforceDeployApp.class);
+        application.addListeners((ApplicationListener<ApplicationEnvironmentPreparedEvent>) event -> {
+            // Size of the JDK keep-alive cache (per host), set before any HTTP connection is made as it is read once
+            if (System.getProperty("http.maxConnections") == null)
+                System.setProperty("http.maxConnections",
+                    event.getEnvironment().getProperty("githubsfdeploy.salesforce.keep-alive-connections",
+                        String.valueOf(new SalesforceProperties().getKeepAliveConnections())));
+        });
+        application.run(args);
     }
 }
@@ -0,0 +1,48 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.archive")
+public class ArchiveProperties {
+
+    /**
+     * Keep downloaded repository archives (zipballs) on disk, keyed by repository and commit
+     */
+    private boolean enabled = true;
+
+    /**
+     * Directory for the archives, leave empty to use a folder within the system temp directory
+     */
+    private String directory;
+
+    /**
+     * Total size of the archives kept on disk, least recently used archives are removed first
+     */
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,306 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.deploy")
+public class DeployProperties {
+
+    /**
+     * Deploys (archive download, zip assembly and submission) run at the same time, in the background of the deploy request
+     */
+    private int jobThreads = 4;
+
+    /**
+     * Deploys allowed to wait for a job thread, further deploys are turned away
+     */
+    private int jobQueueSize = 50;
+
+    /**
+     * How long a finished deploy job can be looked up (by its job id)
+     */
+    private int jobTtlSeconds = 3600;
+
+    /**
+     * Threads polling the deploy running in each org for its completion (sends run on the org send threads)
+     */
+    private int orgSchedulerThreads = 2;
+
+    /**
+     * Deploys sent to their orgs at the same time (one deploy per org at a time), each upload holds a thread until sent
+     */
+    private int orgSendThreads = 4;
+
+    /**
+     * Merge deploys queued for the same org and user, naming different components, into one deploy
+     */
+    private boolean orgMergeQueued = true;
+
+    /**
+     * Orgs of a multi-org deploy queued at the same time (the zip is built once and sent to each), and the threads
+     *   sending multi-org deploys
+     */
+    private int fanOutConcurrency = 4;
+
+    /**
+     * Most orgs a multi-org deploy can target
+     */
+    private int fanOutMaxOrgs = 50;
+
+    /**
+     * How the deploy zip is sent to the Metadata API
+     *   soap - WSC MetadataConnection (needs the whole zip and SOAP envelope in memory)
+     *   streaming-soap - SOAP request written directly to the connection, zip base64 encoded as it is sent
+     *   rest - Metadata REST API deployRequest, zip sent as a binary multipart part (no base64 encoding)
+     */
+    public enum Transport { SOAP, STREAMING_SOAP, REST }
+
+    private Transport transport = Transport.STREAMING_SOAP;
+
+    /**
+     * Compress deploy requests (streaming transports)
+     */
+    private boolean gzipRequests = true;
+
+    private int connectTimeoutMillis = 30000;
+
+    private int readTimeoutMillis = 600000;
+
+    /**
+     * Deploy zips up to this size are assembled in memory, larger ones are spilled to a temporary file
+     */
+    private long spoolMemoryThreshold = 8L * 1024 * 1024;
+
+    /**
+     * Threads compressing deploy zip entries, shared by all deploys (0 for one per available processor)
+     */
+    private int compressionThreads = 0;
+
+    /**
+     * Entry data held in memory per deploy while awaiting compression
+     */
+    private long compressionBufferBytes = 32L * 1024 * 1024;
+
+    /**
+     * Entries larger than this are compressed as they are read rather than on the compression threads
+     */
+    private int compressionMaxEntryBytes = 8 * 1024 * 1024;
+
+    /**
+     * Deploy progress (server-sent events) polls checkDeployStatus this often while the deploy is changing,
+     *   backing off towards the maximum interval while it is not
+     */
+    private int progressMinIntervalMillis = 1000;
+
+    private int progressMaxIntervalMillis = 10000;
+
+    /**
+     * How long a client stays subscribed to deploy progress before it has to reconnect
+     */
+    private int progressTimeoutSeconds = 3600;
+
+    /**
+     * Threads polling deploy progress, shared by all deploys
+     */
+    private int progressThreads = 2;
+
+    /**
+     * Deploy status results kept in memory (read by checkdeploy and concurrent pollers without going back to Salesforce)
+     */
+    private int resultCacheSize = 200;
+
+    /**
+     * How long the result of a completed deploy is kept
+     */
+    private int resultTtlSeconds = 3600;
+
+    /**
+     * How long the status of a running deploy is reused
+     */
+    private int statusTtlMillis = 1000;
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    public void setGzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getSpoolMemoryThreshold() {
+        return spoolMemoryThreshold;
+    }
+
+    public void setSpoolMemoryThreshold(long spoolMemoryThreshold) {
+        this.spoolMemoryThreshold = spoolMemoryThreshold;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    public long getCompressionBufferBytes() {
+        return compressionBufferBytes;
+    }
+
+    public void setCompressionBufferBytes(long compressionBufferBytes) {
+        this.compressionBufferBytes = compressionBufferBytes;
+    }
+
+    public int getCompressionMaxEntryBytes() {
+        return compressionMaxEntryBytes;
+    }
+
+    public void setCompressionMaxEntryBytes(int compressionMaxEntryBytes) {
+        this.compressionMaxEntryBytes = compressionMaxEntryBytes;
+    }
+
+    public int getProgressMinIntervalMillis() {
+        return progressMinIntervalMillis;
+    }
+
+    public void setProgressMinIntervalMillis(int progressMinIntervalMillis) {
+        this.progressMinIntervalMillis = progressMinIntervalMillis;
+    }
+
+    public int getProgressMaxIntervalMillis() {
+        return progressMaxIntervalMillis;
+    }
+
+    public void setProgressMaxIntervalMillis(int progressMaxIntervalMillis) {
+        this.progressMaxIntervalMillis = progressMaxIntervalMillis;
+    }
+
+    public int getProgressTimeoutSeconds() {
+        return progressTimeoutSeconds;
+    }
+
+    public void setProgressTimeoutSeconds(int progressTimeoutSeconds) {
+        this.progressTimeoutSeconds = progressTimeoutSeconds;
+    }
+
+    public int getProgressThreads() {
+        return progressThreads;
+    }
+
+    public void setProgressThreads(int progressThreads) {
+        this.progressThreads = progressThreads;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+    }
+
+    public int getResultTtlSeconds() {
+        return resultTtlSeconds;
+    }
+
+    public void setResultTtlSeconds(int resultTtlSeconds) {
+        this.resultTtlSeconds = resultTtlSeconds;
+    }
+
+    public int getStatusTtlMillis() {
+        return statusTtlMillis;
+    }
+
+    public void setStatusTtlMillis(int statusTtlMillis) {
+        this.statusTtlMillis = statusTtlMillis;
+    }
+
+    public int getJobThreads() {
+        return jobThreads;
+    }
+
+    public void setJobThreads(int jobThreads) {
+        this.jobThreads = jobThreads;
+    }
+
+    public int getJobQueueSize() {
+        return jobQueueSize;
+    }
+
+    public void setJobQueueSize(int jobQueueSize) {
+        this.jobQueueSize = jobQueueSize;
+    }
+
+    public int getJobTtlSeconds() {
+        return jobTtlSeconds;
+    }
+
+    public void setJobTtlSeconds(int jobTtlSeconds) {
+        this.jobTtlSeconds = jobTtlSeconds;
+    }
+
+    public int getOrgSchedulerThreads() {
+        return orgSchedulerThreads;
+    }
+
+    public void setOrgSchedulerThreads(int orgSchedulerThreads) {
+        this.orgSchedulerThreads = orgSchedulerThreads;
+    }
+
+    public int getOrgSendThreads() {
+        return orgSendThreads;
+    }
+
+    public void setOrgSendThreads(int orgSendThreads) {
+        this.orgSendThreads = orgSendThreads;
+    }
+
+    public boolean isOrgMergeQueued() {
+        return orgMergeQueued;
+    }
+
+    public void setOrgMergeQueued(boolean orgMergeQueued) {
+        this.orgMergeQueued = orgMergeQueued;
+    }
+
+    public int getFanOutConcurrency() {
+        return fanOutConcurrency;
+    }
+
+    public void setFanOutConcurrency(int fanOutConcurrency) {
+        this.fanOutConcurrency = fanOutConcurrency;
+    }
+
+    public int getFanOutMaxOrgs() {
+        return fanOutMaxOrgs;
+    }
+
+    public void setFanOutMaxOrgs(int fanOutMaxOrgs) {
+        this.fanOutMaxOrgs = fanOutMaxOrgs;
+    }
+}
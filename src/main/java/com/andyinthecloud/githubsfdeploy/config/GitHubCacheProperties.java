@@ -0,0 +1,74 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.github-cache")
+public class GitHubCacheProperties {
+
+    /**
+     * Send If-None-Match/If-Modified-Since for GitHub API calls and reuse cached bodies on 304
+     */
+    private boolean enabled = true;
+
+    /**
+     * Total size of the response bodies held in memory
+     */
+    private long maxMemoryBytes = 32L * 1024 * 1024;
+
+    /**
+     * Responses larger than this are streamed through without being cached
+     */
+    private long maxEntryBytes = 8L * 1024 * 1024;
+
+    /**
+     * Directory for the on-disk tier, leave empty to keep the cache in memory only
+     */
+    private String diskDirectory;
+
+    /**
+     * Total size of the on-disk tier
+     */
+    private long maxDiskBytes = 512L * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public void setMaxMemoryBytes(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public String getDiskDirectory() {
+        return diskDirectory;
+    }
+
+    public void setDiskDirectory(String diskDirectory) {
+        this.diskDirectory = diskDirectory;
+    }
+
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    public void setMaxDiskBytes(long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+    }
+}
@@ -0,0 +1,126 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.salesforce")
+public class SalesforceProperties {
+
+    /**
+     * Metadata, Partner and REST API version used for connections, describes, deploys and generated metadata
+     */
+    private String apiVersion = "61.0";
+
+    /**
+     * How long a describeMetadata result is reused for the same org and API version
+     */
+    private int describeTtlSeconds = 3600;
+
+    /**
+     * Maximum number of org/API version describe results kept in memory
+     */
+    private int describeCacheSize = 500;
+
+    /**
+     * How long configured API connections (and user info) are kept for a login and org without being used
+     */
+    private int connectionTtlSeconds = 1800;
+
+    /**
+     * Age at which an access token is refreshed before use (Salesforce sessions time out after 15 minutes at the least)
+     */
+    private int tokenRefreshSeconds = 900;
+
+    /**
+     * Maximum number of login/org connections kept in memory
+     */
+    private int connectionCacheSize = 1000;
+
+    /**
+     * Maximum number of logins (org and user) whose OAuth2 tokens are kept, the least recently used are removed
+     */
+    private int authorizedClientCacheSize = 1000;
+
+    /**
+     * How long a login's OAuth2 tokens are kept without being used, the org must then be logged in to again
+     */
+    private int authorizedClientTtlSeconds = 28800;
+
+    /**
+     * Idle keep-alive HTTP connections kept per Salesforce host (the JDK's http.maxConnections, set at startup unless given with -D)
+     */
+    private int keepAliveConnections = 20;
+
+    public String getApiVersion() {
+        return apiVersion;
+    }
+
+    public void setApiVersion(String apiVersion) {
+        this.apiVersion = apiVersion;
+    }
+
+    public int getDescribeTtlSeconds() {
+        return describeTtlSeconds;
+    }
+
+    public void setDescribeTtlSeconds(int describeTtlSeconds) {
+        this.describeTtlSeconds = describeTtlSeconds;
+    }
+
+    public int getDescribeCacheSize() {
+        return describeCacheSize;
+    }
+
+    public void setDescribeCacheSize(int describeCacheSize) {
+        this.describeCacheSize = describeCacheSize;
+    }
+
+    public int getConnectionTtlSeconds() {
+        return connectionTtlSeconds;
+    }
+
+    public void setConnectionTtlSeconds(int connectionTtlSeconds) {
+        this.connectionTtlSeconds = connectionTtlSeconds;
+    }
+
+    public int getTokenRefreshSeconds() {
+        return tokenRefreshSeconds;
+    }
+
+    public void setTokenRefreshSeconds(int tokenRefreshSeconds) {
+        this.tokenRefreshSeconds = tokenRefreshSeconds;
+    }
+
+    public int getAuthorizedClientCacheSize() {
+        return authorizedClientCacheSize;
+    }
+
+    public void setAuthorizedClientCacheSize(int authorizedClientCacheSize) {
+        this.authorizedClientCacheSize = authorizedClientCacheSize;
+    }
+
+    public int getAuthorizedClientTtlSeconds() {
+        return authorizedClientTtlSeconds;
+    }
+
+    public void setAuthorizedClientTtlSeconds(int authorizedClientTtlSeconds) {
+        this.authorizedClientTtlSeconds = authorizedClientTtlSeconds;
+    }
+
+    public int getConnectionCacheSize() {
+        return connectionCacheSize;
+    }
+
+    public void setConnectionCacheSize(int connectionCacheSize) {
+        this.connectionCacheSize = connectionCacheSize;
+    }
+
+    public int getKeepAliveConnections() {
+        return keepAliveConnections;
+    }
+
+    public void setKeepAliveConnections(int keepAliveConnections) {
+        this.keepAliveConnections = keepAliveConnections;
+    }
+}
@@ -0,0 +1,145 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.scan")
+public class ScanProperties {
+
+    /**
+     * How the repository structure is discovered
+     *   tree - resolve the ref to a commit and read the recursive Git tree in one request
+     *   contents - walk the Contents API one directory at a time
+     *   parallel-contents - walk the Contents API, listing sibling directories concurrently
+     */
+    public enum Mode { TREE, CONTENTS, PARALLEL_CONTENTS }
+
+    private Mode mode = Mode.TREE;
+
+    /**
+     * Maximum directory listings in flight for a single scan (parallel-contents)
+     */
+    private int parallelism = 4;
+
+    /**
+     * Maximum directory listings in flight across all scans in this JVM (parallel-contents)
+     */
+    private int maxThreads = 16;
+
+    /**
+     * Maximum directory listings queued ahead of the scan for a single scan (parallel-contents), listings
+     *   beyond this are fetched when the scan reaches them
+     */
+    private int prefetchLimit = 64;
+
+    /**
+     * Maximum number of scanned commits kept in memory
+     */
+    private int cacheSize = 200;
+
+    /**
+     * How long a branch or tag is assumed to point at the commit it was last resolved to
+     */
+    private int refTtlSeconds = 60;
+
+    /**
+     * Repositories with more files than this are shown as a lazily expanded tree, a directory at a time
+     */
+    private int lazyTreeThreshold = 2000;
+
+    /**
+     * Maximum items returned per request when expanding a directory of the lazily expanded tree
+     */
+    private int treePageSize = 200;
+
+    /**
+     * Maximum repository and submodule archives downloaded at once for a single Salesforce DX scan
+     */
+    private int archiveParallelism = 4;
+
+    /**
+     * Maximum archive downloads in flight across all scans in this JVM
+     */
+    private int maxArchiveThreads = 8;
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public int getRefTtlSeconds() {
+        return refTtlSeconds;
+    }
+
+    public void setRefTtlSeconds(int refTtlSeconds) {
+        this.refTtlSeconds = refTtlSeconds;
+    }
+
+    public int getLazyTreeThreshold() {
+        return lazyTreeThreshold;
+    }
+
+    public void setLazyTreeThreshold(int lazyTreeThreshold) {
+        this.lazyTreeThreshold = lazyTreeThreshold;
+    }
+
+    public int getTreePageSize() {
+        return treePageSize;
+    }
+
+    public void setTreePageSize(int treePageSize) {
+        this.treePageSize = treePageSize;
+    }
+
+    public int getArchiveParallelism() {
+        return archiveParallelism;
+    }
+
+    public void setArchiveParallelism(int archiveParallelism) {
+        this.archiveParallelism = archiveParallelism;
+    }
+
+    public int getMaxArchiveThreads() {
+        return maxArchiveThreads;
+    }
+
+    public void setMaxArchiveThreads(int maxArchiveThreads) {
+        this.maxArchiveThreads = maxArchiveThreads;
+    }
+
+    public int getPrefetchLimit() {
+        return prefetchLimit;
+    }
+
+    public void setPrefetchLimit(int prefetchLimit) {
+        this.prefetchLimit = prefetchLimit;
+    }
+}
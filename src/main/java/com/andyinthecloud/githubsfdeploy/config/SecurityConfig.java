@@ -33,6 +33,11 @@ import jakarta.servlet.http.HttpServletResponse;
 @EnableWebSecurity
 public class SecurityConfig {
 
+    /**
+     * OAuth2 user attribute naming the principal, the org and user ids
+     */
+    public static final String PRINCIPAL_ATTRIBUTE = "githubsfdeploy_principal";
+
     @Bean
     @SuppressWarnings("unused")
     SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
@@ -40,6 +45,8 @@ public class SecurityConfig {
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/", "/index.jsp", "/error", "/_auth", "/sfdcSetup.html", "/resources/**", "/css/**", "/js/**", "/images/**", "/fonts/**", "/assets/**").permitAll()
                 .requestMatchers("/app/**").authenticated()
+                .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                .requestMatchers("/actuator/**").authenticated()
                 .anyRequest().permitAll()
             )
             .oauth2Login(oauth2 -> oauth2
@@ -129,8 +136,7 @@ public class SecurityConfig {
             attributes.forEach((key, value) -> System.out.println(key + ": " + value));
             System.out.println("----------------------------");
             
-            // Add access token and instance URL to attributes
-            attributes.put("access_token", request.getAccessToken().getTokenValue());
+            // Add instance URL to attributes (the access token stays with the authorized client, see SalesforceConnectionBroker)
             attributes.put("instance_url", request.getAdditionalParameters().get("instance_url"));
             
             // Salesforce returns user_id as the ID field
@@ -145,11 +151,16 @@ public class SecurityConfig {
                 throw new IllegalArgumentException("No user ID found in Salesforce userinfo response");
             }
             
-            // Create a new user with the ID field
+            // Sandboxes copied from the same org keep its user ids, so the principal (which keys the authorized client
+            //   holding the tokens) names the org as well as the user
+            Object orgId = attributes.get("organization_id") != null ? attributes.get("organization_id") : attributes.get("instance_url");
+            attributes.put(PRINCIPAL_ATTRIBUTE, orgId + "|" + userId);
+
+            // Create a new user with the org and user ID as its name
             return new DefaultOAuth2User(
                 user.getAuthorities(),
                 attributes,
-                "user_id" // Use user_id as the name attribute key
+                PRINCIPAL_ATTRIBUTE
             );
         };
     }
@@ -0,0 +1,105 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.sfdx")
+public class SfdxProperties {
+
+    /**
+     * How Salesforce DX projects are converted to Metadata API format
+     *   native - in process converter, falls back to the CLI for source it does not support
+     *   cli - sfdx force:source:convert
+     */
+    public enum Converter { NATIVE, CLI }
+
+    private Converter converter = Converter.NATIVE;
+
+    /**
+     * SFDX CLI conversions run at the same time, further requests wait in a queue
+     */
+    private int maxConcurrentConversions = 2;
+
+    /**
+     * Requests allowed to wait for a conversion, further requests are turned away
+     */
+    private int maxQueuedConversions = 20;
+
+    /**
+     * How long a request waits for a conversion to start
+     */
+    private int queueTimeoutSeconds = 300;
+
+    /**
+     * How long a conversion may run before the CLI (and the processes it started) are killed
+     */
+    private int conversionTimeoutSeconds = 300;
+
+    /**
+     * Extract only the package directories listed in sfdx-project.json (less any .forceignore'd paths) to the workspace,
+     *   rather than the whole repository
+     */
+    private boolean sparseExtraction = true;
+
+    /**
+     * Threads shared by all scans writing extracted files to workspaces, 0 writes each file on the extracting thread
+     */
+    private int extractionThreads = 4;
+
+    public Converter getConverter() {
+        return converter;
+    }
+
+    public void setConverter(Converter converter) {
+        this.converter = converter;
+    }
+
+    public int getMaxConcurrentConversions() {
+        return maxConcurrentConversions;
+    }
+
+    public void setMaxConcurrentConversions(int maxConcurrentConversions) {
+        this.maxConcurrentConversions = maxConcurrentConversions;
+    }
+
+    public int getMaxQueuedConversions() {
+        return maxQueuedConversions;
+    }
+
+    public void setMaxQueuedConversions(int maxQueuedConversions) {
+        this.maxQueuedConversions = maxQueuedConversions;
+    }
+
+    public int getQueueTimeoutSeconds() {
+        return queueTimeoutSeconds;
+    }
+
+    public void setQueueTimeoutSeconds(int queueTimeoutSeconds) {
+        this.queueTimeoutSeconds = queueTimeoutSeconds;
+    }
+
+    public int getConversionTimeoutSeconds() {
+        return conversionTimeoutSeconds;
+    }
+
+    public void setConversionTimeoutSeconds(int conversionTimeoutSeconds) {
+        this.conversionTimeoutSeconds = conversionTimeoutSeconds;
+    }
+
+    public boolean isSparseExtraction() {
+        return sparseExtraction;
+    }
+
+    public void setSparseExtraction(boolean sparseExtraction) {
+        this.sparseExtraction = sparseExtraction;
+    }
+
+    public int getExtractionThreads() {
+        return extractionThreads;
+    }
+
+    public void setExtractionThreads(int extractionThreads) {
+        this.extractionThreads = extractionThreads;
+    }
+}
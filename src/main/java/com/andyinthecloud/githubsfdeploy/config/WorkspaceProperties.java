@@ -0,0 +1,49 @@
+package com.andyinthecloud.githubsfdeploy.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "githubsfdeploy.workspace")
+public class WorkspaceProperties {
+
+    /**
+     * Directory for the workspaces Salesforce DX projects are converted in (cleared on startup), leave empty to use
+     *   a folder within the system temp directory
+     */
+    private String directory;
+
+    /**
+     * How long a converted project is kept for its deploy once it is no longer being used
+     */
+    private int ttlSeconds = 3600;
+
+    /**
+     * Total size of the workspaces kept on disk, least recently used workspaces not in use are removed first
+     */
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(int ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -26,45 +26,49 @@
 
 package com.andyinthecloud.githubsfdeploy.controller;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.xml.namespace.QName;
 
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.RepositoryContents;
 import org.eclipse.egit.github.core.RepositoryId;
+import org.eclipse.egit.github.core.TreeEntry;
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.client.GitHubRequest;
 import org.eclipse.egit.github.core.client.GitHubResponse;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_COMMITS;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_GIT;
 import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_REPOS;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_TREES;
 import org.eclipse.egit.github.core.client.RequestException;
 import org.eclipse.egit.github.core.service.ContentsService;
 import org.eclipse.egit.github.core.service.RepositoryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
@@ -78,34 +82,57 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.HtmlUtils;
 
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
 import com.andyinthecloud.githubsfdeploy.config.GitHubProperties;
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.andyinthecloud.githubsfdeploy.config.ScanProperties;
+import com.andyinthecloud.githubsfdeploy.service.ArchiveStore;
+import com.andyinthecloud.githubsfdeploy.service.CachingGitHubClient;
+import com.andyinthecloud.githubsfdeploy.service.DeployJobEngine;
+import com.andyinthecloud.githubsfdeploy.service.DeployJobEngine.DeployJob;
+import com.andyinthecloud.githubsfdeploy.service.DeployProgressMonitor;
+import com.andyinthecloud.githubsfdeploy.service.DeployResultCache;
+import com.andyinthecloud.githubsfdeploy.service.DeploySpool;
+import com.andyinthecloud.githubsfdeploy.service.DeployZipAssembler;
+import com.andyinthecloud.githubsfdeploy.service.DeployZipWriter;
+import com.andyinthecloud.githubsfdeploy.service.FanOutDeployer;
+import com.andyinthecloud.githubsfdeploy.service.FanOutDeployer.FanOut;
+import com.andyinthecloud.githubsfdeploy.service.FanOutDeployer.FanOutStatus;
+import com.andyinthecloud.githubsfdeploy.service.GitHubResponseCache;
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeCache;
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeIndex;
+import com.andyinthecloud.githubsfdeploy.service.OrgDeployScheduler;
+import com.andyinthecloud.githubsfdeploy.service.RepositoryScanner;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgConnections;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgIdentity;
+import com.andyinthecloud.githubsfdeploy.service.RepositoryTreeIndex;
+import com.andyinthecloud.githubsfdeploy.service.RepositoryTreeIndex.TreePage;
+import com.andyinthecloud.githubsfdeploy.service.SfdxConversionScheduler;
+import com.andyinthecloud.githubsfdeploy.service.WorkspaceStore;
+import com.andyinthecloud.githubsfdeploy.service.WorkspaceStore.Workspace;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.sforce.soap.metadata.AsyncResult;
 import com.sforce.soap.metadata.CodeCoverageWarning;
 import com.sforce.soap.metadata.DeployMessage;
 import com.sforce.soap.metadata.DeployOptions;
 import com.sforce.soap.metadata.DeployResult;
-import com.sforce.soap.metadata.DescribeMetadataObject;
-import com.sforce.soap.metadata.DescribeMetadataResult;
 import com.sforce.soap.metadata.MetadataConnection;
 import com.sforce.soap.metadata.Package;
 import com.sforce.soap.metadata.PackageTypeMembers;
 import com.sforce.soap.metadata.RunTestFailure;
 import com.sforce.soap.metadata.RunTestsResult;
-import com.sforce.soap.partner.Connector;
 import com.sforce.soap.partner.GetUserInfoResult;
-import com.sforce.soap.partner.PartnerConnection;
-import com.sforce.ws.ConnectorConfig;
 import com.sforce.ws.bind.TypeMapper;
 import com.sforce.ws.parser.XmlOutputStream;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
-import net.lingala.zip4j.model.FileHeader;
-import net.lingala.zip4j.model.ZipParameters;
 
 @Controller
 public class GitHubSalesforceDeployController {
@@ -113,10 +140,65 @@ public class GitHubSalesforceDeployController {
 	private static final Logger logger = LoggerFactory.getLogger(GitHubSalesforceDeployController.class);
 	private static final String GITHUB_TOKEN = "github_token";
 	private static final String GITHUB_AUTH_ATTEMPTED = "github_auth_attempted";
+	private static final String GITHUB_CONTENTS = "github_contents:";
+	private static final String SALESFORCE_ORGS = "salesforce_orgs";
+	private static final String FAN_OUT_OWNER = "fan_out_owner";
+
+	/**
+	 * Shared (thread safe once configured) writer for repository contents, streamed to the response by the contents endpoint
+	 */
+	private static final ObjectWriter CONTENTS_WRITER = new ObjectMapper().writerFor(RepositoryItem.class);
+	private static final ObjectWriter TREE_PAGE_WRITER = new ObjectMapper().writerFor(TreePage.class);
+	private static final ObjectWriter STATUS_WRITER = new ObjectMapper().writer();
 
 	@Autowired
 	private GitHubProperties githubProperties;
 
+	@Autowired
+	private ScanProperties scanProperties;
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	@Autowired
+	private RepositoryScanner repositoryScanner;
+
+	@Autowired
+	private GitHubResponseCache gitHubResponseCache;
+
+	@Autowired
+	private MetadataDescribeCache metadataDescribeCache;
+
+	@Autowired
+	private ArchiveStore archiveStore;
+
+	@Autowired
+	private DeployZipAssembler deployZipAssembler;
+
+	@Autowired
+	private SfdxConversionScheduler sfdxConversionScheduler;
+
+	@Autowired
+	private WorkspaceStore workspaceStore;
+
+	@Autowired
+	private SalesforceConnectionBroker salesforceConnectionBroker;
+
+	@Autowired
+	private DeployProgressMonitor deployProgressMonitor;
+
+	@Autowired
+	private DeployResultCache deployResultCache;
+
+	@Autowired
+	private DeployJobEngine deployJobEngine;
+
+	@Autowired
+	private OrgDeployScheduler orgDeployScheduler;
+
+	@Autowired
+	private FanOutDeployer fanOutDeployer;
+
 	@GetMapping("/app/githubdeploy/logout")
 	public String logout(HttpSession session,@RequestParam(required=false) final String retUrl)
 	{
@@ -213,53 +295,37 @@ public class GitHubSalesforceDeployController {
 			map.put("repositoryName", repoId.generateId());
 			map.put("ref", ref);
 
-			// Get Salesforce access token and instance URL from attributes
-			Map<String, Object> attributes = user != null ? user.getAttributes() : new HashMap<>();
-			logger.debug("User Attributes: {}", attributes);
-			String salesforceAccessToken = (String) attributes.get("access_token");
-			String instanceUrl = (String) attributes.get("instance_url");
-			Object urlsObj = attributes.get("urls");
-			Map<String, String> urls = null;
-			if (urlsObj instanceof Map) {
-				@SuppressWarnings("unchecked")
-				Map<String, String> urlsMap = (Map<String, String>) urlsObj;
-				urls = urlsMap;
-			}
-			String metadataServerUrl = urls != null ? urls.get("metadata") : null;
-			String partnerServerUrl = urls != null ? urls.get("partner") : null;
-			if (metadataServerUrl != null) {
-				metadataServerUrl = metadataServerUrl.replace("{version}", "61");
-			} else {
-				logger.error("Metadata server URL is null");
-				throw new IllegalStateException("Missing required OAuth attributes");
-			}
-		
-			if (salesforceAccessToken == null || instanceUrl == null || metadataServerUrl == null || partnerServerUrl == null) {
-				logger.error("Missing required OAuth attributes: access_token={}, instance_url={}, metadataServerUrl={}, partnerServerUrl={}", 
-					salesforceAccessToken != null, instanceUrl != null, metadataServerUrl != null, partnerServerUrl != null);
-				throw new IllegalStateException("Missing required OAuth attributes");
-			}
+			// Connections for the OAuth2 user's org (access token from the authorized client saved at login)
+			OrgConnections orgConnections = salesforceConnectionBroker.getConnections(user);
 
-			// Get organization name from Partner API
-			ConnectorConfig partnerAPIConfig = new ConnectorConfig();
-			partnerAPIConfig.setSessionId(salesforceAccessToken);
-			partnerAPIConfig.setServiceEndpoint(partnerServerUrl);
-			PartnerConnection partnerConnection = Connector.newConnection(partnerAPIConfig);
-			GetUserInfoResult userInfo = partnerConnection.getUserInfo();
+			// Get organization name from Partner API (once per session and org)
+			GetUserInfoResult userInfo = orgConnections.getUserInfo();
 			map.put("organizationName", userInfo.getOrganizationName());
 			map.put("userName", userInfo.getUserName());
 
+			// Orgs logged in to during this session, any of them can be deployed to at once
+			rememberOrg(session, orgConnections, userInfo.getOrganizationName() + " (" + userInfo.getUserName() + ")");
+			List<Map<String, Object>> orgs = new ArrayList<>();
+			authorisedOrgs(session).forEach((orgId, authorisedOrg) -> {
+				Map<String, Object> org = new HashMap<>();
+				org.put("orgId", orgId);
+				org.put("name", authorisedOrg.name);
+				org.put("current", orgId.equals(orgConnections.getOrgId()));
+				orgs.add(org);
+			});
+			map.put("orgs", orgs);
+
 			// Display repo info
 			GitHubClient client;
 			if(accessToken == null)
 			{
 				logger.debug("Creating GitHub client with OAuth server credentials - Client ID: {}", githubProperties.getId());
-				client = new GitHubClientOAuthServer(githubProperties.getId(), githubProperties.getSecret());
+				client = new GitHubClientOAuthServer(githubProperties.getId(), githubProperties.getSecret(), gitHubResponseCache);
 			}
 			else
 			{
 				logger.debug("Creating GitHub client with user access token");
-				client = new GitHubClient();
+				client = new CachingGitHubClient(gitHubResponseCache);
 				client.setOAuth2Token(accessToken);
 				map.put("githuburl","https://github.com/settings/connections/applications/" + githubProperties.getId());
 			}
@@ -312,43 +378,29 @@ public class GitHubSalesforceDeployController {
 				map.put("error", "Unexpected error while accessing GitHub repository: " + e.getMessage());
 			}
 
-			// Create MetadataConnection for repository scan
-			ConnectorConfig metadataAPIConfig = new ConnectorConfig();
-			//metadataAPIConfig.setAuthEndpoint(instanceUrl + "/services/Soap/u");
-			metadataAPIConfig.setSessionId(salesforceAccessToken);
-			metadataAPIConfig.setServiceEndpoint(metadataServerUrl);
-			MetadataConnection metadataConnection = new MetadataConnection(metadataAPIConfig);
-			
+			// MetadataConnection for repository scan
+			MetadataConnection metadataConnection = orgConnections.getMetadataConnection();
+
 			// Prepare Salesforce metadata metadata for repository scan
 			RepositoryScanResult repositoryScanResult = new RepositoryScanResult();
+			repositoryScanResult.requester = session.getId();
 			RepositoryItem repositoryContainer = new RepositoryItem();
 			repositoryContainer.repositoryItems = new ArrayList<>();
-			repositoryScanResult.metadataDescribeBySuffix = new HashMap<>();
-			repositoryScanResult.metadataDescribeByFolder = new HashMap<>();
 
-			// Get metadata describe result using the existing connection
-			DescribeMetadataResult metadataDescribeResult = metadataConnection.describeMetadata(61.0); // Match WSC version
-			for(DescribeMetadataObject describeObject : metadataDescribeResult.getMetadataObjects())
-			{
-				if(describeObject.getSuffix()==null) {
-					repositoryScanResult.metadataDescribeByFolder.put(describeObject.getDirectoryName(), describeObject);
-				} else {
-					repositoryScanResult.metadataDescribeBySuffix.put(describeObject.getSuffix(), describeObject);
-					if(describeObject.getMetaFile())
-						repositoryScanResult.metadataDescribeBySuffix.put(describeObject.getSuffix() + "-meta.xml", describeObject);					
-				}
-			}
+			// Get metadata describe result using the existing connection (cached per org and API version)
+			repositoryScanResult.describeIndex = metadataDescribeCache.getIndex(
+				orgConnections.getOrgId(), Double.parseDouble(salesforceConnectionBroker.getApiVersion()), metadataConnection::describeMetadata);
 
 			// Retrieve repository contents applicable for deploy
 			ContentsServiceEx contentService = new ContentsServiceEx(client);
 
 			try
 			{
-				scanRepository(
+				repositoryScanner.scan(
 					contentService,
 					repoId,
 					ref,
-					contentService.getContents(repoId, null, ref),
+					cacheScope((Repository) map.get("repo"), accessToken),
 					repositoryContainer,
 					repositoryScanResult
 				);
@@ -361,10 +413,16 @@ public class GitHubSalesforceDeployController {
 					githubcontents = repositoryContainer;
 				}
 				
-				// Serialize JSON to page
+				// Hold for the page to load from the contents endpoint (rather than serialising it into the page)
 				if(githubcontents!=null) {
+					githubcontents = new RepositoryItem(githubcontents); // Scan results are shared via the scan cache
 					githubcontents.ref = ref; // Remember branch/tag/commit reference
-					map.put("githubcontents", new ObjectMapper().writeValueAsString(githubcontents));
+					githubcontents.commitSha = repositoryScanResult.commitSha; // Deploy the commit that was scanned
+					RepositoryTreeIndex treeIndex = new RepositoryTreeIndex(githubcontents);
+					session.setAttribute(GITHUB_CONTENTS + repoId.generateId(), treeIndex);
+					map.put("githubcontents", Boolean.TRUE);
+					// Larger repositories are expanded a directory at a time via the tree endpoint
+					map.put("lazytree", treeIndex.getFileCount() > scanProperties.getLazyTreeThreshold());
 				} else {
 					map.put("error", "No Salesforce files found in repository.");
 				}
@@ -393,6 +451,69 @@ public class GitHubSalesforceDeployController {
 		return "githubdeploy";
 	}
 	
+	@GetMapping("/app/githubdeploy/{owner}/{repo}/contents")
+	public void contents(
+			@PathVariable("owner") String repoOwner,
+			@PathVariable("repo") String repoName,
+			@RequestParam(defaultValue="master", required=false) String ref,
+			HttpServletResponse response,
+			HttpSession session) throws Exception
+	{
+		// Repository contents scanned by the confirm page
+		RepositoryTreeIndex treeIndex = scannedContents(session, RepositoryId.create(repoOwner, repoName), ref);
+		if(treeIndex==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Repository contents not found, reload the page to scan the repository again");
+			return;
+		}
+
+		// Stream JSON to the response, no intermediate String or buffer of the whole document
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator generator = CONTENTS_WRITER.createGenerator(response.getOutputStream())) {
+			CONTENTS_WRITER.writeValue(generator, treeIndex.getRoot());
+		}
+	}
+
+	@GetMapping("/app/githubdeploy/{owner}/{repo}/tree")
+	public void tree(
+			@PathVariable("owner") String repoOwner,
+			@PathVariable("repo") String repoName,
+			@RequestParam(defaultValue="master", required=false) String ref,
+			@RequestParam(defaultValue="", required=false) String path,
+			@RequestParam(defaultValue="0", required=false) int cursor,
+			HttpServletResponse response,
+			HttpSession session) throws Exception
+	{
+		// Page of a directory within the repository contents scanned by the confirm page
+		RepositoryTreeIndex treeIndex = scannedContents(session, RepositoryId.create(repoOwner, repoName), ref);
+		if(treeIndex==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Repository contents not found, reload the page to scan the repository again");
+			return;
+		}
+		TreePage treePage = treeIndex.page(path, cursor, scanProperties.getTreePageSize());
+		if(treePage==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Directory '" + path + "' not found in repository contents");
+			return;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		try (JsonGenerator generator = TREE_PAGE_WRITER.createGenerator(response.getOutputStream())) {
+			TREE_PAGE_WRITER.writeValue(generator, treePage);
+		}
+	}
+
+	@GetMapping("/app/githubdeploy/conversion")
+	@ResponseBody
+	public Map<String, Object> conversion(HttpSession session)
+	{
+		// Polled while the confirm page loads, the position of this session's Salesforce DX conversion in the queue
+		Map<String, Object> conversion = new HashMap<>();
+		conversion.put("position", sfdxConversionScheduler.getQueuePosition(session.getId()));
+		conversion.put("queued", sfdxConversionScheduler.getQueueDepth());
+		conversion.put("running", sfdxConversionScheduler.getRunning());
+		return conversion;
+	}
+
 	@PostMapping("/app/githubdeploy/{owner}/{repo}")
 	@ResponseBody
 	public String deploy(
@@ -405,33 +526,77 @@ public class GitHubSalesforceDeployController {
 			@AuthenticationPrincipal OAuth2User user) throws Exception
 	{
 		String accessToken = (String)session.getAttribute(GITHUB_TOKEN);
+		GitHubClient client = deployClient(accessToken);
 
-		GitHubClient client;
+		// Repository files to deploy
+		RepositoryItem repositoryContainer = deployContents(repoOwner, repoName, repoContentsJson, session);
 
-		if(accessToken == null)
-		{
-			// Connect via oAuth client and secret to get greater request limits
-			client = new GitHubClientOAuthServer(githubProperties.getId(), githubProperties.getSecret());
+		// Read direct from repo or preconverted deploy zip? A converted project is held in its workspace until the deploy has been sent
+		Workspace workspace = openWorkspace(repositoryContainer);
+
+		// Connections for the OAuth2 user's org
+		OrgConnections orgConnections = salesforceConnectionBroker.getConnections(user);
+
+		// Download, zip and send the deploy on a job thread, the page polls the job (then the deploy) for progress
+		DeployJob job;
+		try {
+			job = deployJobEngine.submit(orgConnections.getScope(),
+				deployJob -> sendDeploy(deployJob, repoOwner, repoName, client, accessToken, repositoryContainer, workspace, orgConnections));
+		} catch (RuntimeException e) {
+			if(workspace!=null)
+				workspaceStore.close(workspace);
+			throw e;
 		}
-		else
-		{
-			// Connect with access token to deploy private repositories
-			client = new GitHubClient();
-			client.setOAuth2Token(accessToken);
+		Map<String, Object> jobStatus = new HashMap<>();
+		jobStatus.put("id", job.getId());
+		jobStatus.put("state", "Queued");
+		jobStatus.put("message", job.getDescription());
+		return STATUS_WRITER.writeValueAsString(jobStatus);
+	}
+
+	/**
+	 * Builds the deploy zip and queues it to be sent to the org, run as a deploy job
+	 */
+	private CompletableFuture<AsyncResult> sendDeploy(DeployJob job, String repoOwner, String repoName, GitHubClient client, String accessToken,
+			RepositoryItem repositoryContainer, Workspace workspace, OrgConnections orgConnections) throws Exception
+	{
+		// Metadata deploy zip file (in memory or on disk depending on size)
+		DeploySpool mdDeployZip;
+		try {
+			mdDeployZip = buildDeployZip(job, repoOwner, repoName, client, accessToken, repositoryContainer);
+		} catch (Exception e) {
+			if(workspace!=null)
+				workspaceStore.close(workspace);
+			throw e;
 		}
 
-		// Repository files to deploy
-		ObjectMapper mapper = new ObjectMapper();
-		RepositoryItem repositoryContainer = (RepositoryItem) mapper.readValue(repoContentsJson, RepositoryItem.class);
+		// Deploy to Salesforce, sent once the deploys ahead of it in the org are done (the spool is discarded once sent)
+		CompletableFuture<AsyncResult> sent;
+		try {
+			sent = orgDeployScheduler.submit(job, orgConnections, mdDeployZip, deployOptions(repositoryContainer));
+		} catch (RuntimeException e) {
+			mdDeployZip.discard();
+			if(workspace!=null)
+				workspaceStore.close(workspace);
+			throw e;
+		}
+		if(workspace!=null)
+			releaseWhenSent(workspace, sent);
+		return sent;
+	}
 
-		// Metadata deploy zip file
-		byte[] mdDeployZipBytes;
+	/**
+	 * Deploy zip for the repository contents (or the converted project), reporting progress to the job
+	 */
+	private DeploySpool buildDeployZip(DeployJob job, String repoOwner, String repoName, GitHubClient client, String accessToken,
+			RepositoryItem repositoryContainer) throws Exception
+	{
+		DeploySpool mdDeployZip;
 
 		// Read direct from repo or preconverted deploy zip?
 		if(repositoryContainer.downloadId!=null) {
 			// Read from deploy zip
-			Path deployZipPath = new File(repositoryContainer.downloadId).toPath();
-			mdDeployZipBytes = Files.readAllBytes(deployZipPath);
+			mdDeployZip = DeploySpool.ofFile(new File(repositoryContainer.downloadId).toPath());
 		} else {
 			// Performing a package deployment from a package manifest in the repository?
 			String repoPackagePath = null;
@@ -449,7 +614,7 @@ public class GitHubSalesforceDeployController {
 			{
 				// Construct package manifest and files to deploy map by path
 				Package packageManifest = new Package();
-				packageManifest.setVersion("61.0"); // Using latest supported API version
+				packageManifest.setVersion(salesforceConnectionBroker.getApiVersion());
 				scanFilesToDeploy(filesToDeploy, typeMembersByType, repositoryContainer);
 				PackageTypeMembers[] packageTypes = new PackageTypeMembers[typeMembersByType.size()];
 				int i = 0;
@@ -478,19 +643,26 @@ public class GitHubSalesforceDeployController {
 				}
 			}
 
-			// Download the Repository as an archive zip
+			// Repository archive for the scanned commit, read from the archive store if the scan already downloaded it
 			RepositoryId repoId = RepositoryId.create(repoOwner, repoName);
 			ContentsServiceEx contentService = new ContentsServiceEx(client);
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			try (ZipOutputStream zipOS = new ZipOutputStream(baos)) {
+			Repository repository = null;
+			try {
+				repository = new RepositoryService(client).getRepository(repoId);
+			} catch (IOException e) {
+				logger.warn("Unable to read repository {}, archive will not be shared", repoId.generateId(), e);
+			}
+			String archiveScope = cacheScope(repository, accessToken);
+			String commitSha = repositoryContainer.commitSha != null ?
+				repositoryContainer.commitSha : repositoryScanner.resolveCommitSha(contentService, repoId, repositoryContainer.ref, archiveScope);
+			mdDeployZip = new DeploySpool(deployProperties.getSpoolMemoryThreshold());
+			try (DeployZipWriter zipOS = deployZipAssembler.newWriter(mdDeployZip)) {
 				logger.info("Starting zip file creation for classic repo deployment");
 				// Add package.xml first at root level
 				String normalizedPath = null;
 				if(packageManifestXml!=null) {
 					// Use dynamically generated package manifest
-					zipOS.putNextEntry(new ZipEntry("package.xml"));
-					zipOS.write(packageManifestXml.getBytes());
-					zipOS.closeEntry();
+					zipOS.addEntry("package.xml", packageManifestXml.getBytes());
 					logger.info("Added dynamically generated package.xml to zip file ({} bytes)", packageManifestXml.getBytes().length);
 				} else if(repoPackagePath!=null) {
 					// Normalize the path to avoid double slashes
@@ -502,7 +674,8 @@ public class GitHubSalesforceDeployController {
 				}
 
 				// Read the zip entries, output to the metadata deploy zip files selected
-				try (ZipInputStream zipIS = contentService.getArchiveAsZip(repoId, repositoryContainer.ref)) {
+				job.zipping(repoPackagePath == null ? filesToDeploy.size() : -1);
+				try (ZipInputStream zipIS = archiveStore.openArchive(contentService, repoId, commitSha, archiveScope, job)) {
 					ZipEntry zipEntry;
 					int totalFiles = 0;
 					boolean foundPackageXml = false;
@@ -513,15 +686,7 @@ public class GitHubSalesforceDeployController {
 						
 						// Handle package.xml if needed
 						if(!foundPackageXml && repoPackagePath != null && zipPath.equals(normalizedPath + "/package.xml")) {
-							zipOS.putNextEntry(new ZipEntry("package.xml"));
-							byte[] buffer = new byte[1024];
-							int length;
-							int totalBytes = 0;
-							while((length = zipIS.read(buffer)) > 0) {
-								zipOS.write(buffer, 0, length);
-								totalBytes += length;
-							}
-							zipOS.closeEntry();
+							long totalBytes = zipOS.addEntry("package.xml", zipIS);
 							logger.info("Added existing package.xml to zip file ({} bytes)", totalBytes);
 							foundPackageXml = true;
 							continue;
@@ -546,32 +711,21 @@ public class GitHubSalesforceDeployController {
 							}
 							zipName+= repoItem.repositoryItem.getName();
 							logger.debug("Adding metadata file to zip: {}", zipName);
-							ZipEntry metadataZipEntry = new ZipEntry(zipName);
-							zipOS.putNextEntry(metadataZipEntry);
-							// Copy bytes over from Github archive input stream to Metadata zip output stream
-							byte[] buffer = new byte[1024];
-							int length;
-							int totalBytes = 0;
-							while((length = zipIS.read(buffer)) > 0) {
-								zipOS.write(buffer, 0, length);
-								totalBytes += length;
-							}
-							zipOS.closeEntry();
+							// Copy bytes over from Github archive input stream to Metadata zip (compressed on the zip worker threads)
+							long totalBytes = zipOS.addEntry(zipName, zipIS);
+							job.zipped();
 							logger.debug("Added file {} to zip ({} bytes)", zipName, totalBytes);
 							
 							// Generate meta.xml for ApexClass if needed
 							if(repoItem.metadataType.equals("ApexClass") && !filesToDeploy.containsKey(zipPath+"-meta.xml")) {
 								String metaXmlName = zipName + "-meta.xml";
 								logger.debug("Generating meta.xml for ApexClass: {}", metaXmlName);
-								ZipEntry metaXmlEntry = new ZipEntry(metaXmlName);
-								zipOS.putNextEntry(metaXmlEntry);
 								String metaXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
 									"<ApexClass xmlns=\"http://soap.sforce.com/2006/04/metadata\">\n" +
-									"    <apiVersion>61.0</apiVersion>\n" +
+									"    <apiVersion>" + salesforceConnectionBroker.getApiVersion() + "</apiVersion>\n" +
 									"    <status>Active</status>\n" +
 									"</ApexClass>";
-								zipOS.write(metaXml.getBytes());
-								zipOS.closeEntry();
+								zipOS.addEntry(metaXmlName, metaXml.getBytes());
 								logger.debug("Added meta.xml file {} to zip ({} bytes)", metaXmlName, metaXml.getBytes().length);
 							}
 							totalFiles++;
@@ -592,14 +746,9 @@ public class GitHubSalesforceDeployController {
 									break;
 								// Generate the Metadata zip entry name
 								String metadataZipEntryName = zipPath.substring(repoPackagePath.length());
-								ZipEntry metadataZipEntry = new ZipEntry(metadataZipEntryName);
-								zipOS.putNextEntry(metadataZipEntry);
-								// Copy bytes over from Github archive input stream to Metadata zip output stream
-								byte[] buffer = new byte[1024];
-								int length = 0;
-								while((length = zipIS.read(buffer)) > 0)
-									zipOS.write(buffer, 0, length);
-								zipOS.closeEntry();
+								// Copy bytes over from Github archive input stream to Metadata zip
+								zipOS.addEntry(metadataZipEntryName, zipIS);
+								job.zipped();
 							}
 							break;
 						}						
@@ -609,92 +758,272 @@ public class GitHubSalesforceDeployController {
 					}
 					logger.info("Added {} metadata files to zip", totalFiles);
 				}
-				mdDeployZipBytes = baos.toByteArray();
-				logger.info("Created zip file with total size: {} bytes", mdDeployZipBytes.length);
+				job.compressing();
+				zipOS.finish();
+			} catch (Exception e) {
+				mdDeployZip.discard();
+				throw e;
 			}
+			logger.info("Created zip file with total size: {} bytes ({})", mdDeployZip.size(), mdDeployZip.isOnDisk() ? "on disk" : "in memory");
 		}
 
-		// Get Salesforce access token from OAuth2 user
-		String salesforceAccessToken = (String) user.getAttributes().get("access_token");
-		String instanceUrl = (String) user.getAttributes().get("instance_url");
-
-		// Create MetadataConnection using OAuth2 token
-		ConnectorConfig config = new ConnectorConfig();
-		config.setAuthEndpoint(instanceUrl + "/services/oauth2/token");
-		config.setServiceEndpoint(instanceUrl + "/services/Soap/m/41.0");
-		config.setSessionId(salesforceAccessToken);
-		MetadataConnection metadataConnection = new MetadataConnection(config);
+		return mdDeployZip;
+	}
 
-		// Deploy to Salesforce
+	private static DeployOptions deployOptions(RepositoryItem repositoryContainer)
+	{
 		DeployOptions deployOptions = new DeployOptions();
 		deployOptions.setSinglePackage((repositoryContainer.downloadId == null));
 		deployOptions.setPerformRetrieve(false);
 		deployOptions.setRollbackOnError(true);
-		AsyncResult asyncResult = metadataConnection.deploy(mdDeployZipBytes, deployOptions);
+		return deployOptions;
+	}
 
-		// Given the client the AysncResult to poll for the result of the deploy
-		ObjectMapper objectMapper = new ObjectMapper();
-		objectMapper.addMixIn(AsyncResult.class, AsyncResultMixIn.class);
-		return objectMapper.writeValueAsString(asyncResult);
+	/**
+	 * Closes the converted project's workspace once the deploy has been sent, releasing it if it was sent
+	 */
+	private void releaseWhenSent(Workspace workspace, CompletableFuture<?> sent)
+	{
+		sent.whenComplete((result, e) -> {
+			// Deploy sent, the converted project is no longer needed by this page
+			if(e==null)
+				workspaceStore.release(workspace);
+			workspaceStore.close(workspace);
+		});
 	}
 	
+	@GetMapping(value = "/app/githubdeploy/{owner}/{repo}/progress/{asyncId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@ResponseBody
+	public SseEmitter progress(
+			@PathVariable String asyncId,
+			@AuthenticationPrincipal OAuth2User user,
+			HttpSession session) throws Exception
+	{
+		// Deploy progress pushed as it changes, checkstatus remains for pages that cannot use server-sent events
+		OrgConnections orgConnections = salesforceConnectionBroker.getConnections(user);
+		return deployProgressMonitor.subscribe(asyncId, orgConnections);
+	}
+
 	@GetMapping("/app/githubdeploy/{owner}/{repo}/checkstatus/{asyncId}")
 	@ResponseBody
 	public String checkStatus(
 			@PathVariable String asyncId,
-			@AuthenticationPrincipal OAuth2User user) throws Exception
+			@AuthenticationPrincipal OAuth2User user,
+			HttpSession session) throws Exception
 	{
-		// Get Salesforce access token from OAuth2 user
-		String salesforceAccessToken = (String) user.getAttributes().get("access_token");
-		String instanceUrl = (String) user.getAttributes().get("instance_url");
-
-		// Create MetadataConnection using OAuth2 token
-		ConnectorConfig config = new ConnectorConfig();
-		config.setAuthEndpoint(instanceUrl + "/services/oauth2/token");
-		config.setServiceEndpoint(instanceUrl + "/services/Soap/m/41.0");
-		config.setSessionId(salesforceAccessToken);
-		MetadataConnection metadataConnection = new MetadataConnection(config);
-
-		// Check async status and return to client
-		DeployResult deployResult = metadataConnection.checkDeployStatus(asyncId, true);
-		ObjectMapper objectMapper = new ObjectMapper();
-		return objectMapper.writeValueAsString(deployResult);
+		// MetadataConnection for the OAuth2 user's org (reused across polls)
+		OrgConnections orgConnections = salesforceConnectionBroker.getConnections(user);
+		MetadataConnection metadataConnection = orgConnections.getMetadataConnection();
+
+		// Deploy job still downloading, zipping or submitting? Report its stage, once submitted report the deploy
+		if(DeployJobEngine.isJobId(asyncId)) {
+			DeployJob job = deployJob(orgConnections, asyncId);
+			if(job.getAsyncResult() == null) {
+				Map<String, Object> jobStatus = new HashMap<>();
+				jobStatus.put("id", job.getId());
+				jobStatus.put("status", job.getStage().name());
+				jobStatus.put("stateDetail", job.getDescription());
+				jobStatus.put("queuePosition", job.getQueuePosition());
+				jobStatus.put("done", job.getStage() == DeployJob.Stage.FAILED);
+				if(job.getStage() == DeployJob.Stage.FAILED) {
+					jobStatus.put("completedDate", job.getFinishedAt());
+					jobStatus.put("errorMessage", job.getErrorMessage());
+				}
+				return STATUS_WRITER.writeValueAsString(jobStatus);
+			}
+			asyncId = job.getAsyncResult().getId();
+		}
+
+		// Check async status (counters and state only, shared with other lookups by this user) and return to client
+		DeployResult deployResult = deployResultCache.getStatus(orgConnections.getScope(), asyncId, metadataConnection::checkDeployStatus);
+		// Fetch the details once, now they will no longer change, for checkdeploy
+		if(deployResult.isDone())
+			deployResultCache.getDetails(orgConnections.getScope(), asyncId, metadataConnection::checkDeployStatus);
+		return STATUS_WRITER.writeValueAsString(deployResult);
 	}
 	
 	@GetMapping("/app/githubdeploy/{owner}/{repo}/checkdeploy/{asyncId}")
 	@ResponseBody
 	public String checkDeploy(
 			@PathVariable String asyncId,
+			@AuthenticationPrincipal OAuth2User user,
+			HttpSession session) throws Exception
+	{
+		// MetadataConnection for the OAuth2 user's org
+		OrgConnections orgConnections = salesforceConnectionBroker.getConnections(user);
+
+		// Deploy job failed before the deploy was sent?
+		if(DeployJobEngine.isJobId(asyncId)) {
+			DeployJob job = deployJob(orgConnections, asyncId);
+			if(job.getAsyncResult() == null)
+				return STATUS_WRITER.writeValueAsString(
+					"<div>Deploy failed: " + HtmlUtils.htmlEscape(String.valueOf(job.getErrorMessage())) + "</div>");
+			asyncId = job.getAsyncResult().getId();
+		}
+
+		// Detailed result (fetched once the deploy completed) and return errors to client
+		DeployResult deployResult = deployResultCache.getDetails(
+			orgConnections.getScope(), asyncId, orgConnections.getMetadataConnection()::checkDeployStatus);
+		// A type the org does not know was named in package.xml, describe the org again for the next deploy
+		metadataDescribeCache.invalidateIfStale(orgConnections.getOrgId(), deployResult);
+		return STATUS_WRITER.writeValueAsString(printErrors(deployResult));
+	}
+
+	@PostMapping("/app/githubdeploy/{owner}/{repo}/fanout")
+	@ResponseBody
+	public String deployFanOut(
+			@PathVariable("owner") String repoOwner,
+			@PathVariable("repo") String repoName,
+			@RequestParam("orgId") List<String> orgIds,
+			@RequestBody String repoContentsJson,
+			HttpSession session,
 			@AuthenticationPrincipal OAuth2User user) throws Exception
 	{
-		// Get Salesforce access token from OAuth2 user
-		String salesforceAccessToken = (String) user.getAttributes().get("access_token");
-		String instanceUrl = (String) user.getAttributes().get("instance_url");
-
-		// Create MetadataConnection using OAuth2 token
-		ConnectorConfig config = new ConnectorConfig();
-		config.setAuthEndpoint(instanceUrl + "/services/oauth2/token");
-		config.setServiceEndpoint(instanceUrl + "/services/Soap/m/41.0");
-		config.setSessionId(salesforceAccessToken);
-		MetadataConnection metadataConnection = new MetadataConnection(config);
-
-		// Check async status and return to client
-		DeployResult deployResult = metadataConnection.checkDeployStatus(asyncId, true);
-		ObjectMapper objectMapper = new ObjectMapper();
-		return objectMapper.writeValueAsString(printErrors(deployResult));
+		String accessToken = (String)session.getAttribute(GITHUB_TOKEN);
+		GitHubClient client = deployClient(accessToken);
+
+		// Repository files to deploy, built once for every org
+		RepositoryItem repositoryContainer = deployContents(repoOwner, repoName, repoContentsJson, session);
+		Workspace workspace = openWorkspace(repositoryContainer);
+
+		// Connections for each org selected, only orgs logged in to during this session
+		FanOut fanOut;
+		try {
+			Map<String, AuthorisedOrg> orgs = authorisedOrgs(session);
+			List<FanOutDeployer.Target> targets = new ArrayList<>();
+			for(String orgId : new LinkedHashSet<>(orgIds)) {
+				AuthorisedOrg org = orgs.get(orgId);
+				if(org==null)
+					throw new IllegalStateException("Log in to org " + orgId + " before deploying to it");
+				targets.add(new FanOutDeployer.Target(salesforceConnectionBroker.getConnections(org.identity), org.name));
+			}
+			fanOut = fanOutDeployer.start(fanOutOwner(session), targets,
+				job -> buildDeployZip(job, repoOwner, repoName, client, accessToken, repositoryContainer), deployOptions(repositoryContainer));
+		} catch (RuntimeException e) {
+			if(workspace!=null)
+				workspaceStore.close(workspace);
+			throw e;
+		}
+		if(workspace!=null)
+			releaseWhenSent(workspace, fanOut.getSent());
+		return STATUS_WRITER.writeValueAsString(fanOutDeployer.getStatus(fanOutOwner(session), fanOut.getId()));
+	}
+
+	@GetMapping("/app/githubdeploy/{owner}/{repo}/fanout/{fanOutId}")
+	@ResponseBody
+	public String checkFanOut(
+			@PathVariable String fanOutId,
+			HttpSession session) throws Exception
+	{
+		// Progress and result per org, as last polled (the page does not call Salesforce itself)
+		FanOutStatus status = fanOutDeployer.getStatus(fanOutOwner(session), fanOutId);
+		if(status==null)
+			throw new IllegalStateException("Multi-org deploy not found, it may have expired");
+		return STATUS_WRITER.writeValueAsString(status);
 	}
 
 	/**
-	 * Used with the Jackson JSON library to exclude conflicting getters when serialising AsyncResult
-	 *   (see http://wiki.fasterxml.com/JacksonMixInAnnotations)
+	 * GitHub client for the deploy, with the user's access token if they have authorised private repositories
 	 */
-	public abstract class AsyncResultMixIn
+	private GitHubClient deployClient(String accessToken)
 	{
-		@JsonIgnore 
-		public abstract boolean isCheckOnly();
-		
-		@JsonIgnore 
-		public abstract boolean isDone();
+		GitHubClient client;
+
+		if(accessToken == null)
+		{
+			// Connect via oAuth client and secret to get greater request limits
+			client = new GitHubClientOAuthServer(githubProperties.getId(), githubProperties.getSecret(), gitHubResponseCache);
+		}
+		else
+		{
+			// Connect with access token to deploy private repositories
+			client = new CachingGitHubClient(gitHubResponseCache);
+			client.setOAuth2Token(accessToken);
+		}
+		return client;
+	}
+
+	/**
+	 * Repository files to deploy sent by the page, or the contents scanned by the confirm page if the page only has the lazily expanded tree
+	 */
+	private static RepositoryItem deployContents(String repoOwner, String repoName, String repoContentsJson, HttpSession session)
+		throws IOException
+	{
+		ObjectMapper mapper = new ObjectMapper();
+		RepositoryItem repositoryContainer = (RepositoryItem) mapper.readValue(repoContentsJson, RepositoryItem.class);
+		if(repositoryContainer.downloadId==null && repositoryContainer.repositoryItems.isEmpty()) {
+			RepositoryTreeIndex treeIndex = scannedContents(session, RepositoryId.create(repoOwner, repoName), repositoryContainer.ref);
+			if(treeIndex==null)
+				throw new IllegalStateException("Repository contents not found, reload the page to scan the repository again");
+			repositoryContainer = treeIndex.getRoot();
+		}
+		return repositoryContainer;
+	}
+
+	/**
+	 * Workspace holding the converted project until the deploy has been sent, null for repository deploys
+	 */
+	private Workspace openWorkspace(RepositoryItem repositoryContainer)
+	{
+		if(repositoryContainer.downloadId==null)
+			return null;
+		Workspace workspace = workspaceStore.open(repositoryContainer.downloadId);
+		if(workspace==null)
+			throw new IllegalStateException("Converted project no longer available, reload the page to scan the repository again");
+		return workspace;
+	}
+
+	/**
+	 * Orgs logged in to during the session (by org id), logging in to another org keeps the session. Only who logged in
+	 *   is kept, tokens stay with the OAuth2 authorized clients (see SalesforceConnectionBroker)
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, AuthorisedOrg> authorisedOrgs(HttpSession session)
+	{
+		Map<String, AuthorisedOrg> orgs = (Map<String, AuthorisedOrg>) session.getAttribute(SALESFORCE_ORGS);
+		return orgs != null ? orgs : new LinkedHashMap<>();
+	}
+
+	private static void rememberOrg(HttpSession session, OrgConnections orgConnections, String name)
+	{
+		LinkedHashMap<String, AuthorisedOrg> orgs = new LinkedHashMap<>(authorisedOrgs(session));
+		orgs.put(orgConnections.getOrgId(), new AuthorisedOrg(orgConnections.getIdentity(), name));
+		session.setAttribute(SALESFORCE_ORGS, orgs);
+	}
+
+	/**
+	 * Identifies the session's multi-org deploys, kept when the session logs in to another org
+	 */
+	private static String fanOutOwner(HttpSession session)
+	{
+		String owner = (String) session.getAttribute(FAN_OUT_OWNER);
+		if(owner==null) {
+			owner = UUID.randomUUID().toString();
+			session.setAttribute(FAN_OUT_OWNER, owner);
+		}
+		return owner;
+	}
+
+	/**
+	 * Deploy job started by the OAuth2 user
+	 */
+	private DeployJob deployJob(OrgConnections orgConnections, String jobId)
+	{
+		DeployJob job = deployJobEngine.get(orgConnections.getScope(), jobId);
+		if(job==null)
+			throw new IllegalStateException("Deploy job not found, it may have expired");
+		return job;
+	}
+
+	/**
+	 * Repository contents scanned by the confirm page for the given repository and ref, or null
+	 */
+	private static RepositoryTreeIndex scannedContents(HttpSession session, RepositoryId repoId, String ref)
+	{
+		RepositoryTreeIndex treeIndex = (RepositoryTreeIndex) session.getAttribute(GITHUB_CONTENTS + repoId.generateId());
+		if(treeIndex==null || ref==null || !ref.equals(treeIndex.getRoot().ref))
+			return null;
+		return treeIndex;
 	}
 
 	/**
@@ -704,6 +1033,7 @@ public class GitHubSalesforceDeployController {
 	{
 		public String downloadId;
 		public String ref;
+		public String commitSha;
 		public RepositoryContents repositoryItem;
 		public ArrayList<RepositoryItem> repositoryItems = new ArrayList<>();
 		public String metadataFolder;
@@ -711,14 +1041,53 @@ public class GitHubSalesforceDeployController {
 		public Boolean metadataFile;
 		public Boolean metadataInFolder;
 		public String metadataSuffix;
+
+		public RepositoryItem()
+		{
+		}
+
+		/**
+		 * Shallow copy, child items are shared with the original
+		 */
+		public RepositoryItem(RepositoryItem other)
+		{
+			downloadId = other.downloadId;
+			ref = other.ref;
+			commitSha = other.commitSha;
+			repositoryItem = other.repositoryItem;
+			repositoryItems = other.repositoryItems;
+			metadataFolder = other.metadataFolder;
+			metadataType = other.metadataType;
+			metadataFile = other.metadataFile;
+			metadataInFolder = other.metadataInFolder;
+			metadataSuffix = other.metadataSuffix;
+		}
 	}
 
 	public static class RepositoryScanResult
 	{
+		public String commitSha;
 		public String packageRepoPath;
 		public RepositoryItem pacakgeRepoDirectory;
-		public HashMap<String, DescribeMetadataObject> metadataDescribeBySuffix = new HashMap<>();
-		public HashMap<String, DescribeMetadataObject> metadataDescribeByFolder = new HashMap<>();
+		public MetadataDescribeIndex describeIndex;
+		public String requester;
+	}
+
+	/**
+	 * An org logged in to during the session
+	 */
+	public static class AuthorisedOrg implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public final OrgIdentity identity;
+		public final String name;
+
+		public AuthorisedOrg(OrgIdentity identity, String name)
+		{
+			this.identity = identity;
+			this.name = name;
+		}
 	}
 
 	public static class TokenResult
@@ -737,6 +1106,15 @@ public class GitHubSalesforceDeployController {
 		public String branch;
 	}
 
+	/**
+	 * Response from the GitHub Git Trees API (egit's Tree model lacks the truncated flag)
+	 */
+	public static class GitTree {
+		public String sha;
+		public List<TreeEntry> tree;
+		public boolean truncated;
+	}
+
 	/**
 	 * Extended GitHub Content Service, adds ability to retrieve the repo archive
 	 */
@@ -748,6 +1126,12 @@ public class GitHubSalesforceDeployController {
 
 		public ZipInputStream getArchiveAsZip(IRepositoryIdProvider repository, String ref)
 			throws Exception
+		{
+			return new ZipInputStream(getArchiveStream(repository, ref));
+		}
+
+		public InputStream getArchiveStream(IRepositoryIdProvider repository, String ref)
+			throws Exception
 		{
 			// https://developer.github.com/v3/repos/contents/#get-archive-link
 			String id = getId(repository);
@@ -759,7 +1143,44 @@ public class GitHubSalesforceDeployController {
 			}
 			GitHubRequest request = createRequest();
 			request.setUri(uri);
-			return new ZipInputStream(getClient().getStream(request));
+			return getClient().getStream(request);
+		}
+
+		public String getCommitSha(IRepositoryIdProvider repository, String ref)
+			throws IOException
+		{
+			// https://docs.github.com/en/rest/commits/commits#get-a-commit
+			//   (the sha media type returns just the commit SHA rather than the full commit and its diff)
+			String id = getId(repository);
+			StringBuilder uri = new StringBuilder(SEGMENT_REPOS);
+			uri.append('/').append(id);
+			uri.append(SEGMENT_COMMITS);
+			uri.append('/').append(ref!=null ? ref : "HEAD");
+			GitHubRequest request = createRequest();
+			request.setUri(uri);
+			request.setType(String.class);
+			request.setResponseContentType("application/vnd.github.sha");
+			return ((String) getClient().get(request).getBody()).trim();
+		}
+
+		public GitTree getTree(IRepositoryIdProvider repository, String sha, boolean recursive)
+			throws IOException
+		{
+			// https://docs.github.com/en/rest/git/trees#get-a-tree
+			String id = getId(repository);
+			StringBuilder uri = new StringBuilder(SEGMENT_REPOS);
+			uri.append('/').append(id);
+			uri.append(SEGMENT_GIT).append(SEGMENT_TREES);
+			uri.append('/').append(sha);
+			GitHubRequest request = createRequest();
+			request.setUri(uri);
+			if(recursive) {
+				Map<String, String> params = new HashMap<>();
+				params.put("recursive", "1");
+				request.setParams(params);
+			}
+			request.setType(GitTree.class);
+			return (GitTree) getClient().get(request).getBody();
 		}
 	}
 
@@ -768,15 +1189,17 @@ public class GitHubSalesforceDeployController {
 	 *
 	 * Note: Only overrides 'get' and 'getStream'
 	 */
-	public static class GitHubClientOAuthServer extends GitHubClient
+	public static class GitHubClientOAuthServer extends CachingGitHubClient
 	{
 		private final String clientId;
 		private final String clientSecret;
 
-		public GitHubClientOAuthServer(String clientId, String clientSecret)
+		public GitHubClientOAuthServer(String clientId, String clientSecret, GitHubResponseCache responseCache)
 		{
+			super(responseCache);
 			this.clientId = clientId;
 			this.clientSecret = clientSecret;
+			setCredentialScope("client-" + clientId);
 		}
 
 		@Override
@@ -805,254 +1228,19 @@ public class GitHubSalesforceDeployController {
 	}
 
 	/**
-	 * Discovers the contents of a GitHub repository
-	 * @param contentService
-	 * @param repoId
-	 * @param contents
-	 * @param repositoryContainer
-	 * @throws Exception
+	 * Determines who may share a cached scan of the given repository, public repositories are shared by everyone,
+	 *   private ones only with the same GitHub token. Returns null (no caching) if the repository could not be read.
+	 * @param repository
+	 * @param accessToken
+	 * @return
 	 */
-	private static void scanRepository(ContentsServiceEx contentService, RepositoryId repoId, String ref, List<RepositoryContents> contents, RepositoryItem repositoryContainer, RepositoryScanResult repositoryScanResult)
-			throws Exception
+	private static String cacheScope(Repository repository, String accessToken)
 	{
-		// Process files first
-		Boolean convertedDXProject = false;
-		List<GitSubModule> subModules = new ArrayList<>();
-		for(RepositoryContents repo : contents)
-		{
-			// Skip directories for now, see below
-			if(repo.getType().equals("dir"))
-				continue;
-			// Skip README.md (suffix overlaps with Custom Metadata!)
-			if(repo.getName().equalsIgnoreCase("readme.md"))
-				continue;
-			if (repo.getName().equalsIgnoreCase(".gitmodules")) {
-				// get the contents of the file so we can import the submodule
-				// ONLY SUPPORTS SUBMODULES HOST ON GITHUB
-				List<RepositoryContents> submodule = contentService.getContents(repoId, repo.getPath(), ref);
-
-				// strip the newline characters out of the encoded content
-				byte[] decoded = Base64.getDecoder().decode(
-						submodule.get(0).getContent().replace("\n", ""));
-				String decodedStr = new String(decoded, StandardCharsets.UTF_8);
-				// process the .gitmodules file contents, line by line
-				// this is a very naive parser implementation
-				// will probably have a variety of bugs, maybe find a lib?
-				GitSubModule subMod = new GitSubModule();
-				for (String line : decodedStr.split("\n")) {
-					// start of named submodule
-					if (line.trim().startsWith("[")) {
-						subMod = new GitSubModule();
-						subModules.add(subMod);
-					}
-					// capture properties as we see them
-					if (line.trim().startsWith("path")) {
-						subMod.path = line.split("=", 2)[1].trim();
-					}
-					if (line.trim().startsWith("url")) {
-						subMod.url = line.split("=", 2)[1].trim();
-					}
-					if (line.trim().startsWith("branch")) {
-						subMod.branch = line.split("=", 2)[1].trim();
-						if(".".equals(subMod.branch)){
-							// https://git-scm.com/docs/git-submodule#_options
-							// if branch value of "." is used, it should fallback to the
-							// source repos branch name
-							subMod.branch = ref;
-						}
-					}
-				}
-
-			}
-			// Found a Salesforce DX sfdx-project.json?
-			if(repo.getName().equals("sfdx-project.json")) 
-			{
-				// Not interested in files scanned thus far
-				repositoryContainer.repositoryItems.clear();
-				// Download contents to temp dir
-				Path tempDir = Files.createTempDirectory(null);
-				downloadRepoToPath(tempDir, contentService, repoId, ref);
-				for (GitSubModule subMod : subModules) {
-					String urlVal = subMod.url;
-					// handling for the following module URL forms
-					// that might show up in the .gitmodules declaration
-					/*
-						https://github.com/owner/repo
-						https://github.com/owner/repo.gIt
-						git@github.com:owner/repo
-						git@github.com:owner/repo.git
-						../../owner/repo.git
-						../repo.git
-					 */
-					if(urlVal.toLowerCase().endsWith(".git")){
-						urlVal = urlVal.substring(0, urlVal.length() -4);
-					}
-					String[] parts = urlVal.split("/|:");
-					String ownerName = parts[parts.length-2];
-					if("..".equals(ownerName)){
-						// owner name is relative to the current package
-						ownerName = repoId.getOwner();
-					}
-					String repoName = parts[parts.length-1];
-					RepositoryId subRepoId = RepositoryId.create(ownerName, repoName);
-					downloadRepoToPath(tempDir.resolve(subMod.path+"/"), contentService, subRepoId, subMod.branch);
-				}
-				// Convert to MD API Format using SFDX CLI
-				ProcessBuilder processBuilder = new ProcessBuilder("sfdx", "force:source:convert", "--outputdir", "deploy");
-				processBuilder.directory(tempDir.toFile());
-				Process process = processBuilder.start();
-				StringBuilder output = new StringBuilder();
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-					 BufferedReader stdError = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-					String line;
-					while ((line = reader.readLine()) != null) {
-						output.append(line).append("\n");
-					}
-					while ((line = stdError.readLine()) != null) {
-						output.append(line).append("\n");
-					}
-				}
-				int exitVal = process.waitFor();
-				if (exitVal != 0) {
-					throw new RuntimeException("SFDX conversion failed: " + output.toString());
-				}
-				logger.info("SFDX conversion successful: {}", output.toString());
-				// Zip up the deploy folder
-				Path zipFiilePath = tempDir.resolve("deploy.zip");
-				Path zipFileSourcePath = tempDir.resolve(("deploy"));
-				ZipParameters params = new ZipParameters();
-				params.setReadHiddenFiles(false);
-				params.setReadHiddenFolders(false);
-				try (net.lingala.zip4j.ZipFile zipDeploy = new net.lingala.zip4j.ZipFile(zipFiilePath.toFile())) {
-					zipDeploy.addFolder(zipFileSourcePath.toFile(), params);
-					List<FileHeader> fileHeaders = zipDeploy.getFileHeaders();
-					for(FileHeader fileHeader : fileHeaders) {
-						if(fileHeader.isDirectory()) {
-							continue;
-						}
-						// RepositoryItem here is really just used to confirm what will be deployed (its not the repo contents)
-						RepositoryItem repositoryItem = new RepositoryItem();
-						repositoryItem.repositoryItem = new RepositoryContents();
-						repositoryItem.repositoryItem.setPath(fileHeader.getFileName().replace("deploy/", ""));
-						repositoryContainer.repositoryItems.add(repositoryItem);						
-					}
-				}
-				// Retain zip location for deploy request 
-				repositoryContainer.downloadId = zipFiilePath.toString();
-				convertedDXProject = true;
-				break;
-			}
-			// Found a Salesforce package manifest?
-			if(repo.getName().equals("package.xml"))
-			{
-				repositoryScanResult.packageRepoPath = repo.getPath().substring(0, repo.getPath().length() - (repo.getName().length() ));
-				if(repositoryScanResult.packageRepoPath.endsWith("/"))
-					repositoryScanResult.packageRepoPath = repositoryScanResult.packageRepoPath.substring(0, repositoryScanResult.packageRepoPath.length() - 1);
-				RepositoryItem repositoryItem = new RepositoryItem();
-				repositoryItem.repositoryItem = repo;
-				repositoryContainer.repositoryItems.add(repositoryItem);
-				continue;
-			}
-			// Could this be a Salesforce file?
-			int extensionPosition = repo.getName().lastIndexOf(".");
-			if(extensionPosition == -1) // File extension?
-				continue;
-			String fileExtension = repo.getName().substring(extensionPosition+1);
-			String fileNameWithoutExtension = repo.getName().substring(0, extensionPosition);
-			// Could this be Salesforce metadata file?
-			if(fileExtension.equals("xml"))
-			{
-				// Adjust to look for a Salesforce metadata file extension?
-				extensionPosition = fileNameWithoutExtension.lastIndexOf(".");
-				if(extensionPosition != -1)
-					fileExtension = repo.getName().substring(extensionPosition + 1);
-			}
-			// Is this file extension recognised by Salesforce Metadata API?
-			DescribeMetadataObject metadataObject = repositoryScanResult.metadataDescribeBySuffix.get(fileExtension);
-			if(metadataObject==null)
-			{
-				// Is this a file within a sub-directory of a metadata folder? 
-				//   e.g. src/documents/Eventbrite/Eventbrite_Sync_Logo.png
-				String[] folders = repo.getPath().split("/");
-				if(folders.length>3)
-				{
-					// Metadata describe for containing folder?
-					metadataObject = repositoryScanResult.metadataDescribeByFolder.get(folders[folders.length-3]);
-					if(metadataObject==null)
-						continue;
-				}
-				// Is this a metadata file for a sub-folder within the root of a metadata folder? 
-				//   (such as the XML metadata file for a folder in documents) 
-				//   e.g.  src/documents/Eventbrite
-				//         src/documents/Eventbrite-meta.xml <<<<
-				else if(folders.length>2)
-				{
-					// Metadata describe for metadata folder?
-					metadataObject = repositoryScanResult.metadataDescribeByFolder.get(folders[folders.length-2]);
-					if(metadataObject==null)
-						continue;
-					// If package.xml is to be generated for this repo, ensure folders are added to the package items 
-					//   via special value in suffix, see scanFilesToDeploy method
-					metadataObject.setSuffix("dir");
-				}
-				else
-					continue;
-			}
-			// Add file
-			RepositoryItem repositoryItem = new RepositoryItem();
-			repositoryItem.repositoryItem = repo;
-			repositoryItem.metadataFolder = metadataObject.getDirectoryName();
-			repositoryItem.metadataType = metadataObject.getXmlName();
-			repositoryItem.metadataFile = metadataObject.getMetaFile();
-			repositoryItem.metadataInFolder = metadataObject.getInFolder();
-			repositoryItem.metadataSuffix = metadataObject.getSuffix();
-			repositoryContainer.repositoryItems.add(repositoryItem);
-		}
-		// Process directories if still figuring out the contents of an none DX formatted repo
-		if(!convertedDXProject) {
-			for(RepositoryContents repo : contents)
-			{
-				if(repo.getType().equals("dir"))
-				{
-					RepositoryItem repositoryItem = new RepositoryItem();
-					repositoryItem.repositoryItem = repo;
-					repositoryItem.repositoryItems = new ArrayList<>();
-					scanRepository(contentService, repoId, ref, contentService.getContents(repoId, repo.getPath().replace(" ", "%20"), ref), repositoryItem, repositoryScanResult);
-					if(repositoryScanResult.packageRepoPath!=null && repo.getPath().equals(repositoryScanResult.packageRepoPath))
-						repositoryScanResult.pacakgeRepoDirectory = repositoryItem;
-					if(!repositoryItem.repositoryItems.isEmpty())
-						repositoryContainer.repositoryItems.add(repositoryItem);
-				}
-			}	
-		}
-	}
-
-	private static void downloadRepoToPath(Path tempDir, ContentsServiceEx contentService, RepositoryId repoId, String ref) throws Exception {
-		try (ZipInputStream zipIS = contentService.getArchiveAsZip(repoId, ref)) {
-			byte[] buffer = new byte[2048];
-			ZipEntry entry;
-			while ((entry = zipIS.getNextEntry()) != null) {
-				// Remove the repo name folder from the path
-				String zipPath = entry.getName();
-				zipPath = zipPath.substring(zipPath.indexOf("/")+1);
-				// Skip dirs
-				if(entry.isDirectory()) {
-					continue;
-				}
-				// Write file
-				Path filePath = tempDir.resolve(zipPath);
-				File outputFile = filePath.toFile();
-				outputFile.getParentFile().mkdirs();
-				outputFile.createNewFile();
-				try (FileOutputStream fos = new FileOutputStream(outputFile);
-					 BufferedOutputStream bos = new BufferedOutputStream(fos, buffer.length)) {
-					int len;
-					while ((len = zipIS.read(buffer)) > 0) {
-						bos.write(buffer, 0, len);
-					}
-				}
-			}
-		}
+		if(repository == null)
+			return null;
+		if(!repository.isPrivate())
+			return "public";
+		return accessToken != null ? "token-" + GitHubResponseCache.hash(accessToken) : null;
 	}
 
 	/**
@@ -0,0 +1,480 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+
+import org.eclipse.egit.github.core.RepositoryId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.ArchiveProperties;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.ContentsServiceEx;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Repository archives (zipballs) on local disk, keyed by repository and commit SHA, so the archive read while
+ *   scanning is not downloaded again to deploy. Concurrent requests for the same archive share one download.
+ *
+ * Archives are only shared within the same scope (see RepositoryScanner.scan), the total size on disk is bounded,
+ *   least recently used archives not currently being read are removed first.
+ */
+@Component
+public class ArchiveStore
+{
+	private static final Logger logger = LoggerFactory.getLogger(ArchiveStore.class);
+
+	private static final String ARCHIVE_EXTENSION = ".zip";
+
+	@Autowired
+	private ArchiveProperties archiveProperties;
+
+	private Path directory;
+
+	private long totalBytes;
+
+	private final LinkedHashMap<String, StoredArchive> archives = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final ConcurrentHashMap<String, CompletableFuture<StoredArchive>> downloads = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Told how much of an archive has been read
+	 */
+	public interface ReadProgress
+	{
+		/**
+		 * @param totalBytes size of the archive, -1 if not known
+		 */
+		void reading(long totalBytes);
+
+		void read(long bytes);
+	}
+
+	/**
+	 * Archive file and the number of readers that have it open
+	 */
+	private static class StoredArchive
+	{
+		final Path path;
+		final long size;
+		int readers;
+
+		StoredArchive(Path path, long size)
+		{
+			this.path = path;
+			this.size = size;
+		}
+	}
+
+	@PostConstruct
+	public void init() throws IOException
+	{
+		if(!archiveProperties.isEnabled())
+			return;
+		directory = archiveProperties.getDirectory() != null && !archiveProperties.getDirectory().isBlank() ?
+			Paths.get(archiveProperties.getDirectory()) : Paths.get(System.getProperty("java.io.tmpdir"), "githubsfdeploy-archives");
+		Files.createDirectories(directory);
+		// Pick up archives from a previous run, oldest first so they are evicted first
+		List<Path> existing;
+		try (Stream<Path> files = Files.list(directory)) {
+			existing = files.collect(Collectors.toList());
+		}
+		existing.sort(Comparator.comparing(ArchiveStore::lastModifiedTime));
+		synchronized (archives) {
+			for(Path path : existing) {
+				String fileName = path.getFileName().toString();
+				if(!fileName.endsWith(ARCHIVE_EXTENSION)) {
+					Files.deleteIfExists(path); // Incomplete download
+					continue;
+				}
+				StoredArchive storedArchive = new StoredArchive(path, Files.size(path));
+				archives.put(fileName.substring(0, fileName.length() - ARCHIVE_EXTENSION.length()), storedArchive);
+				totalBytes += storedArchive.size;
+			}
+			trim();
+		}
+		logger.info("Repository archive store at {} ({} archives, {} bytes)", directory, archives.size(), totalBytes);
+	}
+
+	/**
+	 * Opens the archive of the repository at the given commit, downloading it if it is not already on disk. A download
+	 *   is read as it arrives (and stored as it is read), so extracting it overlaps with downloading it.
+	 * @param contentService
+	 * @param repoId
+	 * @param commitSha
+	 * @param scope who may share the archive (null to download it without storing it)
+	 * @return
+	 * @throws Exception
+	 */
+	public ZipInputStream openArchive(ContentsServiceEx contentService, RepositoryId repoId, String commitSha, String scope)
+		throws Exception
+	{
+		return openArchive(contentService, repoId, commitSha, scope, null);
+	}
+
+	/**
+	 * Opens the archive (see above), reporting the bytes read to the given listener
+	 * @param contentService
+	 * @param repoId
+	 * @param commitSha
+	 * @param scope
+	 * @param readProgress
+	 * @return
+	 * @throws Exception
+	 */
+	public ZipInputStream openArchive(ContentsServiceEx contentService, RepositoryId repoId, String commitSha, String scope, ReadProgress readProgress)
+		throws Exception
+	{
+		InputStream archiveIn;
+		long size = -1;
+		if(directory == null || scope == null) {
+			archiveIn = contentService.getArchiveStream(repoId, commitSha);
+		} else {
+			String key = key(scope, repoId, commitSha);
+			StoredArchive storedArchive = acquire(key);
+			if(storedArchive != null) {
+				hits.incrementAndGet();
+				size = storedArchive.size;
+				archiveIn = openStored(storedArchive);
+			} else {
+				// GitHub does not give the size of an archive before sending it
+				archiveIn = download(key, contentService, repoId, commitSha);
+			}
+		}
+		if(readProgress != null) {
+			readProgress.reading(size);
+			archiveIn = new ProgressInputStream(archiveIn, readProgress);
+		}
+		return new ZipInputStream(archiveIn);
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	public long getTotalBytes()
+	{
+		synchronized (archives) {
+			return totalBytes;
+		}
+	}
+
+	private InputStream download(String key, ContentsServiceEx contentService, RepositoryId repoId, String commitSha)
+		throws Exception
+	{
+		CompletableFuture<StoredArchive> download = new CompletableFuture<>();
+		CompletableFuture<StoredArchive> inProgress = downloads.putIfAbsent(key, download);
+		if(inProgress != null) {
+			// Another request is downloading this archive, wait for it
+			try {
+				inProgress.get();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+			hits.incrementAndGet();
+			StoredArchive storedArchive = acquire(key);
+			if(storedArchive != null)
+				return openStored(storedArchive);
+			// Evicted in the meantime
+			return download(key, contentService, repoId, commitSha);
+		}
+		misses.incrementAndGet();
+		Path tempPath = null;
+		try {
+			StoredArchive storedArchive = acquire(key);
+			if(storedArchive != null) {
+				download.complete(storedArchive);
+				downloads.remove(key, download);
+				return openStored(storedArchive);
+			}
+			logger.debug("Downloading archive {}@{}", repoId.generateId(), commitSha);
+			tempPath = Files.createTempFile(directory, key, ".tmp");
+			return new DownloadInputStream(key, contentService.getArchiveStream(repoId, commitSha), tempPath, download);
+		} catch (Exception e) {
+			download.completeExceptionally(e);
+			downloads.remove(key, download);
+			if(tempPath != null)
+				Files.deleteIfExists(tempPath);
+			throw e;
+		}
+	}
+
+	private InputStream openStored(StoredArchive storedArchive)
+		throws IOException
+	{
+		try {
+			return new ArchiveInputStream(storedArchive);
+		} catch (IOException e) {
+			release(storedArchive);
+			throw e;
+		}
+	}
+
+	/**
+	 * Stored archive for the key, marked as being read, or null
+	 */
+	private StoredArchive acquire(String key)
+	{
+		synchronized (archives) {
+			StoredArchive storedArchive = archives.get(key);
+			if(storedArchive == null)
+				return null;
+			if(!Files.exists(storedArchive.path)) {
+				archives.remove(key);
+				totalBytes -= storedArchive.size;
+				return null;
+			}
+			storedArchive.readers++;
+			return storedArchive;
+		}
+	}
+
+	private void release(StoredArchive storedArchive)
+	{
+		synchronized (archives) {
+			storedArchive.readers--;
+			trim();
+		}
+	}
+
+	/**
+	 * Removes least recently used archives (not being read) while over the disk quota, call holding the archives lock
+	 */
+	private void trim()
+	{
+		Iterator<StoredArchive> eldest = archives.values().iterator();
+		while(totalBytes > archiveProperties.getMaxBytes() && eldest.hasNext()) {
+			StoredArchive storedArchive = eldest.next();
+			if(storedArchive.readers > 0)
+				continue;
+			eldest.remove();
+			totalBytes -= storedArchive.size;
+			evictions.incrementAndGet();
+			try {
+				Files.deleteIfExists(storedArchive.path);
+			} catch (IOException e) {
+				logger.warn("Failed to remove archive {}", storedArchive.path, e);
+			}
+		}
+	}
+
+	private static String key(String scope, RepositoryId repoId, String commitSha)
+	{
+		return GitHubResponseCache.hash(scope + ":" + repoId.generateId() + "@" + commitSha);
+	}
+
+	private static FileTime lastModifiedTime(Path path)
+	{
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	/**
+	 * Reads a stored archive, releasing it (so it may be evicted) on close
+	 */
+	private class ArchiveInputStream extends FilterInputStream
+	{
+		private final StoredArchive storedArchive;
+		private boolean closed;
+
+		ArchiveInputStream(StoredArchive storedArchive) throws IOException
+		{
+			super(new BufferedInputStream(Files.newInputStream(storedArchive.path), 64 * 1024));
+			this.storedArchive = storedArchive;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+				return;
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				release(storedArchive);
+			}
+		}
+	}
+
+	/**
+	 * Reads an archive as it is downloaded, writing what is read to a temporary file. On close the rest of the archive
+	 *   is read, then it is stored and anyone waiting for it is released.
+	 */
+	private class DownloadInputStream extends FilterInputStream
+	{
+		private final String key;
+		private final Path tempPath;
+		private final OutputStream fileOut;
+		private final CompletableFuture<StoredArchive> download;
+		private boolean closed;
+
+		DownloadInputStream(String key, InputStream archiveIn, Path tempPath, CompletableFuture<StoredArchive> download)
+			throws IOException
+		{
+			super(new BufferedInputStream(archiveIn, 64 * 1024));
+			this.key = key;
+			this.tempPath = tempPath;
+			this.fileOut = new BufferedOutputStream(Files.newOutputStream(tempPath), 64 * 1024);
+			this.download = download;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				fileOut.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if(read > 0)
+				fileOut.write(b, off, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// Skipped bytes must still be stored
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			long skipped = 0;
+			while(skipped < n) {
+				int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+				if(read == -1)
+					break;
+				skipped += read;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+				return;
+			closed = true;
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				while(read(buffer, 0, buffer.length) != -1)
+					;
+				fileOut.close();
+				super.close();
+				Path archivePath = directory.resolve(key + ARCHIVE_EXTENSION);
+				Files.move(tempPath, archivePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				StoredArchive storedArchive = new StoredArchive(archivePath, Files.size(archivePath));
+				synchronized (archives) {
+					archives.put(key, storedArchive);
+					totalBytes += storedArchive.size;
+					trim();
+				}
+				download.complete(storedArchive);
+			} catch (IOException | RuntimeException e) {
+				try {
+					fileOut.close();
+					super.close();
+				} catch (IOException closeException) {
+					e.addSuppressed(closeException);
+				}
+				Files.deleteIfExists(tempPath);
+				download.completeExceptionally(e);
+				throw e;
+			} finally {
+				downloads.remove(key, download);
+			}
+		}
+	}
+
+	/**
+	 * Reports the bytes read through it
+	 */
+	private static class ProgressInputStream extends FilterInputStream
+	{
+		private final ReadProgress readProgress;
+
+		ProgressInputStream(InputStream in, ReadProgress readProgress)
+		{
+			super(in);
+			this.readProgress = readProgress;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				readProgress.read(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if(read > 0)
+				readProgress.read(read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			if(skipped > 0)
+				readProgress.read(skipped);
+			return skipped;
+		}
+	}
+}
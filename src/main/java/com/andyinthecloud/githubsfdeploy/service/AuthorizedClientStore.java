@@ -0,0 +1,103 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+
+/**
+ * OAuth2 authorized clients (access and refresh tokens) saved at login, by registration and principal. The principal
+ *   names the org and user (see SecurityConfig), so logging in to sandboxes sharing user ids keeps each org's tokens.
+ *
+ * Replaces the in-memory service, which keeps every login for good. Logins not used for the TTL and the least recently
+ *   used beyond the cache size are removed, their orgs must then be logged in to again.
+ */
+@Component
+public class AuthorizedClientStore implements OAuth2AuthorizedClientService
+{
+	@Autowired
+	private SalesforceProperties salesforceProperties;
+
+	private final Map<String, StoredClient> clients = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, StoredClient> eldest) {
+			if(size() <= salesforceProperties.getAuthorizedClientCacheSize())
+				return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	};
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class StoredClient
+	{
+		final OAuth2AuthorizedClient authorizedClient;
+		long lastUsed = System.currentTimeMillis();
+
+		StoredClient(OAuth2AuthorizedClient authorizedClient)
+		{
+			this.authorizedClient = authorizedClient;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName)
+	{
+		String key = clientRegistrationId + "|" + principalName;
+		long now = System.currentTimeMillis();
+		synchronized (clients) {
+			StoredClient stored = clients.get(key);
+			if(stored == null)
+				return null;
+			if(now - stored.lastUsed > salesforceProperties.getAuthorizedClientTtlSeconds() * 1000L) {
+				clients.remove(key);
+				evictions.incrementAndGet();
+				return null;
+			}
+			stored.lastUsed = now;
+			return (T) stored.authorizedClient;
+		}
+	}
+
+	@Override
+	public void saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal)
+	{
+		String key = authorizedClient.getClientRegistration().getRegistrationId() + "|" + principal.getName();
+		synchronized (clients) {
+			clients.put(key, new StoredClient(authorizedClient));
+		}
+	}
+
+	@Override
+	public void removeAuthorizedClient(String clientRegistrationId, String principalName)
+	{
+		synchronized (clients) {
+			clients.remove(clientRegistrationId + "|" + principalName);
+		}
+	}
+
+	public int getSize()
+	{
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	/**
+	 * Logins removed as idle or least recently used
+	 * @return
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+}
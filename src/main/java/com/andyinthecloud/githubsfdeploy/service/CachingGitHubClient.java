@@ -0,0 +1,165 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+
+import com.andyinthecloud.githubsfdeploy.service.GitHubResponseCache.CachedResponse;
+
+/**
+ * GitHub client that revalidates responses it has seen before with If-None-Match/If-Modified-Since,
+ *   serving the cached body when GitHub replies 304 Not Modified
+ *
+ * Note: Only overrides 'get', archive downloads through 'getStream' are not cached here (ArchiveStore keeps
+ *   them on disk per commit)
+ */
+public class CachingGitHubClient extends GitHubClient
+{
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+	private static final String HEADER_LINK = "Link";
+
+	private final GitHubResponseCache responseCache;
+
+	/**
+	 * Cached responses are only shared between clients with the same credentials
+	 */
+	private String credentialScope = "anonymous";
+
+	public CachingGitHubClient(GitHubResponseCache responseCache)
+	{
+		this.responseCache = responseCache;
+	}
+
+	@Override
+	public GitHubClient setOAuth2Token(String token)
+	{
+		credentialScope = token != null && !token.isEmpty() ? "token-" + GitHubResponseCache.hash(token) : "anonymous";
+		return super.setOAuth2Token(token);
+	}
+
+	protected void setCredentialScope(String credentialScope)
+	{
+		this.credentialScope = credentialScope;
+	}
+
+	/**
+	 * Identifies the credentials of this client (without revealing them)
+	 * @return
+	 */
+	public String getCredentialScope()
+	{
+		return credentialScope;
+	}
+
+	@Override
+	public GitHubResponse get(GitHubRequest request) throws IOException
+	{
+		if(responseCache == null || !responseCache.isEnabled())
+			return super.get(request);
+		String key = cacheKey(request);
+		CachedResponse cachedResponse = responseCache.get(key);
+		HttpURLConnection httpRequest = createConditionalGet(request, cachedResponse);
+		int code = httpRequest.getResponseCode();
+		updateRateLimits(httpRequest);
+		if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cachedResponse != null) {
+			responseCache.recordRevalidation(true);
+			Object body = getBody(request, new ByteArrayInputStream(cachedResponse.body));
+			return new NotModifiedResponse(httpRequest, body, cachedResponse.link);
+		}
+		if(isOk(code)) {
+			if(cachedResponse != null)
+				responseCache.recordRevalidation(false);
+			byte[] body;
+			try (InputStream stream = getStream(httpRequest)) {
+				body = stream.readAllBytes();
+			}
+			CachedResponse freshResponse = toCachedResponse(httpRequest, body);
+			if(freshResponse != null)
+				responseCache.put(key, freshResponse);
+			return new GitHubResponse(httpRequest, getBody(request, new ByteArrayInputStream(body)));
+		}
+		if(isEmpty(code))
+			return new GitHubResponse(httpRequest, null);
+		throw createException(getStream(httpRequest), code, httpRequest.getResponseMessage());
+	}
+
+	private HttpURLConnection createConditionalGet(GitHubRequest request, CachedResponse cachedResponse)
+		throws IOException
+	{
+		HttpURLConnection httpRequest = createGet(request.generateUri());
+		String accept = request.getResponseContentType();
+		if(accept != null)
+			httpRequest.setRequestProperty(HEADER_ACCEPT, accept);
+		if(cachedResponse != null) {
+			if(cachedResponse.etag != null)
+				httpRequest.setRequestProperty(HEADER_IF_NONE_MATCH, cachedResponse.etag);
+			if(cachedResponse.lastModified != null)
+				httpRequest.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cachedResponse.lastModified);
+		}
+		return httpRequest;
+	}
+
+	/**
+	 * Request URL (less any client secret) within the credential scope of this client
+	 * @param request
+	 * @return
+	 */
+	private String cacheKey(GitHubRequest request)
+	{
+		StringBuilder key = new StringBuilder(credentialScope).append(' ').append(request.getUri());
+		Map<String, String> params = request.getParams();
+		if(params != null && !params.isEmpty()) {
+			char separator = '?';
+			for(Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+				if(param.getKey().equals("client_secret"))
+					continue;
+				key.append(separator).append(param.getKey()).append('=').append(param.getValue());
+				separator = '&';
+			}
+		}
+		if(request.getResponseContentType() != null)
+			key.append(" accept=").append(request.getResponseContentType());
+		return key.toString();
+	}
+
+	private static CachedResponse toCachedResponse(HttpURLConnection httpRequest, byte[] body)
+	{
+		String etag = httpRequest.getHeaderField(HEADER_ETAG);
+		String lastModified = httpRequest.getHeaderField(HEADER_LAST_MODIFIED);
+		if(etag == null && lastModified == null)
+			return null;
+		return new CachedResponse(etag, lastModified, httpRequest.getHeaderField(HEADER_LINK), body);
+	}
+
+	/**
+	 * Response served from the cache, paging links come from the cached response
+	 */
+	private static class NotModifiedResponse extends GitHubResponse
+	{
+		private final String link;
+
+		NotModifiedResponse(HttpURLConnection response, Object body, String link)
+		{
+			super(response, body);
+			this.link = link;
+		}
+
+		@Override
+		public String getHeader(String name)
+		{
+			if(HEADER_LINK.equalsIgnoreCase(name))
+				return link;
+			return super.getHeader(name);
+		}
+	}
+}
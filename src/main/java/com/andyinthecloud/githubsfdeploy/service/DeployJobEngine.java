@@ -0,0 +1,369 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.AsyncResult;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs deploys (repository archive download, deploy zip assembly and submission to Salesforce) on a bounded pool of
+ *   job threads, so the deploy request returns a job id straight away rather than holding a request thread throughout
+ *
+ * A job reports the stage it is at and its progress within it, the job thread is released once the deploy zip is
+ *   queued for its org (see OrgDeployScheduler). Once submitted it carries the Salesforce deploy id,
+ *   which is then polled as before. Jobs can only be looked up by the user (see OrgConnections.getScope) that started them.
+ */
+@Component
+public class DeployJobEngine
+{
+	private static final Logger logger = LoggerFactory.getLogger(DeployJobEngine.class);
+
+	/**
+	 * Distinguishes job ids from Salesforce deploy ids
+	 */
+	private static final String JOB_ID_PREFIX = "job-";
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	private ThreadPoolExecutor executor;
+
+	private final Map<String, DeployJob> jobs = new LinkedHashMap<>();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Assembles a deploy and queues it for submission, reporting progress to the job
+	 */
+	@FunctionalInterface
+	public interface DeployTask
+	{
+		/**
+		 * @return completes once the deploy has been sent to Salesforce, the job thread is free meanwhile (completes
+		 *   without a result if the deploy was handed on to other jobs, see FanOutDeployer)
+		 */
+		CompletableFuture<AsyncResult> run(DeployJob job) throws Exception;
+	}
+
+	/**
+	 * Stage and progress of a deploy, updated by its job thread and read by status requests
+	 */
+	public static class DeployJob implements ArchiveStore.ReadProgress
+	{
+		public enum Stage { QUEUED, DOWNLOADING, ZIPPING, WAITING, SUBMITTING, SUBMITTED, FAILED }
+
+		private final String id;
+		private final String scope;
+		private volatile Stage stage = Stage.QUEUED;
+		private volatile long bytesRead;
+		private volatile long bytesTotal = -1;
+		private volatile int entriesZipped;
+		private volatile int entriesTotal = -1;
+		private volatile IntSupplier queuePosition;
+		private volatile AsyncResult asyncResult;
+		private volatile String errorMessage;
+		private volatile long finishedAt;
+
+		DeployJob(String id, String scope)
+		{
+			this.id = id;
+			this.scope = scope;
+		}
+
+		public String getId()
+		{
+			return id;
+		}
+
+		public Stage getStage()
+		{
+			return stage;
+		}
+
+		/**
+		 * Deploy request returned by Salesforce, null until submitted
+		 * @return
+		 */
+		public AsyncResult getAsyncResult()
+		{
+			return asyncResult;
+		}
+
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+
+		/**
+		 * When the job was submitted or failed, 0 while it is running
+		 * @return
+		 */
+		public long getFinishedAt()
+		{
+			return finishedAt;
+		}
+
+		/**
+		 * Position (from 1) in the queue of deploys waiting for the org, 0 if not waiting
+		 * @return
+		 */
+		public int getQueuePosition()
+		{
+			IntSupplier position = queuePosition;
+			return stage == Stage.WAITING && position != null ? position.getAsInt() : 0;
+		}
+
+		/**
+		 * Progress within the current stage, e.g. "downloading 45%" or "zipping 1200/3000 entries"
+		 * @return
+		 */
+		public String getDescription()
+		{
+			switch (stage) {
+				case DOWNLOADING:
+					String downloading = bytesTotal > 0 ?
+						"downloading " + Math.min(99, bytesRead * 100 / bytesTotal) + "%" : "downloading " + (bytesRead / 1024) + " KB";
+					return entriesZipped > 0 ? downloading + ", " + zipping() : downloading;
+				case ZIPPING:
+					return zipping();
+				case WAITING:
+					int position = getQueuePosition();
+					return position > 0 ? "waiting for org, position " + position : "waiting for org";
+				case FAILED:
+					return "failed";
+				default:
+					return stage.name().toLowerCase();
+			}
+		}
+
+		/**
+		 * The repository archive is being read (zip entries are added as it is read)
+		 */
+		@Override
+		public void reading(long totalBytes)
+		{
+			bytesTotal = totalBytes;
+			stage = Stage.DOWNLOADING;
+		}
+
+		@Override
+		public void read(long bytes)
+		{
+			bytesRead += bytes; // Only updated by the job thread
+		}
+
+		/**
+		 * @param totalEntries entries to be zipped, -1 if not known
+		 */
+		public void zipping(int totalEntries)
+		{
+			entriesTotal = totalEntries;
+		}
+
+		public void zipped()
+		{
+			entriesZipped++; // Only updated by the job thread
+		}
+
+		/**
+		 * The archive has been read, the remaining entries are being compressed
+		 */
+		public void compressing()
+		{
+			stage = Stage.ZIPPING;
+		}
+
+		/**
+		 * The deploy zip is queued behind other deploys to the org
+		 * @param position position in the org's queue
+		 */
+		public void waiting(IntSupplier position)
+		{
+			queuePosition = position;
+			stage = Stage.WAITING;
+		}
+
+		public void submitting()
+		{
+			stage = Stage.SUBMITTING;
+		}
+
+		private String zipping()
+		{
+			return "zipping " + entriesZipped + (entriesTotal >= 0 ? "/" + entriesTotal : "") + " entries";
+		}
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		executor = ThreadPools.daemonPool("deploy-job", deployProperties.getJobThreads(),
+			new ArrayBlockingQueue<>(Math.max(1, deployProperties.getJobQueueSize())));
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Queues the deploy to run on a job thread
+	 * @param scope who may look the job up
+	 * @param task
+	 * @return
+	 * @throws IllegalStateException if too many deploys are waiting
+	 */
+	public DeployJob submit(String scope, DeployTask task)
+	{
+		DeployJob job = new DeployJob(JOB_ID_PREFIX + UUID.randomUUID(), scope);
+		synchronized (jobs) {
+			prune();
+			jobs.put(job.id, job);
+		}
+		try {
+			executor.execute(() -> run(job, task));
+		} catch (RejectedExecutionException e) {
+			synchronized (jobs) {
+				jobs.remove(job.id);
+			}
+			rejected.incrementAndGet();
+			throw new IllegalStateException("Too many deploys in progress, please try again shortly");
+		}
+		return job;
+	}
+
+	/**
+	 * Job for a deploy run elsewhere (e.g. one org of a fan-out), so its progress can be looked up, see track
+	 * @param scope who may look the job up
+	 * @return
+	 */
+	public DeployJob register(String scope)
+	{
+		DeployJob job = new DeployJob(JOB_ID_PREFIX + UUID.randomUUID(), scope);
+		synchronized (jobs) {
+			prune();
+			jobs.put(job.id, job);
+		}
+		return job;
+	}
+
+	/**
+	 * Records the outcome of sending the job's deploy once it is known
+	 * @param job
+	 * @param sent
+	 */
+	public void track(DeployJob job, CompletableFuture<AsyncResult> sent)
+	{
+		sent.whenComplete((asyncResult, e) -> {
+			if(e != null) {
+				fail(job, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+				return;
+			}
+			// Stage is set last, readers see the result once it changes
+			job.asyncResult = asyncResult;
+			job.finishedAt = System.currentTimeMillis();
+			job.stage = DeployJob.Stage.SUBMITTED;
+			submitted.incrementAndGet();
+		});
+	}
+
+	/**
+	 * The job with the given id started by the given user, or null
+	 * @param scope
+	 * @param jobId
+	 * @return
+	 */
+	public DeployJob get(String scope, String jobId)
+	{
+		synchronized (jobs) {
+			DeployJob job = jobs.get(jobId);
+			return job != null && job.scope.equals(scope) ? job : null;
+		}
+	}
+
+	/**
+	 * True if the id is a job id (rather than a Salesforce deploy id)
+	 * @param id
+	 * @return
+	 */
+	public static boolean isJobId(String id)
+	{
+		return id != null && id.startsWith(JOB_ID_PREFIX);
+	}
+
+	public int getRunning()
+	{
+		return executor.getActiveCount();
+	}
+
+	public int getQueued()
+	{
+		return executor.getQueue().size();
+	}
+
+	public long getSubmitted()
+	{
+		return submitted.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	public long getRejected()
+	{
+		return rejected.get();
+	}
+
+	private void run(DeployJob job, DeployTask task)
+	{
+		CompletableFuture<AsyncResult> sent;
+		try {
+			sent = task.run(job);
+		} catch (Exception e) {
+			fail(job, e);
+			return;
+		}
+		track(job, sent);
+	}
+
+	private void fail(DeployJob job, Throwable e)
+	{
+		logger.error("Deploy job {} failed", job.id, e);
+		job.errorMessage = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+		job.finishedAt = System.currentTimeMillis();
+		job.stage = DeployJob.Stage.FAILED;
+		failed.incrementAndGet();
+	}
+
+	/**
+	 * Removes jobs finished longer ago than the TTL, call holding the jobs lock
+	 */
+	private void prune()
+	{
+		long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(deployProperties.getJobTtlSeconds());
+		jobs.values().removeIf(job -> job.finishedAt != 0 && job.finishedAt < expiredBefore);
+	}
+}
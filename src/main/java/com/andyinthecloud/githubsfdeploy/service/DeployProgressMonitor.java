@@ -0,0 +1,322 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgConnections;
+import com.sforce.soap.metadata.DeployResult;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes deploy progress to pages as server-sent events, one poller per deploy and user however many pages are watching it
+ *
+ * The poller calls checkDeployStatus (without details) at the minimum interval while the deploy is changing, backing
+ *   off towards the maximum interval while it is not. Each change is sent to every subscriber as a "progress" event,
+ *   the last as a "complete" event once the deploy is done. Details (errors, test failures) are still read from the
+ *   checkdeploy endpoint. Each poll looks the subscriber's connections up again, so it uses the session's current access
+ *   token however long the deploy runs.
+ */
+@Component
+public class DeployProgressMonitor implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(DeployProgressMonitor.class);
+
+	/**
+	 * Consecutive failed polls before subscribers are sent a "failed" event (and fall back to polling themselves)
+	 */
+	private static final int MAX_FAILURES = 5;
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	@Autowired
+	private DeployResultCache deployResultCache;
+
+	@Autowired
+	private SalesforceConnectionBroker salesforceConnectionBroker;
+
+	private ScheduledThreadPoolExecutor poller;
+
+	private final Map<String, Watch> watches = new HashMap<>();
+
+	private final AtomicLong polls = new AtomicLong();
+	private final AtomicLong events = new AtomicLong();
+
+	/**
+	 * Deploy status counts sent to the page, compared to detect changes
+	 */
+	public static class DeployProgress
+	{
+		public final String id;
+		public final String status;
+		public final String stateDetail;
+		public final boolean done;
+		public final boolean success;
+		public final String errorMessage;
+		public final int numberComponentsDeployed;
+		public final int numberComponentErrors;
+		public final int numberComponentsTotal;
+		public final int numberTestsCompleted;
+		public final int numberTestErrors;
+		public final int numberTestsTotal;
+
+		public DeployProgress(DeployResult deployResult)
+		{
+			id = deployResult.getId();
+			status = deployResult.getStatus() != null ? deployResult.getStatus().name() : null;
+			stateDetail = deployResult.getStateDetail();
+			done = deployResult.isDone();
+			success = deployResult.isSuccess();
+			errorMessage = deployResult.getErrorMessage();
+			numberComponentsDeployed = deployResult.getNumberComponentsDeployed();
+			numberComponentErrors = deployResult.getNumberComponentErrors();
+			numberComponentsTotal = deployResult.getNumberComponentsTotal();
+			numberTestsCompleted = deployResult.getNumberTestsCompleted();
+			numberTestErrors = deployResult.getNumberTestErrors();
+			numberTestsTotal = deployResult.getNumberTestsTotal();
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof DeployProgress))
+				return false;
+			DeployProgress progress = (DeployProgress) other;
+			return Objects.equals(status, progress.status) && Objects.equals(stateDetail, progress.stateDetail) &&
+				done == progress.done && success == progress.success && Objects.equals(errorMessage, progress.errorMessage) &&
+				numberComponentsDeployed == progress.numberComponentsDeployed && numberComponentErrors == progress.numberComponentErrors &&
+				numberComponentsTotal == progress.numberComponentsTotal && numberTestsCompleted == progress.numberTestsCompleted &&
+				numberTestErrors == progress.numberTestErrors && numberTestsTotal == progress.numberTestsTotal;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(status, stateDetail, numberComponentsDeployed, numberTestsCompleted);
+		}
+	}
+
+	/**
+	 * Poller state for a deploy and the pages subscribed to it, subscribers guarded by the watches lock
+	 */
+	private static class Watch
+	{
+		final String key;
+		final String scope;
+		final String asyncId;
+		final OrgConnections orgConnections;
+		final List<SseEmitter> subscribers = new ArrayList<>();
+		volatile DeployProgress last;
+		long intervalMillis;
+		int failures;
+
+		Watch(String asyncId, OrgConnections orgConnections)
+		{
+			this.scope = orgConnections.getScope();
+			this.key = scope + "|" + asyncId;
+			this.asyncId = asyncId;
+			this.orgConnections = orgConnections;
+		}
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		poller = ThreadPools.daemonScheduler("deploy-progress", Math.max(1, deployProperties.getProgressThreads()));
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		poller.shutdownNow();
+	}
+
+	/**
+	 * Subscribes to progress events for the given deploy, starting its poller if no one else is watching it
+	 * @param asyncId
+	 * @param orgConnections org and user subscribing, a poller is only shared within their scope (see OrgConnections.getScope)
+	 * @return
+	 */
+	public SseEmitter subscribe(String asyncId, OrgConnections orgConnections)
+	{
+		String scope = orgConnections.getScope();
+		SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(deployProperties.getProgressTimeoutSeconds()));
+		Watch watch;
+		boolean start = false;
+		synchronized (watches) {
+			watch = watches.get(scope + "|" + asyncId);
+			if(watch == null) {
+				watch = new Watch(asyncId, orgConnections);
+				watch.intervalMillis = deployProperties.getProgressMinIntervalMillis();
+				watches.put(watch.key, watch);
+				start = true;
+			}
+			// Bring a late subscriber up to date before the poller can send it anything newer (the emitter is not
+			//   returned yet, so this is buffered rather than written)
+			DeployProgress last = watch.last;
+			if(last != null && !send(watch, emitter, "progress", last))
+				return emitter;
+			watch.subscribers.add(emitter);
+		}
+		Watch subscribed = watch;
+		emitter.onCompletion(() -> unsubscribe(subscribed, emitter));
+		emitter.onTimeout(() -> unsubscribe(subscribed, emitter));
+		emitter.onError(e -> unsubscribe(subscribed, emitter));
+		if(start)
+			poller.execute(() -> poll(subscribed));
+		return emitter;
+	}
+
+	public int getWatching()
+	{
+		synchronized (watches) {
+			return watches.size();
+		}
+	}
+
+	public long getPolls()
+	{
+		return polls.get();
+	}
+
+	public long getEvents()
+	{
+		return events.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		Gauge.builder("githubsfdeploy.progress.watching", this, DeployProgressMonitor::getWatching)
+			.description("Deploys being polled for pages watching their progress").register(registry);
+		FunctionCounter.builder("githubsfdeploy.progress.polls", polls, AtomicLong::get)
+			.description("Deploy status checks made for progress events").register(registry);
+		FunctionCounter.builder("githubsfdeploy.progress.events", events, AtomicLong::get)
+			.description("Progress events sent to pages").register(registry);
+	}
+
+	private void poll(Watch watch)
+	{
+		polls.incrementAndGet();
+		DeployProgress progress;
+		OrgConnections current;
+		try {
+			// The access token may have been refreshed since the poller started
+			current = salesforceConnectionBroker.getCurrentConnections(watch.orgConnections);
+			progress = new DeployProgress(deployResultCache.getStatus(watch.scope, watch.asyncId, current.getMetadataConnection()::checkDeployStatus));
+			watch.failures = 0;
+		} catch (Exception e) {
+			logger.warn("Failed to check status of deploy {}", watch.asyncId, e);
+			if(++watch.failures >= MAX_FAILURES) {
+				finish(watch, "failed", e.getMessage());
+				return;
+			}
+			next(watch, Math.min(watch.intervalMillis * 2, deployProperties.getProgressMaxIntervalMillis()));
+			return;
+		}
+		if(!progress.equals(watch.last)) {
+			watch.last = progress;
+			if(progress.done) {
+				// Fetch the details once for checkdeploy, before the pages are told to read them
+				try {
+					deployResultCache.getDetails(watch.scope, watch.asyncId, current.getMetadataConnection()::checkDeployStatus);
+				} catch (Exception e) {
+					logger.warn("Failed to read result of deploy {}", watch.asyncId, e);
+				}
+				finish(watch, "complete", progress);
+				return;
+			}
+			broadcast(watch, "progress", progress);
+			next(watch, deployProperties.getProgressMinIntervalMillis());
+		} else {
+			next(watch, Math.min(watch.intervalMillis * 3 / 2, deployProperties.getProgressMaxIntervalMillis()));
+		}
+	}
+
+	/**
+	 * Schedules the next poll, unless every subscriber has gone
+	 */
+	private void next(Watch watch, long intervalMillis)
+	{
+		synchronized (watches) {
+			if(watch.subscribers.isEmpty()) {
+				watches.remove(watch.key);
+				return;
+			}
+		}
+		watch.intervalMillis = intervalMillis;
+		poller.schedule(() -> poll(watch), intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends the last event and closes every subscriber, later subscribers start a new poller
+	 */
+	private void finish(Watch watch, String name, Object data)
+	{
+		List<SseEmitter> subscribers;
+		synchronized (watches) {
+			watches.remove(watch.key);
+			subscribers = new ArrayList<>(watch.subscribers);
+			watch.subscribers.clear();
+		}
+		for(SseEmitter emitter : subscribers) {
+			if(send(watch, emitter, name, data))
+				emitter.complete();
+		}
+	}
+
+	private void broadcast(Watch watch, String name, Object data)
+	{
+		List<SseEmitter> subscribers;
+		synchronized (watches) {
+			subscribers = new ArrayList<>(watch.subscribers);
+		}
+		for(SseEmitter emitter : subscribers)
+			send(watch, emitter, name, data);
+	}
+
+	/**
+	 * @return false if the subscriber has gone (it is then removed)
+	 */
+	private boolean send(Watch watch, SseEmitter emitter, String name, Object data)
+	{
+		try {
+			emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+			events.incrementAndGet();
+			return true;
+		} catch (IOException | IllegalStateException e) {
+			// Page closed or navigated away
+			unsubscribe(watch, emitter);
+			emitter.completeWithError(e);
+			return false;
+		}
+	}
+
+	private void unsubscribe(Watch watch, SseEmitter emitter)
+	{
+		synchronized (watches) {
+			watch.subscribers.remove(emitter);
+		}
+	}
+}
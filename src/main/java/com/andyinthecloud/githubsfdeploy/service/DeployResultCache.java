@@ -0,0 +1,227 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.DeployResult;
+import com.sforce.ws.ConnectionException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * checkDeployStatus results per user and deploy id. Callers asking at the same time (tabs, retries, the status poll and
+ *   the progress poller) share one call to Salesforce, and results are reused for a short TTL while the deploy runs.
+ *
+ * Status lookups ask for counters and state only. The details (component and test results, coverage), which can run
+ *   to megabytes for large deploys, are fetched once when the deploy is done. Completed results no longer change, so
+ *   are kept until evicted. Results are only shared within a scope (org and user), so each user's access to a deploy
+ *   is still checked by Salesforce.
+ */
+@Component
+public class DeployResultCache implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(DeployResultCache.class);
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	private final Map<String, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+			return size() > deployProperties.getResultCacheSize();
+		}
+	};
+
+	/**
+	 * Calls to Salesforce in flight, guarded by the results lock
+	 */
+	private final Map<String, CompletableFuture<DeployResult>> inFlight = new HashMap<>();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong upstreamCalls = new AtomicLong();
+
+	/**
+	 * Calls checkDeployStatus when the cache has no current result
+	 */
+	@FunctionalInterface
+	public interface StatusLoader
+	{
+		DeployResult checkDeployStatus(String asyncId, boolean includeDetails) throws ConnectionException;
+	}
+
+	private static class CachedResult
+	{
+		final DeployResult deployResult;
+		final long loadedAt;
+
+		CachedResult(DeployResult deployResult, long loadedAt)
+		{
+			this.deployResult = deployResult;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	/**
+	 * Counters and state of the deploy (no details)
+	 * @param scope who may share the result (see OrgConnections.getScope)
+	 * @param asyncId
+	 * @param loader
+	 * @return
+	 * @throws ConnectionException
+	 */
+	public DeployResult getStatus(String scope, String asyncId, StatusLoader loader)
+		throws ConnectionException
+	{
+		return get(scope, asyncId, false, loader);
+	}
+
+	/**
+	 * Detailed result of the deploy
+	 * @param scope who may share the result (see OrgConnections.getScope)
+	 * @param asyncId
+	 * @param loader
+	 * @return
+	 * @throws ConnectionException
+	 */
+	public DeployResult getDetails(String scope, String asyncId, StatusLoader loader)
+		throws ConnectionException
+	{
+		return get(scope, asyncId, true, loader);
+	}
+
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getCoalesced()
+	{
+		return coalesced.get();
+	}
+
+	public long getUpstreamCalls()
+	{
+		return upstreamCalls.get();
+	}
+
+	/**
+	 * Share of lookups answered without a call of their own to Salesforce (cached or coalesced)
+	 * @return
+	 */
+	public double getCoalescingRatio()
+	{
+		long requestCount = requests.get();
+		return requestCount == 0 ? 0 : 1 - (double) upstreamCalls.get() / requestCount;
+	}
+
+	public int getSize()
+	{
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		// Every lookup is one of these
+		FunctionCounter.builder("githubsfdeploy.deploy.result.cache.requests", hits, AtomicLong::get)
+			.tag("result", "hit").description("Deploy status lookups answered from the cache").register(registry);
+		FunctionCounter.builder("githubsfdeploy.deploy.result.cache.requests", coalesced, AtomicLong::get)
+			.tag("result", "coalesced").description("Deploy status lookups that shared a call already in flight").register(registry);
+		FunctionCounter.builder("githubsfdeploy.deploy.result.cache.requests", upstreamCalls, AtomicLong::get)
+			.tag("result", "call").description("Deploy status lookups that called Salesforce").register(registry);
+		Gauge.builder("githubsfdeploy.deploy.result.cache.coalescing.ratio", this, DeployResultCache::getCoalescingRatio)
+			.description("Share of deploy status lookups answered without a call of their own").register(registry);
+		Gauge.builder("githubsfdeploy.deploy.result.cache.size", this, DeployResultCache::getSize)
+			.description("Deploy results in the cache").register(registry);
+	}
+
+	private DeployResult get(String scope, String asyncId, boolean includeDetails, StatusLoader loader)
+		throws ConnectionException
+	{
+		requests.incrementAndGet();
+		String key = scope + "|" + asyncId + (includeDetails ? "|details" : "");
+		CompletableFuture<DeployResult> call;
+		boolean caller = false;
+		synchronized (results) {
+			CachedResult cachedResult = results.get(key);
+			if(cachedResult != null) {
+				long ttlMillis = cachedResult.deployResult.isDone() ?
+					deployProperties.getResultTtlSeconds() * 1000L : deployProperties.getStatusTtlMillis();
+				if(System.currentTimeMillis() - cachedResult.loadedAt <= ttlMillis) {
+					hits.incrementAndGet();
+					return cachedResult.deployResult;
+				}
+				results.remove(key);
+			}
+			call = inFlight.get(key);
+			if(call == null) {
+				call = new CompletableFuture<>();
+				inFlight.put(key, call);
+				caller = true;
+			}
+		}
+		if(!caller) {
+			// Share the call already in flight
+			coalesced.incrementAndGet();
+			return await(call);
+		}
+		// This caller makes the call, others asking meanwhile wait for it
+		upstreamCalls.incrementAndGet();
+		try {
+			DeployResult deployResult = loader.checkDeployStatus(asyncId, includeDetails);
+			synchronized (results) {
+				results.put(key, new CachedResult(deployResult, System.currentTimeMillis()));
+				inFlight.remove(key);
+			}
+			if(deployResult.isDone() && includeDetails)
+				logger.debug("Cached result of deploy {}", asyncId);
+			call.complete(deployResult);
+			return deployResult;
+		} catch (ConnectionException | RuntimeException e) {
+			synchronized (results) {
+				inFlight.remove(key);
+			}
+			call.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static DeployResult await(CompletableFuture<DeployResult> call)
+		throws ConnectionException
+	{
+		try {
+			return call.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted waiting for deploy status", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof ConnectionException)
+				throw (ConnectionException) e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new ConnectionException("Failed to check deploy status", e.getCause());
+		}
+	}
+}
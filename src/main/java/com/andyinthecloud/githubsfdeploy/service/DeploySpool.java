@@ -0,0 +1,187 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Metadata API deploy zip, held in memory while small and spilled to a temporary file once it grows past a threshold,
+ *   so the heap needed per deploy is bounded regardless of repository size
+ *
+ * Write the zip then close, read it back via openStream (as many times as needed), discard when the deploy is done.
+ *   A zip sent to several orgs is shared (see share), it is released once each holder has discarded it.
+ */
+public class DeploySpool extends OutputStream
+{
+	private final long memoryThreshold;
+
+	private byte[] buffer;
+	private int count;
+
+	private Path file;
+	private OutputStream fileOut;
+	private boolean ownsFile;
+
+	private long size;
+	private boolean closed;
+	private int holders = 1;
+
+	public DeploySpool(long memoryThreshold)
+	{
+		this.memoryThreshold = memoryThreshold;
+		this.buffer = new byte[(int) Math.min(memoryThreshold, 64 * 1024)];
+	}
+
+	private DeploySpool(Path file) throws IOException
+	{
+		this.memoryThreshold = 0;
+		this.file = file;
+		this.size = Files.size(file);
+		this.closed = true;
+	}
+
+	/**
+	 * Spool over an existing zip file (e.g. converted SFDX project), left in place on discard
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static DeploySpool ofFile(Path file) throws IOException
+	{
+		return new DeploySpool(file);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(closed)
+			throw new IOException("Deploy spool is closed");
+		if(fileOut == null && count + len > memoryThreshold)
+			spill();
+		if(fileOut != null) {
+			fileOut.write(b, off, len);
+		} else {
+			if(count + len > buffer.length)
+				buffer = Arrays.copyOf(buffer, (int) Math.min(memoryThreshold, Math.max(buffer.length * 2L, count + len)));
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+		size += len;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		if(fileOut != null)
+			fileOut.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		if(fileOut != null)
+			fileOut.close();
+	}
+
+	/**
+	 * Size of the zip in bytes
+	 * @return
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * True if the zip has been spilled to (or is) a file
+	 * @return
+	 */
+	public boolean isOnDisk()
+	{
+		return file != null;
+	}
+
+	/**
+	 * Reads the zip, the spool must be closed first
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException
+	{
+		if(!closed)
+			throw new IOException("Deploy spool is still being written");
+		if(file != null)
+			return new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+		return new ByteArrayInputStream(buffer, 0, count);
+	}
+
+	/**
+	 * Copy of the zip as a byte array, only for APIs that require one (the WSC deploy call)
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] toByteArray() throws IOException
+	{
+		if(size > Integer.MAX_VALUE - 8)
+			throw new IOException("Deploy zip is too large (" + size + " bytes)");
+		try (InputStream in = openStream()) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Adds holders of the (closed) zip, each discards it when done with it
+	 * @param count
+	 * @return
+	 */
+	public synchronized DeploySpool share(int count)
+	{
+		holders += count;
+		return this;
+	}
+
+	/**
+	 * Releases memory and removes any temporary file, once the last holder discards it
+	 */
+	public void discard()
+	{
+		synchronized (this) {
+			if(--holders > 0)
+				return;
+		}
+		buffer = null;
+		count = 0;
+		try {
+			close();
+			if(ownsFile)
+				Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Temporary file, nothing more to do
+		}
+	}
+
+	private void spill() throws IOException
+	{
+		file = Files.createTempFile("deploy", ".zip");
+		ownsFile = true;
+		fileOut = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+		fileOut.write(buffer, 0, count);
+		buffer = null;
+		count = 0;
+	}
+}
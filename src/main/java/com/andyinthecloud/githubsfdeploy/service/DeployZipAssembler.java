@@ -0,0 +1,49 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Creates DeployZipWriters, sharing one pool of compression threads between all deploys in this JVM
+ */
+@Component
+public class DeployZipAssembler
+{
+	@Autowired
+	private DeployProperties deployProperties;
+
+	private ExecutorService compressionExecutor;
+
+	@PostConstruct
+	public void init()
+	{
+		int threads = deployProperties.getCompressionThreads() > 0 ?
+			deployProperties.getCompressionThreads() : Runtime.getRuntime().availableProcessors();
+		compressionExecutor = ThreadPools.daemonPool("deploy-zip", threads);
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		compressionExecutor.shutdownNow();
+	}
+
+	/**
+	 * Zip writer for a deploy, finish it to complete the zip
+	 * @param out
+	 * @return
+	 */
+	public DeployZipWriter newWriter(OutputStream out)
+	{
+		return new DeployZipWriter(out, compressionExecutor,
+			deployProperties.getCompressionBufferBytes(), deployProperties.getCompressionMaxEntryBytes());
+	}
+}
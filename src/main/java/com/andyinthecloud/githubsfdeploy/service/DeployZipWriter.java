@@ -0,0 +1,457 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip whose entries are compressed in parallel on a worker pool, entries are written in the order they are added
+ *
+ * Content that is already compressed (png, jpeg, gif, gzip and zip/jar, including static resources holding them)
+ *   is stored rather than deflated again. Entries too large to buffer are deflated inline as they are read.
+ * Does not write Zip64 archives (Metadata API deploys are well within the classic zip limits), adding more than
+ *   65535 entries or reaching 4GB fails as soon as the limit is passed.
+ *
+ * Call finish to complete the zip, closing the writer without doing so (e.g. as a try-with-resources block exits
+ *   with an exception) or after a failure abandons it without writing the central directory.
+ */
+public class DeployZipWriter implements Closeable
+{
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private final CountingOutputStream out;
+	private final ExecutorService executor;
+	private final long maxBufferedBytes;
+	private final int maxParallelEntryBytes;
+
+	private final ArrayDeque<PendingEntry> pending = new ArrayDeque<>();
+	private long pendingBytes;
+	private final List<WrittenEntry> written = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final int dosTime;
+	private final int dosDate;
+	private boolean finished;
+	private boolean failed;
+	private boolean closed;
+
+	/**
+	 * Entry compressed (or stored) ready to write
+	 */
+	private static class CompressedEntry
+	{
+		int method;
+		long crc;
+		long size;
+		byte[] data;
+		int dataLength;
+	}
+
+	private static class PendingEntry
+	{
+		final String name;
+		final int bufferedBytes;
+		final Future<CompressedEntry> compressed;
+
+		PendingEntry(String name, int bufferedBytes, Future<CompressedEntry> compressed)
+		{
+			this.name = name;
+			this.bufferedBytes = bufferedBytes;
+			this.compressed = compressed;
+		}
+	}
+
+	private static class WrittenEntry
+	{
+		byte[] name;
+		int flags;
+		int method;
+		long crc;
+		long compressedSize;
+		long size;
+		long offset;
+	}
+
+	/**
+	 * @param out
+	 * @param executor compresses buffered entries
+	 * @param maxBufferedBytes entry data held in memory awaiting compression or writing before adding blocks
+	 * @param maxParallelEntryBytes entries larger than this are deflated inline rather than buffered
+	 */
+	public DeployZipWriter(OutputStream out, ExecutorService executor, long maxBufferedBytes, int maxParallelEntryBytes)
+	{
+		this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.executor = executor;
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.maxParallelEntryBytes = maxParallelEntryBytes;
+		LocalDateTime now = LocalDateTime.now();
+		dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+		dosDate = (Math.max(0, now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+	}
+
+	/**
+	 * Adds an entry with the given contents
+	 * @param name
+	 * @param data
+	 * @throws IOException
+	 */
+	public void addEntry(String name, byte[] data) throws IOException
+	{
+		checkName(name);
+		try {
+			submit(name, data, data.length);
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds an entry with the remaining contents of the given stream (e.g. the current entry of a ZipInputStream)
+	 * @param name
+	 * @param in
+	 * @return size of the entry
+	 * @throws IOException
+	 */
+	public long addEntry(String name, InputStream in) throws IOException
+	{
+		checkName(name);
+		try {
+			return bufferEntry(name, in);
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the entries still pending and the central directory, completing the zip
+	 * @throws IOException
+	 */
+	public void finish() throws IOException
+	{
+		checkOpen();
+		try {
+			drain(0);
+			writeCentralDirectory();
+			out.flush();
+			finished = true;
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the output, an unfinished zip is abandoned (entries awaiting compression are cancelled)
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		for(PendingEntry pendingEntry : pending)
+			pendingEntry.compressed.cancel(true);
+		pending.clear();
+		out.close();
+	}
+
+	private long bufferEntry(String name, InputStream in) throws IOException
+	{
+		byte[] buffer = new byte[(int) Math.min(64 * 1024L, maxParallelEntryBytes + 1L)];
+		int length = 0;
+		int read;
+		while((read = in.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if(length == buffer.length) {
+				if(length > maxParallelEntryBytes) {
+					// Too large to buffer, write in place once the entries ahead of it are written
+					return writeInline(name, buffer, length, in);
+				}
+				buffer = Arrays.copyOf(buffer, (int) Math.min((long) maxParallelEntryBytes + 1, buffer.length * 2L));
+			}
+		}
+		submit(name, buffer, length);
+		return length;
+	}
+
+	private void checkOpen() throws IOException
+	{
+		if(closed || finished)
+			throw new IOException("Zip writer is " + (closed ? "closed" : "finished"));
+		if(failed)
+			throw new IOException("Zip writer failed writing an earlier entry");
+	}
+
+	private void checkName(String name) throws IOException
+	{
+		checkOpen();
+		if(names.size() == 0xffff)
+			throw new ZipException("Too many entries for a zip without Zip64 (more than 65535)");
+		if(!names.add(name))
+			throw new ZipException("duplicate entry: " + name);
+	}
+
+	private void submit(String name, byte[] data, int length) throws IOException
+	{
+		// Bound memory held by entries awaiting compression or writing
+		drain(Math.max(0, maxBufferedBytes - length));
+		boolean store = isCompressed(data, length);
+		pending.add(new PendingEntry(name, length, executor.submit(() -> compress(data, length, store))));
+		pendingBytes += length;
+		// Write any entries that are ready without waiting
+		while(!pending.isEmpty() && pending.peek().compressed.isDone())
+			writePending(pending.poll());
+	}
+
+	/**
+	 * Writes pending entries, in order, until no more than the given bytes are pending (all of them, empty entries included, for 0)
+	 */
+	private void drain(long maxPendingBytes) throws IOException
+	{
+		while(!pending.isEmpty() && (maxPendingBytes == 0 || pendingBytes > maxPendingBytes))
+			writePending(pending.poll());
+	}
+
+	private void writePending(PendingEntry pendingEntry) throws IOException
+	{
+		pendingBytes -= pendingEntry.bufferedBytes;
+		CompressedEntry compressedEntry;
+		try {
+			compressedEntry = pendingEntry.compressed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted compressing " + pendingEntry.name, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to compress " + pendingEntry.name, e.getCause());
+		}
+		WrittenEntry entry = new WrittenEntry();
+		entry.name = pendingEntry.name.getBytes(StandardCharsets.UTF_8);
+		entry.flags = FLAG_UTF8;
+		entry.method = compressedEntry.method;
+		entry.crc = compressedEntry.crc;
+		entry.size = compressedEntry.size;
+		entry.compressedSize = compressedEntry.dataLength;
+		entry.offset = out.count;
+		writeLocalHeader(entry);
+		out.write(compressedEntry.data, 0, compressedEntry.dataLength);
+		written.add(entry);
+	}
+
+	private long writeInline(String name, byte[] head, int headLength, InputStream in) throws IOException
+	{
+		drain(0);
+		WrittenEntry entry = new WrittenEntry();
+		entry.name = name.getBytes(StandardCharsets.UTF_8);
+		entry.flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+		entry.method = DEFLATED;
+		entry.offset = out.count;
+		writeLocalHeader(entry);
+		// Already compressed content is wrapped in uncompressed deflate blocks (sizes are not known up front to store it)
+		Deflater deflater = new Deflater(isCompressed(head, headLength) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION, true);
+		CRC32 crc = new CRC32();
+		byte[] deflated = new byte[64 * 1024];
+		long dataStart = out.count;
+		long size = 0;
+		try {
+			byte[] buffer = head;
+			int length = headLength;
+			while(length != -1) {
+				crc.update(buffer, 0, length);
+				size += length;
+				checkLimit(size);
+				deflater.setInput(buffer, 0, length);
+				while(!deflater.needsInput()) {
+					out.write(deflated, 0, deflater.deflate(deflated));
+					checkLimit(out.count);
+				}
+				if(buffer == head)
+					buffer = new byte[64 * 1024];
+				length = in.read(buffer);
+			}
+			deflater.finish();
+			while(!deflater.finished())
+				out.write(deflated, 0, deflater.deflate(deflated));
+		} finally {
+			deflater.end();
+		}
+		entry.crc = crc.getValue();
+		entry.size = size;
+		entry.compressedSize = out.count - dataStart;
+		writeInt(DATA_DESCRIPTOR_SIGNATURE);
+		writeInt(entry.crc);
+		writeInt(checkLimit(entry.compressedSize));
+		writeInt(checkLimit(entry.size));
+		written.add(entry);
+		return size;
+	}
+
+	private static CompressedEntry compress(byte[] data, int length, boolean store)
+	{
+		CompressedEntry compressedEntry = new CompressedEntry();
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		compressedEntry.crc = crc.getValue();
+		compressedEntry.size = length;
+		if(!store) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(data, 0, length);
+				deflater.finish();
+				ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(64, length / 2));
+				byte[] buffer = new byte[Math.max(64, Math.min(length, 64 * 1024))];
+				while(!deflater.finished())
+					deflated.write(buffer, 0, deflater.deflate(buffer));
+				// Only keep the deflated form if it is actually smaller
+				if(deflated.size() < length) {
+					compressedEntry.method = DEFLATED;
+					compressedEntry.data = deflated.toByteArray();
+					compressedEntry.dataLength = compressedEntry.data.length;
+					return compressedEntry;
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		compressedEntry.method = STORED;
+		compressedEntry.data = data;
+		compressedEntry.dataLength = length;
+		return compressedEntry;
+	}
+
+	/**
+	 * Recognises content that deflate will not shrink by its leading bytes
+	 */
+	static boolean isCompressed(byte[] data, int length)
+	{
+		if(length < 4)
+			return false;
+		int b0 = data[0] & 0xff, b1 = data[1] & 0xff, b2 = data[2] & 0xff, b3 = data[3] & 0xff;
+		return (b0 == 'P' && b1 == 'K' && b2 == 3 && b3 == 4)        // zip, jar
+			|| (b0 == 0x1f && b1 == 0x8b)                            // gzip
+			|| (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G')   // png
+			|| (b0 == 0xff && b1 == 0xd8 && b2 == 0xff)              // jpeg
+			|| (b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8');   // gif
+	}
+
+	private void writeLocalHeader(WrittenEntry entry) throws IOException
+	{
+		boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+		checkLimit(entry.offset);
+		writeInt(LOCAL_HEADER_SIGNATURE);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeShort(dosTime);
+		writeShort(dosDate);
+		writeInt(descriptor ? 0 : entry.crc);
+		writeInt(descriptor ? 0 : checkLimit(entry.compressedSize));
+		writeInt(descriptor ? 0 : checkLimit(entry.size));
+		writeShort(entry.name.length);
+		writeShort(0);
+		out.write(entry.name);
+	}
+
+	private void writeCentralDirectory() throws IOException
+	{
+		long centralStart = out.count;
+		for(WrittenEntry entry : written) {
+			writeInt(CENTRAL_HEADER_SIGNATURE);
+			writeShort(VERSION);
+			writeShort(VERSION);
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeShort(dosTime);
+			writeShort(dosDate);
+			writeInt(entry.crc);
+			writeInt(checkLimit(entry.compressedSize));
+			writeInt(checkLimit(entry.size));
+			writeShort(entry.name.length);
+			writeShort(0); // extra
+			writeShort(0); // comment
+			writeShort(0); // disk
+			writeShort(0); // internal attributes
+			writeInt(0);   // external attributes
+			writeInt(checkLimit(entry.offset));
+			out.write(entry.name);
+		}
+		long centralSize = out.count - centralStart;
+		writeInt(END_SIGNATURE);
+		writeShort(0);
+		writeShort(0);
+		writeShort(written.size());
+		writeShort(written.size());
+		writeInt(checkLimit(centralSize));
+		writeInt(checkLimit(centralStart));
+		writeShort(0);
+	}
+
+	private static long checkLimit(long value) throws ZipException
+	{
+		if(value >= 0xffffffffL)
+			throw new ZipException("Zip too large without Zip64");
+		return value;
+	}
+
+	private void writeShort(int value) throws IOException
+	{
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+	}
+
+	private void writeInt(long value) throws IOException
+	{
+		writeShort((int) (value & 0xffff));
+		writeShort((int) ((value >>> 16) & 0xffff));
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream
+	{
+		long count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
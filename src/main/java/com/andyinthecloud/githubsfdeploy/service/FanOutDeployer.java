@@ -0,0 +1,442 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.service.DeployJobEngine.DeployJob;
+import com.andyinthecloud.githubsfdeploy.service.DeployProgressMonitor.DeployProgress;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgConnections;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Deploys one deploy zip to many orgs, e.g. the same tag to each sandbox. The zip is built once (as a deploy job) and
+ *   then queued for each org (see OrgDeployScheduler), a bounded number of orgs at a time per fan-out. Fan-out deploys
+ *   are uploaded on send threads of their own, as many as orgs queued at a time, rather than the scheduler's.
+ *
+ * Each org gets a deploy job of its own, so its stage and queue position can be followed as for a single deploy. The
+ *   resulting deploys, across all fan-outs, are polled by one poller (via the shared DeployResultCache), pages read the
+ *   progress and result per org from the last poll rather than calling Salesforce themselves.
+ */
+@Component
+public class FanOutDeployer
+{
+	private static final Logger logger = LoggerFactory.getLogger(FanOutDeployer.class);
+
+	/**
+	 * Consecutive failed status checks of an org's deploy before it is reported as failed (and no longer polled)
+	 */
+	private static final int MAX_FAILURES = 5;
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	@Autowired
+	private DeployJobEngine deployJobEngine;
+
+	@Autowired
+	private OrgDeployScheduler orgDeployScheduler;
+
+	@Autowired
+	private DeployResultCache deployResultCache;
+
+	@Autowired
+	private SalesforceConnectionBroker salesforceConnectionBroker;
+
+	private ScheduledThreadPoolExecutor poller;
+
+	/**
+	 * Uploads fan-out deploys to their orgs
+	 */
+	private ThreadPoolExecutor sender;
+
+	private final Map<String, FanOut> fanOuts = new LinkedHashMap<>();
+
+	/**
+	 * Poll of the fan-out deploys is scheduled, guarded by the fan-outs lock
+	 */
+	private boolean polling;
+	private long intervalMillis;
+
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong polls = new AtomicLong();
+
+	/**
+	 * Builds the deploy zip, reporting progress to the build job
+	 */
+	@FunctionalInterface
+	public interface ZipBuilder
+	{
+		DeploySpool build(DeployJob job) throws Exception;
+	}
+
+	/**
+	 * An org to deploy to
+	 */
+	public static class Target
+	{
+		private final OrgConnections orgConnections;
+		private final String name;
+		private DeployJob job;
+		private volatile AsyncResult asyncResult;
+		private volatile DeployProgress progress;
+		private volatile String pollError;
+		private int failures;
+
+		/**
+		 * @param orgConnections
+		 * @param name shown with the org's result, e.g. organization and user name
+		 */
+		public Target(OrgConnections orgConnections, String name)
+		{
+			this.orgConnections = orgConnections;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * One deploy zip sent to many orgs
+	 */
+	public static class FanOut
+	{
+		private final String id;
+		private final String owner;
+		private final List<Target> targets;
+		private final CompletableFuture<Void> sent = new CompletableFuture<>();
+		private volatile DeployJob buildJob;
+		private long finishedAt;
+
+		FanOut(String id, String owner, List<Target> targets)
+		{
+			this.id = id;
+			this.owner = owner;
+			this.targets = targets;
+		}
+
+		public String getId()
+		{
+			return id;
+		}
+
+		/**
+		 * Completes once every org's deploy has been sent (or failed to send), exceptionally if the zip was not built
+		 * @return
+		 */
+		public CompletableFuture<Void> getSent()
+		{
+			return sent;
+		}
+	}
+
+	/**
+	 * Progress and result of a fan-out, per org
+	 */
+	public static class FanOutStatus
+	{
+		public final String id;
+		public final String stage;
+		public final String stateDetail;
+		public final boolean done;
+		public final int succeeded;
+		public final int failed;
+		public final List<TargetStatus> targets = new ArrayList<>();
+
+		FanOutStatus(FanOut fanOut)
+		{
+			id = fanOut.id;
+			stage = fanOut.buildJob.getStage().name();
+			stateDetail = fanOut.buildJob.getDescription();
+			int succeededCount = 0;
+			int failedCount = 0;
+			for(Target target : fanOut.targets) {
+				TargetStatus targetStatus = new TargetStatus(target);
+				targets.add(targetStatus);
+				if(targetStatus.done && targetStatus.success)
+					succeededCount++;
+				else if(targetStatus.done)
+					failedCount++;
+			}
+			succeeded = succeededCount;
+			failed = failedCount;
+			done = succeededCount + failedCount == fanOut.targets.size();
+		}
+	}
+
+	public static class TargetStatus
+	{
+		public final String orgId;
+		public final String name;
+		public final String jobId;
+		public final String stage;
+		public final String stateDetail;
+		public final int queuePosition;
+		public final String asyncId;
+		public final DeployProgress progress;
+		public final boolean done;
+		public final boolean success;
+		public final String errorMessage;
+
+		TargetStatus(Target target)
+		{
+			DeployJob job = target.job;
+			DeployProgress last = target.progress;
+			orgId = target.orgConnections.getOrgId();
+			name = target.name;
+			jobId = job.getId();
+			stage = job.getStage().name();
+			stateDetail = last != null && last.stateDetail != null ? last.stateDetail : job.getDescription();
+			queuePosition = job.getQueuePosition();
+			asyncId = target.asyncResult != null ? target.asyncResult.getId() : null;
+			progress = last;
+			if(job.getStage() == DeployJob.Stage.FAILED) {
+				done = true;
+				success = false;
+				errorMessage = job.getErrorMessage();
+			} else if(target.pollError != null && (last == null || !last.done)) {
+				done = true;
+				success = false;
+				errorMessage = "Unable to check the status of the deploy: " + target.pollError;
+			} else {
+				done = last != null && last.done;
+				success = done && last.success;
+				errorMessage = last != null ? last.errorMessage : null;
+			}
+		}
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		poller = ThreadPools.daemonScheduler("fan-out-poll", 1);
+		sender = ThreadPools.daemonPool("fan-out-send", Math.max(1, deployProperties.getFanOutConcurrency()));
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		poller.shutdownNow();
+		sender.shutdownNow();
+	}
+
+	/**
+	 * Builds the deploy zip on a deploy job thread, then queues it for each org
+	 * @param owner who may look the fan-out up
+	 * @param targets
+	 * @param builder
+	 * @param deployOptions
+	 * @return
+	 * @throws IllegalStateException if there are too many orgs or too many deploys in progress
+	 */
+	public FanOut start(String owner, List<Target> targets, ZipBuilder builder, DeployOptions deployOptions)
+	{
+		if(targets.isEmpty() || targets.size() > deployProperties.getFanOutMaxOrgs())
+			throw new IllegalStateException("Select between 1 and " + deployProperties.getFanOutMaxOrgs() + " orgs to deploy to");
+		FanOut fanOut = new FanOut("fanout-" + UUID.randomUUID(), owner, targets);
+		for(Target target : targets)
+			target.job = deployJobEngine.register(target.orgConnections.getScope());
+		// Registered before the build starts, so the poller sees the first deploy sent
+		synchronized (fanOuts) {
+			prune();
+			fanOuts.put(fanOut.id, fanOut);
+		}
+		try {
+			fanOut.buildJob = deployJobEngine.submit(owner, job -> {
+				DeploySpool deployZip;
+				try {
+					deployZip = builder.build(job);
+				} catch (Exception e) {
+					fail(fanOut, e);
+					throw e;
+				}
+				return send(fanOut, deployZip, deployOptions);
+			});
+		} catch (IllegalStateException e) {
+			synchronized (fanOuts) {
+				fanOuts.remove(fanOut.id);
+			}
+			fail(fanOut, e);
+			throw e;
+		}
+		started.incrementAndGet();
+		return fanOut;
+	}
+
+	/**
+	 * Progress and result per org of the fan-out with the given id started by the given owner, or null
+	 * @param owner
+	 * @param fanOutId
+	 * @return
+	 */
+	public FanOutStatus getStatus(String owner, String fanOutId)
+	{
+		FanOut fanOut;
+		synchronized (fanOuts) {
+			fanOut = fanOuts.get(fanOutId);
+		}
+		if(fanOut == null || !fanOut.owner.equals(owner))
+			return null;
+		return new FanOutStatus(fanOut);
+	}
+
+	public long getStarted()
+	{
+		return started.get();
+	}
+
+	public long getPolls()
+	{
+		return polls.get();
+	}
+
+	/**
+	 * Queues the built zip for each org, no more than the configured number of orgs at a time
+	 */
+	private CompletableFuture<AsyncResult> send(FanOut fanOut, DeploySpool deployZip, DeployOptions deployOptions)
+	{
+		// Each org's send discards its share of the zip
+		deployZip.share(fanOut.targets.size() - 1);
+		ArrayDeque<Target> pending = new ArrayDeque<>(fanOut.targets);
+		AtomicInteger remaining = new AtomicInteger(fanOut.targets.size());
+		int concurrency = Math.max(1, deployProperties.getFanOutConcurrency());
+		for(int i = 0; i < concurrency; i++)
+			sendNext(fanOut, pending, remaining, deployZip, deployOptions);
+		logger.info("Fan-out {} queued {} bytes for {} orgs", fanOut.id, deployZip.size(), fanOut.targets.size());
+		// The build job has no Salesforce deploy of its own, each org's job reports its deploy
+		return fanOut.sent.thenApply(result -> null);
+	}
+
+	/**
+	 * Queues the zip for the next org waiting, once sent the next is queued in turn
+	 */
+	private void sendNext(FanOut fanOut, ArrayDeque<Target> pending, AtomicInteger remaining, DeploySpool deployZip, DeployOptions deployOptions)
+	{
+		Target target;
+		synchronized (pending) {
+			target = pending.poll();
+		}
+		if(target == null)
+			return;
+		CompletableFuture<AsyncResult> sent = orgDeployScheduler.submit(target.job, target.orgConnections, deployZip, deployOptions, sender);
+		deployJobEngine.track(target.job, sent);
+		sent.whenComplete((asyncResult, e) -> {
+			if(asyncResult != null) {
+				target.asyncResult = asyncResult;
+				startPolling();
+			}
+			if(remaining.decrementAndGet() == 0)
+				fanOut.sent.complete(null);
+			else
+				sendNext(fanOut, pending, remaining, deployZip, deployOptions);
+		});
+	}
+
+	/**
+	 * Fails the org jobs of a fan-out whose zip was not built
+	 */
+	private void fail(FanOut fanOut, Throwable e)
+	{
+		for(Target target : fanOut.targets)
+			deployJobEngine.track(target.job, CompletableFuture.failedFuture(e));
+		synchronized (fanOuts) {
+			fanOut.finishedAt = System.currentTimeMillis();
+		}
+		fanOut.sent.completeExceptionally(e);
+	}
+
+	private void startPolling()
+	{
+		synchronized (fanOuts) {
+			if(polling)
+				return;
+			polling = true;
+			intervalMillis = deployProperties.getProgressMinIntervalMillis();
+		}
+		poller.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Polls every sent deploy not yet done, across all fan-outs, then schedules the next poll while any remain
+	 */
+	private void poll()
+	{
+		List<Target> running;
+		synchronized (fanOuts) {
+			running = running();
+		}
+		boolean changed = false;
+		for(Target target : running) {
+			polls.incrementAndGet();
+			try {
+				OrgConnections orgConnections = salesforceConnectionBroker.getCurrentConnections(target.orgConnections);
+				DeployProgress progress = new DeployProgress(deployResultCache.getStatus(
+					orgConnections.getScope(), target.asyncResult.getId(), orgConnections.getMetadataConnection()::checkDeployStatus));
+				target.failures = 0;
+				if(!progress.equals(target.progress)) {
+					target.progress = progress;
+					changed = true;
+				}
+			} catch (Exception e) {
+				logger.warn("Failed to check status of deploy {} in org {}", target.asyncResult.getId(), target.orgConnections.getOrgId(), e);
+				if(++target.failures >= MAX_FAILURES) {
+					target.pollError = String.valueOf(e.getMessage());
+					changed = true;
+				}
+			}
+		}
+		synchronized (fanOuts) {
+			long now = System.currentTimeMillis();
+			for(FanOut fanOut : fanOuts.values())
+				if(fanOut.finishedAt == 0 && fanOut.buildJob != null && fanOut.sent.isDone() && new FanOutStatus(fanOut).done)
+					fanOut.finishedAt = now;
+			// Checked again under the lock, a deploy sent during this poll has already called startPolling
+			if(running().isEmpty()) {
+				polling = false;
+				return;
+			}
+			intervalMillis = changed ? deployProperties.getProgressMinIntervalMillis() :
+				Math.min(intervalMillis * 3 / 2, deployProperties.getProgressMaxIntervalMillis());
+		}
+		poller.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sent deploys not yet done (or given up on), call holding the fan-outs lock
+	 */
+	private List<Target> running()
+	{
+		List<Target> running = new ArrayList<>();
+		for(FanOut fanOut : fanOuts.values())
+			for(Target target : fanOut.targets)
+				if(target.asyncResult != null && target.pollError == null && (target.progress == null || !target.progress.done))
+					running.add(target);
+		return running;
+	}
+
+	/**
+	 * Removes fan-outs finished longer ago than the job TTL, call holding the fan-outs lock
+	 */
+	private void prune()
+	{
+		long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(deployProperties.getJobTtlSeconds());
+		fanOuts.values().removeIf(fanOut -> fanOut.finishedAt != 0 && fanOut.finishedAt < expiredBefore);
+	}
+}
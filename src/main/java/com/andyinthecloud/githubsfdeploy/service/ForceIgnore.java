@@ -0,0 +1,133 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Salesforce DX .forceignore patterns (gitignore syntax), paths relative to the project directory
+ */
+class ForceIgnore
+{
+	public static final String FORCE_IGNORE_FILE = ".forceignore";
+
+	/**
+	 * Ignored by the CLI regardless of .forceignore
+	 */
+	private static final List<String> DEFAULT_IGNORES = List.of(
+		"**/*.dup", "**/.*", "**/package2-descriptor.json", "**/package2-manifest.json", "**/__tests__/**");
+
+	private final List<Rule> rules = new ArrayList<>();
+
+	private static class Rule
+	{
+		final Pattern pattern;
+		final boolean negated;
+		final boolean directoryOnly;
+
+		Rule(Pattern pattern, boolean negated, boolean directoryOnly)
+		{
+			this.pattern = pattern;
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+		}
+	}
+
+	private ForceIgnore()
+	{
+		DEFAULT_IGNORES.forEach(this::add);
+	}
+
+	/**
+	 * Patterns from the given .forceignore file (if it exists) and the CLI defaults
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ForceIgnore load(Path file)
+		throws IOException
+	{
+		return parse(Files.isRegularFile(file) ? Files.readString(file, StandardCharsets.UTF_8) : null);
+	}
+
+	/**
+	 * Patterns from the given .forceignore content (null if there is none) and the CLI defaults
+	 * @param content
+	 * @return
+	 */
+	public static ForceIgnore parse(String content)
+	{
+		ForceIgnore forceIgnore = new ForceIgnore();
+		if(content != null)
+			content.lines().forEach(forceIgnore::add);
+		return forceIgnore;
+	}
+
+	/**
+	 * Ignored if the file, or any folder containing it, matches (the last matching pattern wins)
+	 * @param path
+	 * @return
+	 */
+	public boolean isIgnored(String path)
+	{
+		for(int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1))
+			if(matches(path.substring(0, slash), true))
+				return true;
+		return matches(path, false);
+	}
+
+	private boolean matches(String path, boolean directory)
+	{
+		boolean ignored = false;
+		for(Rule rule : rules)
+			if((directory || !rule.directoryOnly) && rule.pattern.matcher(path).matches())
+				ignored = !rule.negated;
+		return ignored;
+	}
+
+	private void add(String line)
+	{
+		String pattern = line.trim();
+		if(pattern.isEmpty() || pattern.startsWith("#"))
+			return;
+		boolean negated = pattern.startsWith("!");
+		if(negated)
+			pattern = pattern.substring(1);
+		boolean directoryOnly = pattern.endsWith("/");
+		if(directoryOnly)
+			pattern = pattern.substring(0, pattern.length() - 1);
+		// Patterns without a slash match at any depth
+		boolean anchored = pattern.contains("/");
+		if(pattern.startsWith("/"))
+			pattern = pattern.substring(1);
+		if(pattern.isEmpty())
+			return;
+		StringBuilder regex = new StringBuilder(anchored ? "" : "(?:.*/)?");
+		for(int i = 0; i < pattern.length(); i++)
+		{
+			char c = pattern.charAt(i);
+			if(c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+				if(i + 2 < pattern.length() && pattern.charAt(i + 2) == '/') {
+					regex.append("(?:.*/)?");
+					i += 2;
+				} else {
+					regex.append(".*");
+					i++;
+				}
+			} else if(c == '*') {
+				regex.append("[^/]*");
+			} else if(c == '?') {
+				regex.append("[^/]");
+			} else if(c == '[' || c == ']' || Character.isLetterOrDigit(c) || c == '/' || c == '_' || c == '-') {
+				regex.append(c);
+			} else {
+				regex.append('\\').append(c);
+			}
+		}
+		rules.add(new Rule(Pattern.compile(regex.toString()), negated, directoryOnly));
+	}
+}
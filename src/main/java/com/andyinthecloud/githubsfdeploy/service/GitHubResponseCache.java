@@ -0,0 +1,324 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.GitHubCacheProperties;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * GitHub API responses along with their validators (ETag/Last-Modified), used by CachingGitHubClient to make
+ *   conditional requests. A 304 reply does not count against the GitHub rate limit.
+ *
+ * Entries live in a memory tier bounded by total body size, and optionally in an on-disk tier that
+ *   survives memory eviction (and restarts).
+ */
+@Component
+public class GitHubResponseCache implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(GitHubResponseCache.class);
+
+	@Autowired
+	private GitHubCacheProperties cacheProperties;
+
+	private Path diskDirectory;
+
+	// Size of the on-disk tier, kept as entries are written and removed so it is only listed when over budget
+	private long diskBytes;
+
+	private long memoryBytes;
+
+	private final LinkedHashMap<String, CachedResponse> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong modified = new AtomicLong();
+	private final AtomicLong diskReads = new AtomicLong();
+
+	/**
+	 * Response body and the validators to revalidate it with
+	 */
+	public static class CachedResponse
+	{
+		public final String etag;
+		public final String lastModified;
+		public final String link;
+		public final byte[] body;
+
+		public CachedResponse(String etag, String lastModified, String link, byte[] body)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.link = link;
+			this.body = body;
+		}
+	}
+
+	@PostConstruct
+	public void init() throws IOException
+	{
+		if(cacheProperties.getDiskDirectory() != null && !cacheProperties.getDiskDirectory().isBlank()) {
+			diskDirectory = Paths.get(cacheProperties.getDiskDirectory());
+			Files.createDirectories(diskDirectory);
+			// Pick up entries from a previous run
+			List<Path> existing;
+			try (Stream<Path> files = Files.list(diskDirectory)) {
+				existing = files.collect(Collectors.toList());
+			}
+			synchronized (this) {
+				for(Path path : existing) {
+					if(path.getFileName().toString().endsWith(".tmp"))
+						Files.deleteIfExists(path); // Incomplete write
+					else
+						diskBytes += Files.size(path);
+				}
+				trimDisk();
+			}
+			logger.info("GitHub response cache on-disk tier at {} ({} bytes)", diskDirectory, diskBytes);
+		}
+	}
+
+	public boolean isEnabled()
+	{
+		return cacheProperties.isEnabled();
+	}
+
+	public long getMaxEntryBytes()
+	{
+		return cacheProperties.getMaxEntryBytes();
+	}
+
+	/**
+	 * Cached response for the given key (request URL and credential scope), or null
+	 * @param key
+	 * @return
+	 */
+	public CachedResponse get(String key)
+	{
+		synchronized (memory) {
+			CachedResponse cachedResponse = memory.get(key);
+			if(cachedResponse != null)
+				return cachedResponse;
+		}
+		if(diskDirectory == null)
+			return null;
+		CachedResponse cachedResponse = readFromDisk(key);
+		if(cachedResponse != null) {
+			diskReads.incrementAndGet();
+			putInMemory(key, cachedResponse);
+		}
+		return cachedResponse;
+	}
+
+	public void put(String key, CachedResponse cachedResponse)
+	{
+		if(cachedResponse.body.length > cacheProperties.getMaxEntryBytes())
+			return;
+		putInMemory(key, cachedResponse);
+		if(diskDirectory != null)
+			writeToDisk(key, cachedResponse);
+	}
+
+	/**
+	 * Records the outcome of a conditional request
+	 * @param wasNotModified
+	 */
+	public void recordRevalidation(boolean wasNotModified)
+	{
+		(wasNotModified ? notModified : modified).incrementAndGet();
+	}
+
+	public long getNotModifiedCount()
+	{
+		return notModified.get();
+	}
+
+	public long getModifiedCount()
+	{
+		return modified.get();
+	}
+
+	public long getDiskReads()
+	{
+		return diskReads.get();
+	}
+
+	public long getMemoryBytes()
+	{
+		synchronized (memory) {
+			return memoryBytes;
+		}
+	}
+
+	public synchronized long getDiskBytes()
+	{
+		return diskBytes;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		FunctionCounter.builder("githubsfdeploy.github.cache.revalidations", notModified, AtomicLong::get)
+			.tag("result", "not-modified").description("Conditional GitHub requests by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.github.cache.revalidations", modified, AtomicLong::get)
+			.tag("result", "modified").description("Conditional GitHub requests by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.github.cache.disk.reads", diskReads, AtomicLong::get)
+			.description("GitHub responses read back from the on-disk tier").register(registry);
+		Gauge.builder("githubsfdeploy.github.cache.memory.bytes", this, GitHubResponseCache::getMemoryBytes)
+			.description("Size of the GitHub responses held in memory").register(registry);
+		Gauge.builder("githubsfdeploy.github.cache.disk.bytes", this, GitHubResponseCache::getDiskBytes)
+			.description("Size of the GitHub responses held on disk").register(registry);
+		Gauge.builder("githubsfdeploy.github.cache.entry.max.bytes", this, GitHubResponseCache::getMaxEntryBytes)
+			.description("Largest GitHub response body that is cached").register(registry);
+	}
+
+	/**
+	 * Hash used to keep credentials and long URLs out of cache keys and file names
+	 * @param value
+	 * @return
+	 */
+	public static String hash(String value)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void putInMemory(String key, CachedResponse cachedResponse)
+	{
+		synchronized (memory) {
+			CachedResponse previous = memory.put(key, cachedResponse);
+			if(previous != null)
+				memoryBytes -= previous.body.length;
+			memoryBytes += cachedResponse.body.length;
+			Iterator<CachedResponse> eldest = memory.values().iterator();
+			while(memoryBytes > cacheProperties.getMaxMemoryBytes() && eldest.hasNext()) {
+				memoryBytes -= eldest.next().body.length;
+				eldest.remove();
+			}
+		}
+	}
+
+	private CachedResponse readFromDisk(String key)
+	{
+		Path entryPath = diskDirectory.resolve(hash(key));
+		if(!Files.exists(entryPath))
+			return null;
+		try (DataInputStream dataIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryPath)))) {
+			if(!key.equals(dataIn.readUTF()))
+				return null;
+			String etag = emptyToNull(dataIn.readUTF());
+			String lastModified = emptyToNull(dataIn.readUTF());
+			String link = emptyToNull(dataIn.readUTF());
+			byte[] body = new byte[dataIn.readInt()];
+			dataIn.readFully(body);
+			// Track recency for eviction
+			Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+			return new CachedResponse(etag, lastModified, link, body);
+		} catch (IOException e) {
+			logger.warn("Failed to read cached GitHub response {}", entryPath, e);
+			return null;
+		}
+	}
+
+	private void writeToDisk(String key, CachedResponse cachedResponse)
+	{
+		Path entryPath = diskDirectory.resolve(hash(key));
+		try {
+			Path tempPath = Files.createTempFile(diskDirectory, "entry", ".tmp");
+			try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				dataOut.writeUTF(key);
+				dataOut.writeUTF(nullToEmpty(cachedResponse.etag));
+				dataOut.writeUTF(nullToEmpty(cachedResponse.lastModified));
+				dataOut.writeUTF(nullToEmpty(cachedResponse.link));
+				dataOut.writeInt(cachedResponse.body.length);
+				dataOut.write(cachedResponse.body);
+			}
+			synchronized (this) {
+				long replacedBytes = Files.exists(entryPath) ? Files.size(entryPath) : 0;
+				long entryBytes = Files.size(tempPath);
+				Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				diskBytes += entryBytes - replacedBytes;
+				trimDisk();
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to write cached GitHub response {}", entryPath, e);
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries while the on-disk tier is over budget, call holding the lock
+	 * @throws IOException
+	 */
+	private void trimDisk() throws IOException
+	{
+		if(diskBytes <= cacheProperties.getMaxDiskBytes())
+			return;
+		List<Path> entries;
+		try (Stream<Path> files = Files.list(diskDirectory)) {
+			entries = files.filter(path -> !path.getFileName().toString().endsWith(".tmp")).collect(Collectors.toList());
+		}
+		// Resync the running total while the entries are listed anyway
+		diskBytes = 0;
+		for(Path entry : entries)
+			diskBytes += Files.size(entry);
+		entries.sort(Comparator.comparing(GitHubResponseCache::lastModifiedTime));
+		for(Path entry : entries) {
+			if(diskBytes <= cacheProperties.getMaxDiskBytes())
+				break;
+			long entryBytes = Files.size(entry);
+			if(Files.deleteIfExists(entry))
+				diskBytes -= entryBytes;
+		}
+	}
+
+	private static FileTime lastModifiedTime(Path path)
+	{
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static String emptyToNull(String value)
+	{
+		return value.isEmpty() ? null : value;
+	}
+
+	private static String nullToEmpty(String value)
+	{
+		return value == null ? "" : value;
+	}
+}
@@ -0,0 +1,153 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeIndex.MetadataType;
+
+/**
+ * Classifies repository file paths as Salesforce metadata, built once per describe index
+ *
+ * Lookups hash and compare regions of the path in place, so classifying a path allocates nothing,
+ *   results are shared immutable instances
+ */
+public final class MetadataClassifier
+{
+	private final RegionTable<Classification> bySuffix;
+	private final RegionTable<Classification> byFolderContents;
+	private final RegionTable<Classification> byFolderMetadata;
+
+	/**
+	 * Metadata type of a file, and the suffix to record for it ("dir" for the metadata file of a folder)
+	 */
+	public static final class Classification
+	{
+		private final MetadataType metadataType;
+		private final String suffix;
+
+		private Classification(MetadataType metadataType, String suffix)
+		{
+			this.metadataType = metadataType;
+			this.suffix = suffix;
+		}
+
+		public MetadataType getMetadataType()
+		{
+			return metadataType;
+		}
+
+		public String getSuffix()
+		{
+			return suffix;
+		}
+	}
+
+	MetadataClassifier(Map<String, MetadataType> typesBySuffix, Map<String, MetadataType> typesByFolder)
+	{
+		Map<String, Classification> suffixClassifications = new HashMap<>();
+		typesBySuffix.forEach((suffix, metadataType) ->
+			suffixClassifications.put(suffix, new Classification(metadataType, metadataType.getSuffix())));
+		Map<String, Classification> folderContentsClassifications = new HashMap<>();
+		Map<String, Classification> folderMetadataClassifications = new HashMap<>();
+		typesByFolder.forEach((folder, metadataType) -> {
+			folderContentsClassifications.put(folder, new Classification(metadataType, metadataType.getSuffix()));
+			// If package.xml is to be generated for this repo, ensure folders are added to the package items
+			//   via special value in suffix, see scanFilesToDeploy method
+			folderMetadataClassifications.put(folder, new Classification(metadataType, "dir"));
+		});
+		bySuffix = new RegionTable<>(suffixClassifications);
+		byFolderContents = new RegionTable<>(folderContentsClassifications);
+		byFolderMetadata = new RegionTable<>(folderMetadataClassifications);
+	}
+
+	/**
+	 * Classifies a repository file, null if it is not Salesforce metadata
+	 *   e.g. src/classes/Foo.cls, src/classes/Foo.cls-meta.xml
+	 *        src/documents/Eventbrite/Eventbrite_Sync_Logo.png (file within a sub-directory of a metadata folder)
+	 *        src/documents/Eventbrite-meta.xml (metadata file for a sub-folder within the root of a metadata folder)
+	 * @param path
+	 * @return
+	 */
+	public Classification classify(String path)
+	{
+		int nameStart = path.lastIndexOf('/') + 1;
+		// File extension?
+		int extensionPosition = path.lastIndexOf('.');
+		if(extensionPosition < nameStart)
+			return null;
+		int suffixStart = extensionPosition + 1;
+		// Could this be Salesforce metadata file? Adjust to look for a Salesforce metadata file extension (e.g. cls-meta.xml)
+		if(path.length() - suffixStart == 3 && path.startsWith("xml", suffixStart))
+		{
+			int metadataExtensionPosition = extensionPosition > nameStart ? path.lastIndexOf('.', extensionPosition - 1) : -1;
+			if(metadataExtensionPosition >= nameStart)
+				suffixStart = metadataExtensionPosition + 1;
+		}
+		// Is this file extension recognised by Salesforce Metadata API?
+		Classification classification = bySuffix.get(path, suffixStart, path.length());
+		if(classification != null)
+			return classification;
+		// Locate the folders containing the file
+		int parentEnd = nameStart - 1;
+		if(parentEnd < 0)
+			return null;
+		int grandParentEnd = path.lastIndexOf('/', parentEnd - 1);
+		if(grandParentEnd < 0)
+			return null;
+		int greatGrandParentEnd = path.lastIndexOf('/', grandParentEnd - 1);
+		if(greatGrandParentEnd >= 0)
+		{
+			// Is this a file within a sub-directory of a metadata folder?
+			return byFolderContents.get(path, greatGrandParentEnd + 1, grandParentEnd);
+		}
+		// Is this a metadata file for a sub-folder within the root of a metadata folder?
+		return byFolderMetadata.get(path, grandParentEnd + 1, parentEnd);
+	}
+
+	/**
+	 * Open addressing table keyed by strings, looked up by a region of a larger string without copying it
+	 */
+	private static final class RegionTable<V>
+	{
+		private final String[] keys;
+		private final Object[] values;
+		private final int mask;
+
+		RegionTable(Map<String, V> entries)
+		{
+			int capacity = Integer.highestOneBit(Math.max(4, entries.size() * 2 + 1)) << 1;
+			keys = new String[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+			entries.forEach((key, value) -> {
+				int slot = hash(key, 0, key.length()) & mask;
+				while(keys[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = value;
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		V get(String source, int start, int end)
+		{
+			int length = end - start;
+			int slot = hash(source, start, end) & mask;
+			String key;
+			while((key = keys[slot]) != null) {
+				if(key.length() == length && source.regionMatches(start, key, 0, length))
+					return (V) values[slot];
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+
+		private static int hash(String source, int start, int end)
+		{
+			int hash = 0;
+			for(int i = start; i < end; i++)
+				hash = 31 * hash + source.charAt(i);
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
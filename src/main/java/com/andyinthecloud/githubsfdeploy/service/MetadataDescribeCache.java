@@ -0,0 +1,187 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+import com.sforce.soap.metadata.DeployMessage;
+import com.sforce.soap.metadata.DeployResult;
+import com.sforce.soap.metadata.DescribeMetadataResult;
+import com.sforce.ws.ConnectionException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * describeMetadata results per org and API version, held as prebuilt MetadataDescribeIndex instances
+ *
+ * An org's describes are dropped before the TTL if a deploy fails on a metadata type the org does not know, as the
+ *   package.xml was built from a describe that no longer matches the org.
+ */
+@Component
+public class MetadataDescribeCache implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(MetadataDescribeCache.class);
+
+	@Autowired
+	private SalesforceProperties salesforceProperties;
+
+	private final Map<String, CachedDescribe> describes = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedDescribe> eldest) {
+			return size() > salesforceProperties.getDescribeCacheSize();
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Calls describeMetadata when the cache has no current entry
+	 */
+	@FunctionalInterface
+	public interface DescribeLoader
+	{
+		DescribeMetadataResult describeMetadata(double apiVersion) throws ConnectionException;
+	}
+
+	private static class CachedDescribe
+	{
+		final MetadataDescribeIndex describeIndex;
+		final long loadedAt;
+
+		CachedDescribe(MetadataDescribeIndex describeIndex, long loadedAt)
+		{
+			this.describeIndex = describeIndex;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	/**
+	 * Describe index for the given org and API version, loaded via the given loader if not cached or expired
+	 * @param orgId
+	 * @param apiVersion
+	 * @param loader
+	 * @return
+	 * @throws ConnectionException
+	 */
+	public MetadataDescribeIndex getIndex(String orgId, double apiVersion, DescribeLoader loader)
+		throws ConnectionException
+	{
+		String key = key(orgId, apiVersion);
+		synchronized (describes) {
+			CachedDescribe cachedDescribe = describes.get(key);
+			if(cachedDescribe != null) {
+				if(System.currentTimeMillis() - cachedDescribe.loadedAt <= salesforceProperties.getDescribeTtlSeconds() * 1000L) {
+					hits.incrementAndGet();
+					return cachedDescribe.describeIndex;
+				}
+				describes.remove(key);
+			}
+		}
+		misses.incrementAndGet();
+		logger.debug("Describing metadata for {}", key);
+		MetadataDescribeIndex describeIndex = MetadataDescribeIndex.build(loader.describeMetadata(apiVersion));
+		synchronized (describes) {
+			describes.put(key, new CachedDescribe(describeIndex, System.currentTimeMillis()));
+		}
+		return describeIndex;
+	}
+
+	/**
+	 * Drops the cached describes for all API versions of an org
+	 * @param orgId
+	 */
+	public void invalidate(String orgId)
+	{
+		String prefix = orgId + "|";
+		synchronized (describes) {
+			describes.keySet().removeIf(key -> key.startsWith(prefix));
+		}
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Drops the org's cached describes if the deploy failed on a metadata type the org does not know
+	 * @param orgId
+	 * @param deployResult with details
+	 * @return true if they were dropped
+	 */
+	public boolean invalidateIfStale(String orgId, DeployResult deployResult)
+	{
+		if(!reportsUnknownType(deployResult))
+			return false;
+		logger.info("Deploy {} named a metadata type unknown to org {}, dropping its cached describes", deployResult.getId(), orgId);
+		invalidate(orgId);
+		return true;
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getInvalidations()
+	{
+		return invalidations.get();
+	}
+
+	public int getSize()
+	{
+		synchronized (describes) {
+			return describes.size();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		FunctionCounter.builder("githubsfdeploy.describe.cache.requests", hits, AtomicLong::get)
+			.tag("result", "hit").description("Metadata describe lookups by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.describe.cache.requests", misses, AtomicLong::get)
+			.tag("result", "miss").description("Metadata describe lookups by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.describe.cache.invalidations", invalidations, AtomicLong::get)
+			.description("Orgs whose cached describes were dropped after a deploy named an unknown type").register(registry);
+		Gauge.builder("githubsfdeploy.describe.cache.size", this, MetadataDescribeCache::getSize)
+			.description("Org and API version describes in the cache").register(registry);
+	}
+
+	/**
+	 * Deploy failed with Salesforce's "Unknown type name" error (in package.xml or a component)
+	 */
+	static boolean reportsUnknownType(DeployResult deployResult)
+	{
+		if(isUnknownType(deployResult.getErrorMessage()))
+			return true;
+		if(deployResult.getDetails() == null || deployResult.getDetails().getComponentFailures() == null)
+			return false;
+		for(DeployMessage message : deployResult.getDetails().getComponentFailures())
+			if(!message.isSuccess() && isUnknownType(message.getProblem()))
+				return true;
+		return false;
+	}
+
+	private static boolean isUnknownType(String problem)
+	{
+		return problem != null && problem.contains("Unknown type name");
+	}
+
+	private static String key(String orgId, double apiVersion)
+	{
+		return orgId + "|" + apiVersion;
+	}
+}
@@ -0,0 +1,171 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import com.sforce.soap.metadata.DescribeMetadataObject;
+import com.sforce.soap.metadata.DescribeMetadataResult;
+
+/**
+ * Immutable lookup of metadata types by file suffix and by metadata folder, built once from a describeMetadata result
+ *   and safe to share between scans (the WSC DescribeMetadataObject is mutable, so is not retained)
+ */
+public final class MetadataDescribeIndex
+{
+	private final Map<String, MetadataType> typesBySuffix;
+	private final Map<String, MetadataType> typesByFolder;
+	private final Map<String, MetadataType> typesByDirectoryName;
+	private final String fingerprint;
+	private final MetadataClassifier classifier;
+
+	/**
+	 * The parts of a DescribeMetadataObject the scan needs
+	 */
+	public static final class MetadataType
+	{
+		private final String xmlName;
+		private final String directoryName;
+		private final String suffix;
+		private final boolean inFolder;
+		private final boolean metaFile;
+
+		public MetadataType(String xmlName, String directoryName, String suffix, boolean inFolder, boolean metaFile)
+		{
+			this.xmlName = xmlName;
+			this.directoryName = directoryName;
+			this.suffix = suffix;
+			this.inFolder = inFolder;
+			this.metaFile = metaFile;
+		}
+
+		public String getXmlName()
+		{
+			return xmlName;
+		}
+
+		public String getDirectoryName()
+		{
+			return directoryName;
+		}
+
+		public String getSuffix()
+		{
+			return suffix;
+		}
+
+		public boolean getInFolder()
+		{
+			return inFolder;
+		}
+
+		public boolean getMetaFile()
+		{
+			return metaFile;
+		}
+	}
+
+	private MetadataDescribeIndex(Map<String, MetadataType> typesBySuffix, Map<String, MetadataType> typesByFolder,
+		Map<String, MetadataType> typesByDirectoryName, String fingerprint)
+	{
+		this.typesBySuffix = Collections.unmodifiableMap(typesBySuffix);
+		this.typesByFolder = Collections.unmodifiableMap(typesByFolder);
+		this.typesByDirectoryName = Collections.unmodifiableMap(typesByDirectoryName);
+		this.fingerprint = fingerprint;
+		this.classifier = new MetadataClassifier(typesBySuffix, typesByFolder);
+	}
+
+	public static MetadataDescribeIndex build(DescribeMetadataResult describeResult)
+	{
+		Map<String, MetadataType> typesBySuffix = new HashMap<>();
+		Map<String, MetadataType> typesByFolder = new HashMap<>();
+		Map<String, MetadataType> typesByDirectoryName = new HashMap<>();
+		List<String> fingerprintEntries = new ArrayList<>();
+		for(DescribeMetadataObject describeObject : describeResult.getMetadataObjects())
+		{
+			MetadataType metadataType = new MetadataType(
+				describeObject.getXmlName(),
+				describeObject.getDirectoryName(),
+				describeObject.getSuffix(),
+				describeObject.getInFolder(),
+				describeObject.getMetaFile());
+			if(metadataType.getSuffix()==null) {
+				typesByFolder.put(metadataType.getDirectoryName(), metadataType);
+			} else {
+				typesBySuffix.put(metadataType.getSuffix(), metadataType);
+				if(metadataType.getMetaFile())
+					typesBySuffix.put(metadataType.getSuffix() + "-meta.xml", metadataType);
+			}
+			if(metadataType.getDirectoryName() != null)
+				typesByDirectoryName.putIfAbsent(metadataType.getDirectoryName(), metadataType);
+			fingerprintEntries.add(metadataType.getXmlName() + "|" + metadataType.getDirectoryName() + "|" + metadataType.getSuffix()
+				+ "|" + metadataType.getInFolder() + "|" + metadataType.getMetaFile());
+		}
+		Collections.sort(fingerprintEntries);
+		return new MetadataDescribeIndex(typesBySuffix, typesByFolder, typesByDirectoryName, sha256(String.join("\n", fingerprintEntries)));
+	}
+
+	/**
+	 * Metadata type for a file suffix (e.g. cls or cls-meta.xml)
+	 * @param suffix
+	 * @return
+	 */
+	public MetadataType getBySuffix(String suffix)
+	{
+		return typesBySuffix.get(suffix);
+	}
+
+	/**
+	 * Metadata type, without a suffix of its own, for its folder (e.g. documents)
+	 * @param folder
+	 * @return
+	 */
+	public MetadataType getByFolder(String folder)
+	{
+		return typesByFolder.get(folder);
+	}
+
+	/**
+	 * Metadata type for its folder, with or without a suffix of its own (e.g. classes, documents)
+	 * @param directoryName
+	 * @return
+	 */
+	public MetadataType getByDirectoryName(String directoryName)
+	{
+		return typesByDirectoryName.get(directoryName);
+	}
+
+	/**
+	 * Classifies repository file paths against these metadata types
+	 * @return
+	 */
+	public MetadataClassifier getClassifier()
+	{
+		return classifier;
+	}
+
+	/**
+	 * Digest of the metadata types, scans classify files against these so are only reusable for the same set
+	 * @return
+	 */
+	public String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	private static String sha256(String value)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,615 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.service.DeployJobEngine.DeployJob;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgConnections;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.soap.metadata.DeployResult;
+import com.sforce.soap.metadata.Package;
+import com.sforce.soap.metadata.PackageTypeMembers;
+import com.sforce.ws.bind.TypeMapper;
+import com.sforce.ws.parser.XmlOutputStream;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Sends deploys to each org one at a time, in the order they were queued. Salesforce runs one metadata deploy per org
+ *   at a time, so a deploy sent while another is running only waits on the Salesforce side (and is polled meanwhile).
+ *
+ * Deploys are uploaded on send threads (or those given with the deploy), the scheduler threads only poll, so a slow
+ *   upload does not hold up polls or sends to other orgs. Each poll looks the org's connections up again, so it uses the session's current access token.
+ *
+ * Once an org's deploy is done (polled via the shared DeployResultCache) the next is sent. Deploys waiting behind it for
+ *   the same user, with the same options and manifests naming different components, are merged into one deploy zip and
+ *   package.xml and sent together, each job then reports the same Salesforce deploy. Converted (SFDX) projects and
+ *   zips with destructive changes are always sent on their own.
+ */
+@Component
+public class OrgDeployScheduler
+{
+	private static final Logger logger = LoggerFactory.getLogger(OrgDeployScheduler.class);
+
+	/**
+	 * Consecutive failed polls of the running deploy before the org is treated as free
+	 */
+	private static final int MAX_FAILURES = 5;
+
+	/**
+	 * Merged deploy zips are kept within the Metadata API limit for a zip file
+	 */
+	static final long MAX_MERGED_BYTES = 39L * 1024 * 1024;
+
+	private static final String METADATA_NAMESPACE = "http://soap.sforce.com/2006/04/metadata";
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	@Autowired
+	private DeployResultCache deployResultCache;
+
+	@Autowired
+	private DeployZipAssembler deployZipAssembler;
+
+	@Autowired
+	private StreamingSoapDeployTransport streamingSoapDeployTransport;
+
+	@Autowired
+	private RestDeployTransport restDeployTransport;
+
+	@Autowired
+	private SalesforceConnectionBroker salesforceConnectionBroker;
+
+	/**
+	 * Polls the running deploy of each org
+	 */
+	private ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * Sends deploys not given their own send threads, one per org at a time
+	 */
+	private ThreadPoolExecutor sender;
+
+	private final Map<String, OrgQueue> orgs = new HashMap<>();
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * A deploy zip waiting for its org
+	 */
+	static class QueuedDeploy
+	{
+		final DeployJob job;
+		final OrgConnections orgConnections;
+		final DeploySpool deployZip;
+		final DeployOptions deployOptions;
+		final Executor sender;
+		final CompletableFuture<AsyncResult> result = new CompletableFuture<>();
+		Manifest manifest;
+
+		QueuedDeploy(DeployJob job, OrgConnections orgConnections, DeploySpool deployZip, DeployOptions deployOptions, Executor sender)
+		{
+			this.job = job;
+			this.orgConnections = orgConnections;
+			this.deployZip = deployZip;
+			this.deployOptions = deployOptions;
+			this.sender = sender;
+		}
+	}
+
+	/**
+	 * Deploys waiting for an org and the deploy running in it, guarded by the orgs lock (an org is only held while busy)
+	 */
+	private static class OrgQueue
+	{
+		final ArrayDeque<QueuedDeploy> queue = new ArrayDeque<>();
+		OrgConnections orgConnections;
+		String asyncId;
+		long sentAt;
+		long intervalMillis;
+		int failures;
+	}
+
+	/**
+	 * Components named by a deploy zip's package.xml and the other entries in the zip, null if it cannot be merged
+	 */
+	private static class Manifest
+	{
+		String version;
+		final Map<String, Set<String>> members = new TreeMap<>();
+		final Set<String> entries = new HashSet<>();
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		scheduler = ThreadPools.daemonScheduler("org-deploy-poll", Math.max(1, deployProperties.getOrgSchedulerThreads()));
+		sender = ThreadPools.daemonPool("org-deploy-send", Math.max(1, deployProperties.getOrgSendThreads()));
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		scheduler.shutdownNow();
+		sender.shutdownNow();
+	}
+
+	/**
+	 * Queues the deploy zip for the org, it is sent once the deploys queued ahead of it are done
+	 * @param job reports the queue position, then submitting
+	 * @param orgConnections
+	 * @param deployZip discarded once sent (or merged)
+	 * @param deployOptions
+	 * @return completes once the deploy has been sent
+	 */
+	public CompletableFuture<AsyncResult> submit(DeployJob job, OrgConnections orgConnections, DeploySpool deployZip, DeployOptions deployOptions)
+	{
+		return submit(job, orgConnections, deployZip, deployOptions, sender);
+	}
+
+	/**
+	 * Queues the deploy zip for the org, sent on the given threads (with any deploys merged into it) once its turn comes
+	 * @param job
+	 * @param orgConnections
+	 * @param deployZip
+	 * @param deployOptions
+	 * @param sender e.g. a multi-org deploy's own send threads
+	 * @return completes once the deploy has been sent
+	 */
+	public CompletableFuture<AsyncResult> submit(DeployJob job, OrgConnections orgConnections, DeploySpool deployZip, DeployOptions deployOptions, Executor sender)
+	{
+		QueuedDeploy deploy = new QueuedDeploy(job, orgConnections, deployZip, deployOptions, sender);
+		job.waiting(() -> getQueuePosition(deploy));
+		boolean start;
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(orgConnections.getOrgId());
+			start = org == null;
+			if(start) {
+				org = new OrgQueue();
+				orgs.put(orgConnections.getOrgId(), org);
+			}
+			org.queue.add(deploy);
+		}
+		if(start)
+			startNext(orgConnections.getOrgId());
+		return deploy.result;
+	}
+
+	/**
+	 * Deploys waiting for an org (not counting the one running)
+	 * @param orgId
+	 * @return
+	 */
+	public int getQueueDepth(String orgId)
+	{
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(orgId);
+			return org != null ? org.queue.size() : 0;
+		}
+	}
+
+	public int getOrgsBusy()
+	{
+		synchronized (orgs) {
+			return orgs.size();
+		}
+	}
+
+	public long getSent()
+	{
+		return sent.get();
+	}
+
+	/**
+	 * Deploys sent as part of another deploy
+	 * @return
+	 */
+	public long getMerged()
+	{
+		return merged.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	/**
+	 * Position (from 1) of the deploy in its org's queue, 0 once it has left the queue
+	 */
+	private int getQueuePosition(QueuedDeploy deploy)
+	{
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(deploy.orgConnections.getOrgId());
+			if(org == null)
+				return 0;
+			int position = 0;
+			for(QueuedDeploy queued : org.queue) {
+				position++;
+				if(queued == deploy)
+					return position;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Runs sendNext on the send threads of the deploy at the head of the org's queue
+	 */
+	private void startNext(String orgId)
+	{
+		Executor executor;
+		synchronized (orgs) {
+			QueuedDeploy head = orgs.get(orgId).queue.peek();
+			executor = head != null ? head.sender : sender;
+		}
+		executor.execute(() -> sendNext(orgId));
+	}
+
+	/**
+	 * Sends the deploy at the head of the org's queue, merged with compatible deploys behind it
+	 */
+	private void sendNext(String orgId)
+	{
+		List<QueuedDeploy> batch = new ArrayList<>();
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(orgId);
+			QueuedDeploy head = org.queue.poll();
+			if(head == null) {
+				orgs.remove(orgId);
+				return;
+			}
+			batch.add(head);
+		}
+		batch.forEach(deploy -> deploy.job.submitting());
+		if(deployProperties.isOrgMergeQueued())
+			addMergeable(orgId, batch);
+
+		QueuedDeploy head = batch.get(0);
+		DeploySpool deployZip = head.deployZip;
+		try {
+			if(batch.size() > 1)
+				deployZip = merge(batch);
+			// The access token may have been refreshed while the deploy was queued
+			AsyncResult asyncResult = send(salesforceConnectionBroker.getCurrentConnections(head.orgConnections), deployZip, head.deployOptions);
+			sent.incrementAndGet();
+			merged.addAndGet(batch.size() - 1);
+			logger.info("Sent deploy {} to org {} ({} queued deploys)", asyncResult.getId(), orgId, batch.size());
+			synchronized (orgs) {
+				OrgQueue org = orgs.get(orgId);
+				org.orgConnections = head.orgConnections;
+				org.asyncId = asyncResult.getId();
+				org.sentAt = System.currentTimeMillis();
+				org.intervalMillis = deployProperties.getProgressMinIntervalMillis();
+				org.failures = 0;
+			}
+			batch.forEach(deploy -> deploy.result.complete(asyncResult));
+			scheduler.schedule(() -> poll(orgId), deployProperties.getProgressMinIntervalMillis(), TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			// Nothing is running in the org on our behalf, move on to the next deploy
+			logger.error("Failed to send deploy to org {}", orgId, e);
+			failed.addAndGet(batch.size());
+			batch.forEach(deploy -> deploy.result.completeExceptionally(e));
+			startNext(orgId);
+		} finally {
+			if(deployZip != head.deployZip)
+				deployZip.discard();
+			batch.forEach(deploy -> deploy.deployZip.discard());
+		}
+	}
+
+	/**
+	 * Takes deploys from the org's queue that can be sent along with the batch, in queue order
+	 */
+	private void addMergeable(String orgId, List<QueuedDeploy> batch)
+	{
+		List<QueuedDeploy> queued;
+		synchronized (orgs) {
+			queued = new ArrayList<>(orgs.get(orgId).queue);
+		}
+		List<QueuedDeploy> mergeable = selectMergeable(batch.get(0), queued);
+		if(mergeable.isEmpty())
+			return;
+		// Deploys only leave the queue here, one sendNext runs per org at a time
+		synchronized (orgs) {
+			orgs.get(orgId).queue.removeAll(mergeable);
+		}
+		mergeable.forEach(deploy -> deploy.job.submitting());
+		batch.addAll(mergeable);
+	}
+
+	/**
+	 * Queued deploys for the same user and options, naming components the head and each other do not, that fit in
+	 *   one zip along with the head
+	 * @param head
+	 * @param queued in queue order
+	 * @return
+	 */
+	static List<QueuedDeploy> selectMergeable(QueuedDeploy head, List<QueuedDeploy> queued)
+	{
+		List<QueuedDeploy> mergeable = new ArrayList<>();
+		head.manifest = readManifest(head);
+		if(head.manifest == null)
+			return mergeable;
+		Manifest combined = new Manifest();
+		combined.version = head.manifest.version;
+		add(combined, head.manifest);
+		long totalBytes = head.deployZip.size();
+		for(QueuedDeploy candidate : queued) {
+			if(!candidate.orgConnections.getScope().equals(head.orgConnections.getScope()) ||
+				!compatible(head.deployOptions, candidate.deployOptions))
+				continue;
+			if(candidate.manifest == null)
+				candidate.manifest = readManifest(candidate);
+			if(candidate.manifest == null || !Objects.equals(combined.version, candidate.manifest.version) ||
+				overlaps(combined, candidate.manifest) || totalBytes + candidate.deployZip.size() > MAX_MERGED_BYTES)
+				continue;
+			add(combined, candidate.manifest);
+			totalBytes += candidate.deployZip.size();
+			mergeable.add(candidate);
+		}
+		return mergeable;
+	}
+
+	/**
+	 * One zip with the entries of every deploy in the batch and a package.xml naming all their components
+	 */
+	DeploySpool merge(List<QueuedDeploy> batch)
+		throws Exception
+	{
+		Manifest combined = new Manifest();
+		combined.version = batch.get(0).manifest.version;
+		batch.forEach(deploy -> add(combined, deploy.manifest));
+		DeploySpool mergedZip = new DeploySpool(deployProperties.getSpoolMemoryThreshold());
+		try (DeployZipWriter zipOS = deployZipAssembler.newWriter(mergedZip)) {
+			zipOS.addEntry("package.xml", writeManifest(combined));
+			for(QueuedDeploy deploy : batch) {
+				try (ZipInputStream zipIS = new ZipInputStream(deploy.deployZip.openStream())) {
+					ZipEntry zipEntry;
+					while ((zipEntry = zipIS.getNextEntry()) != null) {
+						if(!zipEntry.isDirectory() && !zipEntry.getName().equals("package.xml"))
+							zipOS.addEntry(zipEntry.getName(), zipIS);
+					}
+				}
+			}
+			zipOS.finish();
+		} catch (Exception e) {
+			mergedZip.discard();
+			throw e;
+		}
+		logger.info("Merged {} deploys into one zip ({} bytes)", batch.size(), mergedZip.size());
+		return mergedZip;
+	}
+
+	private AsyncResult send(OrgConnections orgConnections, DeploySpool deployZip, DeployOptions deployOptions)
+		throws Exception
+	{
+		if(deployProperties.getTransport() == DeployProperties.Transport.STREAMING_SOAP) {
+			// Stream the zip from the spool into the request
+			return streamingSoapDeployTransport.deploy(orgConnections.getMetadataServerUrl(), orgConnections.getAccessToken(), deployZip, deployOptions);
+		} else if(deployProperties.getTransport() == DeployProperties.Transport.REST) {
+			// Stream the zip from the spool into a binary multipart part
+			return restDeployTransport.deploy(orgConnections.getInstanceUrl(), salesforceConnectionBroker.getApiVersion(), orgConnections.getAccessToken(), deployZip, deployOptions);
+		}
+		// The WSC deploy call takes the zip as a byte array
+		return orgConnections.getMetadataConnection().deploy(deployZip.toByteArray(), deployOptions);
+	}
+
+	/**
+	 * Checks whether the org's running deploy is done, sending the next once it is
+	 */
+	private void poll(String orgId)
+	{
+		OrgConnections orgConnections;
+		String asyncId;
+		long sentAt;
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(orgId);
+			orgConnections = org.orgConnections;
+			asyncId = org.asyncId;
+			sentAt = org.sentAt;
+		}
+		boolean done;
+		try {
+			// The connections may have been replaced since the deploy was sent (e.g. a new access token)
+			OrgConnections current = salesforceConnectionBroker.getCurrentConnections(orgConnections);
+			DeployResult deployResult = deployResultCache.getStatus(current.getScope(), asyncId, current.getMetadataConnection()::checkDeployStatus);
+			done = deployResult.isDone();
+			synchronized (orgs) {
+				orgs.get(orgId).failures = 0;
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to check status of deploy {} in org {}", asyncId, orgId, e);
+			synchronized (orgs) {
+				done = ++orgs.get(orgId).failures >= MAX_FAILURES;
+			}
+		}
+		if(!done && System.currentTimeMillis() - sentAt > TimeUnit.SECONDS.toMillis(deployProperties.getProgressTimeoutSeconds())) {
+			logger.warn("Deploy {} in org {} still running after {} seconds, sending the next deploy", asyncId, orgId, deployProperties.getProgressTimeoutSeconds());
+			done = true;
+		}
+		if(done) {
+			startNext(orgId);
+			return;
+		}
+		long intervalMillis;
+		synchronized (orgs) {
+			OrgQueue org = orgs.get(orgId);
+			org.intervalMillis = Math.min(org.intervalMillis * 3 / 2, deployProperties.getProgressMaxIntervalMillis());
+			intervalMillis = org.intervalMillis;
+		}
+		scheduler.schedule(() -> poll(orgId), intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Manifest of a classic (single package) deploy zip, null if it cannot be merged
+	 */
+	private static Manifest readManifest(QueuedDeploy deploy)
+	{
+		if(!deploy.deployOptions.isSinglePackage())
+			return null;
+		Manifest manifest = new Manifest();
+		boolean found = false;
+		try (ZipInputStream zipIS = new ZipInputStream(deploy.deployZip.openStream())) {
+			ZipEntry zipEntry;
+			while ((zipEntry = zipIS.getNextEntry()) != null) {
+				String name = zipEntry.getName();
+				if(name.startsWith("destructiveChanges"))
+					return null;
+				if(name.equals("package.xml")) {
+					DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+					factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+					DocumentBuilder builder = factory.newDocumentBuilder();
+					Document document = builder.parse(new NonClosingInputStream(zipIS));
+					NodeList types = document.getDocumentElement().getElementsByTagName("types");
+					for(int i = 0; i < types.getLength(); i++) {
+						Element type = (Element) types.item(i);
+						NodeList typeName = type.getElementsByTagName("name");
+						if(typeName.getLength() == 0)
+							return null;
+						Set<String> members = manifest.members.computeIfAbsent(typeName.item(0).getTextContent().trim(), key -> new TreeSet<>());
+						NodeList typeMembers = type.getElementsByTagName("members");
+						for(int j = 0; j < typeMembers.getLength(); j++)
+							members.add(typeMembers.item(j).getTextContent().trim());
+					}
+					NodeList version = document.getDocumentElement().getElementsByTagName("version");
+					manifest.version = version.getLength() > 0 ? version.item(0).getTextContent().trim() : null;
+					found = true;
+				} else if(!zipEntry.isDirectory()) {
+					manifest.entries.add(name);
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Unable to read package.xml of queued deploy, it will be sent on its own", e);
+			return null;
+		}
+		return found ? manifest : null;
+	}
+
+	private static boolean overlaps(Manifest combined, Manifest manifest)
+	{
+		for(Map.Entry<String, Set<String>> type : manifest.members.entrySet()) {
+			Set<String> members = combined.members.get(type.getKey());
+			if(members == null)
+				continue;
+			// A wildcard names every component of the type
+			if(members.contains("*") || type.getValue().contains("*"))
+				return true;
+			for(String member : type.getValue())
+				if(members.contains(member))
+					return true;
+		}
+		for(String entry : manifest.entries)
+			if(combined.entries.contains(entry))
+				return true;
+		return false;
+	}
+
+	private static void add(Manifest combined, Manifest manifest)
+	{
+		manifest.members.forEach((type, members) -> combined.members.computeIfAbsent(type, key -> new TreeSet<>()).addAll(members));
+		combined.entries.addAll(manifest.entries);
+	}
+
+	/**
+	 * Deploys can only be merged if they would have been deployed the same way
+	 */
+	private static boolean compatible(DeployOptions options, DeployOptions other)
+	{
+		return options.isSinglePackage() == other.isSinglePackage() &&
+			options.isRollbackOnError() == other.isRollbackOnError() &&
+			options.isCheckOnly() == other.isCheckOnly() &&
+			options.isPerformRetrieve() == other.isPerformRetrieve() &&
+			options.isIgnoreWarnings() == other.isIgnoreWarnings() &&
+			options.isAllowMissingFiles() == other.isAllowMissingFiles() &&
+			options.isAutoUpdatePackage() == other.isAutoUpdatePackage() &&
+			options.isPurgeOnDelete() == other.isPurgeOnDelete() &&
+			options.getTestLevel() == other.getTestLevel() &&
+			!namesTests(options) && !namesTests(other);
+	}
+
+	/**
+	 * Whether specific tests are named, the WSC options start with an empty list rather than none
+	 */
+	private static boolean namesTests(DeployOptions options)
+	{
+		return options.getRunTests() != null && options.getRunTests().length > 0;
+	}
+
+	private static byte[] writeManifest(Manifest manifest)
+		throws IOException
+	{
+		Package packageManifest = new Package();
+		packageManifest.setVersion(manifest.version);
+		List<PackageTypeMembers> packageTypes = new ArrayList<>();
+		manifest.members.forEach((type, members) -> {
+			PackageTypeMembers packageTypeMembers = new PackageTypeMembers();
+			packageTypeMembers.setName(type);
+			packageTypeMembers.setMembers(members.toArray(new String[0]));
+			packageTypes.add(packageTypeMembers);
+		});
+		packageManifest.setTypes(packageTypes.toArray(new PackageTypeMembers[0]));
+		try (ByteArrayOutputStream packageBaos = new ByteArrayOutputStream()) {
+			XmlOutputStream xmlOutputStream = new XmlOutputStream(packageBaos, true);
+			xmlOutputStream.setPrefix("", METADATA_NAMESPACE);
+			xmlOutputStream.setPrefix("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+			packageManifest.write(new QName(METADATA_NAMESPACE, "Package"), xmlOutputStream, new TypeMapper());
+			xmlOutputStream.close();
+			return packageBaos.toByteArray();
+		}
+	}
+
+	/**
+	 * Stops the XML parser closing the zip stream it reads package.xml from
+	 */
+	private static class NonClosingInputStream extends FilterInputStream
+	{
+		NonClosingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.eclipse.egit.github.core.RepositoryContents;
+import org.eclipse.egit.github.core.RepositoryId;
+
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.ContentsServiceEx;
+
+/**
+ * Lists repository directories through the Contents API ahead of the scan, fanning out to sub-directories
+ *   as each listing arrives. The scan itself still walks the tree serially, it just finds most listings
+ *   already fetched, so the resulting RepositoryItem tree is identical to a serial scan.
+ *
+ * A listing the scan is waiting for goes to the head of the queue, ahead of any prefetching. Prefetching stops
+ *   queueing further directories once prefetchLimit are waiting, those are listed when the scan reaches them.
+ */
+class ParallelDirectoryLister implements RepositoryScanner.DirectoryLister, AutoCloseable
+{
+	private final ContentsServiceEx contentService;
+	private final RepositoryId repoId;
+	private final String ref;
+	private final Executor executor;
+	private final int parallelism;
+	private final int prefetchLimit;
+
+	private final Map<String, CompletableFuture<List<RepositoryContents>>> listings = new ConcurrentHashMap<>();
+	/**
+	 * Listings not yet submitted, guarded by this
+	 */
+	private final Deque<String> pending = new ArrayDeque<>();
+	private int inFlight;
+	private volatile boolean closed;
+
+	ParallelDirectoryLister(ContentsServiceEx contentService, RepositoryId repoId, String ref, Executor executor, int parallelism, int prefetchLimit)
+	{
+		this.contentService = contentService;
+		this.repoId = repoId;
+		this.ref = ref;
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+		this.prefetchLimit = Math.max(0, prefetchLimit);
+	}
+
+	@Override
+	public List<RepositoryContents> getContents(String path) throws IOException
+	{
+		String key = path == null ? "" : path;
+		demand(key);
+		try {
+			return listings.get(key).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted listing " + key, e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops fanning out to further directories, listings already in flight are left to complete
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+	}
+
+	/**
+	 * The scan is waiting for this listing, queue it (or move it if already queued) ahead of any prefetching
+	 */
+	private void demand(String key)
+	{
+		synchronized (this) {
+			if(listings.putIfAbsent(key, new CompletableFuture<>()) == null || pending.remove(key))
+				pending.addFirst(key);
+		}
+		submitPending();
+	}
+
+	/**
+	 * Queues the listing behind those already waiting, unless prefetchLimit are waiting
+	 */
+	private void prefetch(String key)
+	{
+		synchronized (this) {
+			if(pending.size() >= prefetchLimit || listings.putIfAbsent(key, new CompletableFuture<>()) != null)
+				return;
+			pending.addLast(key);
+		}
+		submitPending();
+	}
+
+	private void submitPending()
+	{
+		while(true)
+		{
+			String key;
+			synchronized (this) {
+				if(inFlight >= parallelism || pending.isEmpty())
+					return;
+				key = pending.poll();
+				inFlight++;
+			}
+			try {
+				executor.execute(() -> list(key));
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					inFlight--;
+				}
+				listings.get(key).completeExceptionally(e);
+			}
+		}
+	}
+
+	private void list(String key)
+	{
+		CompletableFuture<List<RepositoryContents>> listing = listings.get(key);
+		try {
+			List<RepositoryContents> contents =
+				contentService.getContents(repoId, key.isEmpty() ? null : key.replace(" ", "%20"), ref);
+			// Mirror the scan, it does not descend into directories of a Salesforce DX project
+			boolean dxProject = contents.stream().anyMatch(
+				item -> !item.getType().equals("dir") && item.getName().equals("sfdx-project.json"));
+			if(!closed && !dxProject) {
+				for(RepositoryContents item : contents) {
+					if(item.getType().equals("dir"))
+						prefetch(item.getPath());
+				}
+			}
+			listing.complete(contents);
+		} catch (Throwable e) {
+			listing.completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				inFlight--;
+			}
+			submitPending();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes files extracted from an archive, small files are handed to the executor so their writes (and file creation)
+ *   overlap with reading the rest of the archive, larger files are streamed to disk by the caller. The bytes read
+ *   ahead of their writes are bounded.
+ */
+class ParallelFileWriter implements AutoCloseable
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Files up to this size are read into memory and written by the executor
+	 */
+	private static final int MAX_BUFFERED_FILE = 1024 * 1024;
+
+	/**
+	 * Bytes read into memory and not yet written, per archive
+	 */
+	private static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+	private final Executor executor;
+	private final Semaphore pendingBytes = new Semaphore(MAX_PENDING_BYTES);
+	private final List<Future<Void>> writes = new ArrayList<>();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * @param executor null to write every file on the calling thread
+	 */
+	ParallelFileWriter(Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Writes the stream (up to its end) to the given file
+	 * @param file
+	 * @param in
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	void write(Path file, InputStream in)
+		throws IOException, InterruptedException
+	{
+		// Archive entries rarely state their size up front, read enough to know if this is a small file
+		byte[] content = executor != null ? in.readNBytes(MAX_BUFFERED_FILE + 1) : new byte[0];
+		if(executor == null || content.length > MAX_BUFFERED_FILE) {
+			Files.createDirectories(file.getParent());
+			try (OutputStream out = Files.newOutputStream(file)) {
+				out.write(content);
+				int len;
+				while ((len = in.read(buffer)) > 0)
+					out.write(buffer, 0, len);
+			}
+			return;
+		}
+		int permits = content.length;
+		pendingBytes.acquire(permits);
+		try {
+			FutureTask<Void> write = new FutureTask<>(() -> {
+				try {
+					Files.createDirectories(file.getParent());
+					Files.write(file, content);
+					return null;
+				} finally {
+					pendingBytes.release(permits);
+				}
+			});
+			executor.execute(write);
+			writes.add(write);
+		} catch (RuntimeException e) {
+			pendingBytes.release(permits);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for the files handed to the executor to be written
+	 * @throws IOException the first failed write
+	 * @throws InterruptedException
+	 */
+	@Override
+	public void close()
+		throws IOException, InterruptedException
+	{
+		IOException failure = null;
+		for (Future<Void> write : writes) {
+			try {
+				write.get();
+			} catch (ExecutionException e) {
+				if(failure == null)
+					failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+		}
+		writes.clear();
+		if(failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,567 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.eclipse.egit.github.core.RepositoryContents;
+import org.eclipse.egit.github.core.RepositoryId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.andyinthecloud.githubsfdeploy.config.ScanProperties;
+import com.andyinthecloud.githubsfdeploy.config.SfdxProperties;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.ContentsServiceEx;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.GitSubModule;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.RepositoryItem;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.RepositoryScanResult;
+import com.andyinthecloud.githubsfdeploy.service.MetadataClassifier.Classification;
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeIndex.MetadataType;
+import com.andyinthecloud.githubsfdeploy.service.ScanResultCache.CachedScan;
+import com.andyinthecloud.githubsfdeploy.service.SfdxSourceConverter.ConvertedEntry;
+import com.andyinthecloud.githubsfdeploy.service.SfdxSourceConverter.UnsupportedSourceException;
+import com.andyinthecloud.githubsfdeploy.service.WorkspaceStore.Workspace;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.lingala.zip4j.model.FileHeader;
+import net.lingala.zip4j.model.ZipParameters;
+
+/**
+ * Discovers the Salesforce metadata contained in a GitHub repository
+ */
+@Service
+public class RepositoryScanner
+{
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryScanner.class);
+
+	private static final Pattern COMMIT_SHA = Pattern.compile("[0-9a-fA-F]{40}");
+
+	@Autowired
+	private ScanProperties scanProperties;
+
+	@Autowired
+	private ScanResultCache scanResultCache;
+
+	@Autowired
+	private ArchiveStore archiveStore;
+
+	@Autowired
+	private SfdxProperties sfdxProperties;
+
+	@Autowired
+	private SfdxSourceConverter sfdxSourceConverter;
+
+	@Autowired
+	private SfdxConversionScheduler sfdxConversionScheduler;
+
+	@Autowired
+	private WorkspaceStore workspaceStore;
+
+	/**
+	 * Shared by all scans, bounds the directory listings in flight across the JVM (parallel-contents mode)
+	 */
+	private ExecutorService listingExecutor;
+
+	/**
+	 * Shared by all scans, bounds the repository and submodule archives downloaded at once across the JVM
+	 */
+	private ExecutorService archiveExecutor;
+
+	/**
+	 * Shared by all scans, writes files extracted from archives to workspaces (null to write on the extracting thread)
+	 */
+	private ExecutorService extractionExecutor;
+
+	/**
+	 * Source of directory listings for the scan
+	 */
+	@FunctionalInterface
+	interface DirectoryLister
+	{
+		List<RepositoryContents> getContents(String path) throws IOException;
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		listingExecutor = ThreadPools.daemonPool("repository-scan", scanProperties.getMaxThreads());
+		archiveExecutor = ThreadPools.daemonPool("repository-archive", scanProperties.getMaxArchiveThreads());
+		if(sfdxProperties.getExtractionThreads() > 0)
+			extractionExecutor = ThreadPools.daemonPool("workspace-write", sfdxProperties.getExtractionThreads());
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		listingExecutor.shutdownNow();
+		archiveExecutor.shutdownNow();
+		if(extractionExecutor != null)
+			extractionExecutor.shutdownNow();
+	}
+
+	/**
+	 * Scans the repository at the given ref into the given container
+	 * @param contentService
+	 * @param repoId
+	 * @param ref
+	 * @param cacheScope who may share the scan result via the cache (null to bypass the cache)
+	 * @param repositoryContainer
+	 * @param repositoryScanResult
+	 * @throws Exception
+	 */
+	public void scan(ContentsServiceEx contentService, RepositoryId repoId, String ref, String cacheScope, RepositoryItem repositoryContainer, RepositoryScanResult repositoryScanResult)
+			throws Exception
+	{
+		// Pin the ref to a commit, the scan (and its cache entry) then describes immutable content
+		String commitSha = resolveCommitSha(contentService, repoId, ref, cacheScope);
+		repositoryScanResult.commitSha = commitSha;
+		String cacheKey = cacheScope != null ?
+			ScanResultCache.key(cacheScope, repoId, commitSha, repositoryScanResult.describeIndex.getFingerprint()) : null;
+		if(cacheKey != null)
+		{
+			CachedScan cachedScan = scanResultCache.get(cacheKey);
+			// Converted projects are only reused while their workspace is still on disk
+			if(cachedScan != null && (cachedScan.repositoryContainer.downloadId == null ||
+				workspaceStore.hold(cachedScan.repositoryContainer.downloadId)))
+			{
+				repositoryContainer.repositoryItems = cachedScan.repositoryContainer.repositoryItems;
+				repositoryContainer.downloadId = cachedScan.repositoryContainer.downloadId;
+				repositoryScanResult.packageRepoPath = cachedScan.packageRepoPath;
+				repositoryScanResult.pacakgeRepoDirectory = cachedScan.pacakgeRepoDirectory;
+				return;
+			}
+		}
+
+		DirectoryLister directoryLister;
+		ParallelDirectoryLister parallelDirectoryLister = null;
+		if(scanProperties.getMode() == ScanProperties.Mode.TREE)
+		{
+			// Read the whole tree up front
+			RepositoryTree repositoryTree = RepositoryTree.fetch(contentService, repoId, commitSha);
+			directoryLister = repositoryTree::getContents;
+		}
+		else if(scanProperties.getMode() == ScanProperties.Mode.PARALLEL_CONTENTS)
+		{
+			// List sibling directories concurrently ahead of the (serial) scan
+			parallelDirectoryLister = new ParallelDirectoryLister(
+				contentService, repoId, commitSha, listingExecutor, scanProperties.getParallelism(), scanProperties.getPrefetchLimit());
+			directoryLister = parallelDirectoryLister;
+		}
+		else
+		{
+			directoryLister = path -> contentService.getContents(repoId, path == null ? null : path.replace(" ", "%20"), commitSha);
+		}
+		try {
+			scanRepository(contentService, directoryLister, repoId, commitSha, ref, cacheScope, directoryLister.getContents(null), repositoryContainer, repositoryScanResult);
+		} finally {
+			if(parallelDirectoryLister != null)
+				parallelDirectoryLister.close();
+		}
+		if(cacheKey != null)
+			scanResultCache.put(cacheKey, new CachedScan(repositoryContainer, repositoryScanResult.packageRepoPath, repositoryScanResult.pacakgeRepoDirectory));
+	}
+
+	/**
+	 * Commit SHA the given ref currently points to
+	 * @param contentService
+	 * @param repoId
+	 * @param ref
+	 * @param cacheScope who may share the resolved ref via the cache (null to bypass the cache)
+	 * @return
+	 * @throws IOException
+	 */
+	public String resolveCommitSha(ContentsServiceEx contentService, RepositoryId repoId, String ref, String cacheScope)
+		throws IOException
+	{
+		// Already a full commit SHA?
+		if(ref != null && COMMIT_SHA.matcher(ref).matches())
+			return ref;
+		String refKey = cacheScope != null ? cacheScope + ":" + repoId.generateId() + "@" + ref : null;
+		String commitSha = refKey != null ? scanResultCache.getResolvedRef(refKey) : null;
+		if(commitSha == null) {
+			commitSha = contentService.getCommitSha(repoId, ref);
+			if(refKey != null)
+				scanResultCache.putResolvedRef(refKey, commitSha);
+		}
+		return commitSha;
+	}
+
+	/**
+	 * Discovers the contents of a GitHub repository
+	 * @param contentService
+	 * @param directoryLister
+	 * @param repoId
+	 * @param ref ref (or commit) to read file contents and archives from
+	 * @param branchRef branch/tag/commit requested by the user (submodules may follow it)
+	 * @param cacheScope who may share the repository archive via the archive store (null to bypass the store)
+	 * @param contents
+	 * @param repositoryContainer
+	 * @throws Exception
+	 */
+	private void scanRepository(ContentsServiceEx contentService, DirectoryLister directoryLister, RepositoryId repoId, String ref, String branchRef, String cacheScope, List<RepositoryContents> contents, RepositoryItem repositoryContainer, RepositoryScanResult repositoryScanResult)
+			throws Exception
+	{
+		// Process files first
+		MetadataClassifier classifier = repositoryScanResult.describeIndex.getClassifier();
+		Boolean convertedDXProject = false;
+		List<GitSubModule> subModules = new ArrayList<>();
+		for(RepositoryContents repo : contents)
+		{
+			// Skip directories for now, see below
+			if(repo.getType().equals("dir"))
+				continue;
+			// Skip README.md (suffix overlaps with Custom Metadata!)
+			if(repo.getName().equalsIgnoreCase("readme.md"))
+				continue;
+			if (repo.getName().equalsIgnoreCase(".gitmodules")) {
+				// get the contents of the file so we can import the submodule
+				// ONLY SUPPORTS SUBMODULES HOST ON GITHUB
+				String decodedStr = readFile(contentService, repoId, repo.getPath(), ref);
+				// process the .gitmodules file contents, line by line
+				// this is a very naive parser implementation
+				// will probably have a variety of bugs, maybe find a lib?
+				GitSubModule subMod = new GitSubModule();
+				for (String line : decodedStr.split("\n")) {
+					// start of named submodule
+					if (line.trim().startsWith("[")) {
+						subMod = new GitSubModule();
+						subModules.add(subMod);
+					}
+					// capture properties as we see them
+					if (line.trim().startsWith("path")) {
+						subMod.path = line.split("=", 2)[1].trim();
+					}
+					if (line.trim().startsWith("url")) {
+						subMod.url = line.split("=", 2)[1].trim();
+					}
+					if (line.trim().startsWith("branch")) {
+						subMod.branch = line.split("=", 2)[1].trim();
+						if(".".equals(subMod.branch)){
+							// https://git-scm.com/docs/git-submodule#_options
+							// if branch value of "." is used, it should fallback to the
+							// source repos branch name
+							subMod.branch = branchRef;
+						}
+					}
+				}
+
+			}
+			// Found a Salesforce DX sfdx-project.json?
+			if(repo.getName().equals("sfdx-project.json"))
+			{
+				// Not interested in files scanned thus far
+				repositoryContainer.repositoryItems.clear();
+				// Download contents to a workspace, kept until deployed
+				Workspace workspace = workspaceStore.create();
+				Path tempDir = workspace.getPath();
+				try {
+					downloadProjectToPath(tempDir, contentService, directoryLister, repoId, ref, cacheScope, subModules,
+						projectFilter(contentService, repoId, ref, repo, contents));
+					// Convert to MD API Format, in process unless the project needs the SFDX CLI
+					Path zipFilePath = tempDir.resolve("deploy.zip");
+					boolean converted = false;
+					if(sfdxProperties.getConverter() == SfdxProperties.Converter.NATIVE) {
+						try {
+							for(ConvertedEntry convertedEntry : sfdxSourceConverter.convert(tempDir, repositoryScanResult.describeIndex, zipFilePath))
+								addConvertedItem(repositoryContainer, convertedEntry.getName(), convertedEntry.getSize());
+							converted = true;
+						} catch (UnsupportedSourceException e) {
+							logger.info("Converting with the SFDX CLI: {}", e.getMessage());
+						}
+					}
+					if(!converted)
+						convertWithCli(tempDir, zipFilePath, repositoryScanResult.requester, repositoryContainer);
+					// Retain zip location for deploy request
+					repositoryContainer.downloadId = zipFilePath.toString();
+					workspaceStore.hold(repositoryContainer.downloadId);
+				} finally {
+					workspaceStore.close(workspace);
+				}
+				convertedDXProject = true;
+				break;
+			}
+			// Found a Salesforce package manifest?
+			if(repo.getName().equals("package.xml"))
+			{
+				repositoryScanResult.packageRepoPath = repo.getPath().substring(0, repo.getPath().length() - (repo.getName().length() ));
+				if(repositoryScanResult.packageRepoPath.endsWith("/"))
+					repositoryScanResult.packageRepoPath = repositoryScanResult.packageRepoPath.substring(0, repositoryScanResult.packageRepoPath.length() - 1);
+				RepositoryItem repositoryItem = new RepositoryItem();
+				repositoryItem.repositoryItem = repo;
+				repositoryContainer.repositoryItems.add(repositoryItem);
+				continue;
+			}
+			// Could this be a Salesforce file?
+			Classification classification = classifier.classify(repo.getPath());
+			if(classification==null)
+				continue;
+			MetadataType metadataObject = classification.getMetadataType();
+			// Add file
+			RepositoryItem repositoryItem = new RepositoryItem();
+			repositoryItem.repositoryItem = repo;
+			repositoryItem.metadataFolder = metadataObject.getDirectoryName();
+			repositoryItem.metadataType = metadataObject.getXmlName();
+			repositoryItem.metadataFile = metadataObject.getMetaFile();
+			repositoryItem.metadataInFolder = metadataObject.getInFolder();
+			repositoryItem.metadataSuffix = classification.getSuffix();
+			repositoryContainer.repositoryItems.add(repositoryItem);
+		}
+		// Process directories if still figuring out the contents of an none DX formatted repo
+		if(!convertedDXProject) {
+			for(RepositoryContents repo : contents)
+			{
+				if(repo.getType().equals("dir"))
+				{
+					RepositoryItem repositoryItem = new RepositoryItem();
+					repositoryItem.repositoryItem = repo;
+					repositoryItem.repositoryItems = new ArrayList<>();
+					scanRepository(contentService, directoryLister, repoId, ref, branchRef, cacheScope, directoryLister.getContents(repo.getPath()), repositoryItem, repositoryScanResult);
+					if(repositoryScanResult.packageRepoPath!=null && repo.getPath().equals(repositoryScanResult.packageRepoPath))
+						repositoryScanResult.pacakgeRepoDirectory = repositoryItem;
+					if(!repositoryItem.repositoryItems.isEmpty())
+						repositoryContainer.repositoryItems.add(repositoryItem);
+				}
+			}
+		}
+	}
+
+	private void convertWithCli(Path tempDir, Path zipFilePath, String requester, RepositoryItem repositoryContainer) throws Exception {
+		String output = sfdxConversionScheduler.run(requester, List.of("sfdx", "force:source:convert", "--outputdir", "deploy"), tempDir);
+		logger.info("SFDX conversion successful: {}", output);
+		// Zip up the deploy folder
+		Path zipFileSourcePath = tempDir.resolve(("deploy"));
+		ZipParameters params = new ZipParameters();
+		params.setReadHiddenFiles(false);
+		params.setReadHiddenFolders(false);
+		try (net.lingala.zip4j.ZipFile zipDeploy = new net.lingala.zip4j.ZipFile(zipFilePath.toFile())) {
+			zipDeploy.addFolder(zipFileSourcePath.toFile(), params);
+			List<FileHeader> fileHeaders = zipDeploy.getFileHeaders();
+			for(FileHeader fileHeader : fileHeaders) {
+				if(fileHeader.isDirectory()) {
+					continue;
+				}
+				addConvertedItem(repositoryContainer, fileHeader.getFileName().replace("deploy/", ""), fileHeader.getUncompressedSize());
+			}
+		}
+	}
+
+	private static void addConvertedItem(RepositoryItem repositoryContainer, String deployPath, long size) {
+		// RepositoryItem here is really just used to confirm what will be deployed (its not the repo contents)
+		RepositoryItem repositoryItem = new RepositoryItem();
+		repositoryItem.repositoryItem = new RepositoryContents()
+			.setType(RepositoryContents.TYPE_FILE)
+			.setName(deployPath.substring(deployPath.lastIndexOf('/') + 1))
+			.setPath(deployPath)
+			.setSize(size);
+		repositoryContainer.repositoryItems.add(repositoryItem);
+	}
+
+	/**
+	 * Files (paths relative to the repository root) to extract for the Salesforce DX project, null for all of them
+	 */
+	private ProjectFilter projectFilter(ContentsServiceEx contentService, RepositoryId repoId, String ref, RepositoryContents projectFile, List<RepositoryContents> contents) throws IOException {
+		// Conversion runs at the root of the workspace, so only a project at the root of the repository is filtered
+		if(!sfdxProperties.isSparseExtraction() || !projectFile.getPath().equals(SfdxProject.PROJECT_FILE))
+			return null;
+		SfdxProject project;
+		try {
+			project = SfdxProject.parse(new ByteArrayInputStream(
+				readFile(contentService, repoId, projectFile.getPath(), ref).getBytes(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			logger.warn("Unable to read {}, extracting the whole repository", SfdxProject.PROJECT_FILE, e);
+			return null;
+		}
+		if(project.getPackageDirectories().isEmpty())
+			return null;
+		String forceIgnore = null;
+		for (RepositoryContents file : contents) {
+			if(file.getPath().equals(ForceIgnore.FORCE_IGNORE_FILE))
+				forceIgnore = readFile(contentService, repoId, file.getPath(), ref);
+		}
+		ForceIgnore ignored = ForceIgnore.parse(forceIgnore);
+		return new ProjectFilter()
+		{
+			@Override
+			public boolean includes(String path)
+			{
+				return project.includes(path, ignored);
+			}
+
+			@Override
+			public boolean mayInclude(String directory)
+			{
+				return project.overlaps(directory);
+			}
+		};
+	}
+
+	/**
+	 * Repository files to extract for a Salesforce DX project
+	 */
+	private interface ProjectFilter
+	{
+		boolean includes(String path);
+
+		/**
+		 * False if nothing within the directory can be included
+		 */
+		boolean mayInclude(String directory);
+	}
+
+	/**
+	 * Contents of a (text) file in the repository
+	 */
+	private static String readFile(ContentsServiceEx contentService, RepositoryId repoId, String path, String ref) throws IOException {
+		List<RepositoryContents> file = contentService.getContents(repoId, path, ref);
+		// strip the newline characters out of the encoded content
+		byte[] decoded = Base64.getDecoder().decode(file.get(0).getContent().replace("\n", ""));
+		return new String(decoded, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Downloads and extracts the repository and its submodules into the given folder, a bounded number at a time
+	 */
+	private void downloadProjectToPath(Path tempDir, ContentsServiceEx contentService, DirectoryLister directoryLister, RepositoryId repoId, String ref, String cacheScope, List<GitSubModule> subModules, ProjectFilter projectFilter) throws Exception {
+		Semaphore permits = new Semaphore(Math.max(1, scanProperties.getArchiveParallelism()));
+		List<Future<Void>> downloads = new ArrayList<>();
+		Exception failure = null;
+		try {
+			downloads.add(submitDownload(permits, () -> downloadRepoToPath(tempDir, "", projectFilter, contentService, repoId, ref, cacheScope)));
+			for (GitSubModule subMod : subModules) {
+				String subModPath = subMod.path.endsWith("/") ? subMod.path.substring(0, subMod.path.length() - 1) : subMod.path;
+				// Nothing the project needs in this submodule?
+				if(projectFilter != null && !projectFilter.mayInclude(subModPath)) {
+					logger.debug("Skipping submodule {}, outside the package directories", subModPath);
+					continue;
+				}
+				String urlVal = subMod.url;
+				// handling for the following module URL forms
+				// that might show up in the .gitmodules declaration
+				/*
+					https://github.com/owner/repo
+					https://github.com/owner/repo.gIt
+					git@github.com:owner/repo
+					git@github.com:owner/repo.git
+					../../owner/repo.git
+					../repo.git
+				 */
+				if(urlVal.toLowerCase().endsWith(".git")){
+					urlVal = urlVal.substring(0, urlVal.length() -4);
+				}
+				String[] parts = urlVal.split("/|:");
+				String ownerName = parts[parts.length-2];
+				if("..".equals(ownerName)){
+					// owner name is relative to the current package
+					ownerName = repoId.getOwner();
+				}
+				String repoName = parts[parts.length-1];
+				RepositoryId subRepoId = RepositoryId.create(ownerName, repoName);
+				// Submodule visibility may differ from this repository, so only share its archive with the same credentials
+				String subModScope = contentService.getClient() instanceof CachingGitHubClient ?
+					((CachingGitHubClient) contentService.getClient()).getCredentialScope() : null;
+				// The commit recorded for the submodule in this commit's tree, else where its branch points now
+				String gitlinkSha = gitlinkSha(directoryLister, subMod.path);
+				downloads.add(submitDownload(permits, () -> {
+					String subModSha = gitlinkSha != null ? gitlinkSha : resolveCommitSha(contentService, subRepoId, subMod.branch, subModScope);
+					downloadRepoToPath(tempDir, subModPath + "/", projectFilter, contentService, subRepoId, subModSha, subModScope);
+				}));
+			}
+		} catch (Exception e) {
+			failure = e;
+		}
+		// Wait for every download (even after a failure) so none are still writing to the folder
+		for (Future<Void> download : downloads) {
+			try {
+				download.get();
+			} catch (ExecutionException e) {
+				if(failure == null)
+					failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	@FunctionalInterface
+	private interface Download
+	{
+		void run() throws Exception;
+	}
+
+	private Future<Void> submitDownload(Semaphore permits, Download download) throws InterruptedException {
+		permits.acquire();
+		try {
+			return archiveExecutor.submit(() -> {
+				try {
+					download.run();
+					return null;
+				} finally {
+					permits.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Commit a submodule is pinned to (its gitlink), as listed in the parent repository
+	 */
+	private static String gitlinkSha(DirectoryLister directoryLister, String subModulePath) throws IOException {
+		if(subModulePath == null)
+			return null;
+		String path = subModulePath.endsWith("/") ? subModulePath.substring(0, subModulePath.length() - 1) : subModulePath;
+		int separatorPosition = path.lastIndexOf('/');
+		for (RepositoryContents contents : directoryLister.getContents(separatorPosition == -1 ? null : path.substring(0, separatorPosition))) {
+			if(path.equals(contents.getPath()) && contents.getSha() != null && COMMIT_SHA.matcher(contents.getSha()).matches())
+				return contents.getSha();
+		}
+		return null;
+	}
+
+	/**
+	 * Extracts the repository archive into the given folder (under the given path prefix), skipping entries the filter excludes
+	 */
+	private void downloadRepoToPath(Path tempDir, String prefix, ProjectFilter projectFilter, ContentsServiceEx contentService, RepositoryId repoId, String commitSha, String cacheScope) throws Exception {
+		Path root = tempDir.toAbsolutePath().normalize();
+		try (ZipInputStream zipIS = archiveStore.openArchive(contentService, repoId, commitSha, cacheScope);
+			 ParallelFileWriter fileWriter = new ParallelFileWriter(extractionExecutor)) {
+			ZipEntry entry;
+			while ((entry = zipIS.getNextEntry()) != null) {
+				// Skip dirs
+				if(entry.isDirectory()) {
+					continue;
+				}
+				// Remove the repo name folder from the path
+				String zipPath = entry.getName();
+				zipPath = prefix + zipPath.substring(zipPath.indexOf("/")+1);
+				// Not needed by the project? (the entry is skipped without being written)
+				if(projectFilter != null && !projectFilter.includes(zipPath)) {
+					continue;
+				}
+				// Write file, never outside the folder
+				Path filePath = root.resolve(zipPath).normalize();
+				if(!filePath.startsWith(root)) {
+					throw new IOException("Archive entry outside of the project: " + entry.getName());
+				}
+				fileWriter.write(filePath, zipIS);
+			}
+		}
+	}
+}
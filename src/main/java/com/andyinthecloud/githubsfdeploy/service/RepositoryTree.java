@@ -0,0 +1,112 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.RepositoryContents;
+import org.eclipse.egit.github.core.RepositoryId;
+import org.eclipse.egit.github.core.TreeEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.ContentsServiceEx;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.GitTree;
+
+/**
+ * Local copy of the Git tree for a commit, answers directory listings in the same shape (and order)
+ *   as the GitHub Contents API without further requests
+ */
+public class RepositoryTree
+{
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryTree.class);
+
+	private final String commitSha;
+	private final Map<String, List<RepositoryContents>> contentsByDirectory = new HashMap<>();
+
+	private RepositoryTree(String commitSha)
+	{
+		this.commitSha = commitSha;
+	}
+
+	/**
+	 * Reads the full tree for the given commit, a single request unless GitHub truncates the response
+	 * @param contentService
+	 * @param repoId
+	 * @param commitSha
+	 * @return
+	 * @throws IOException
+	 */
+	public static RepositoryTree fetch(ContentsServiceEx contentService, RepositoryId repoId, String commitSha)
+		throws IOException
+	{
+		RepositoryTree repositoryTree = new RepositoryTree(commitSha);
+		GitTree gitTree = contentService.getTree(repoId, commitSha, true);
+		if(!gitTree.truncated) {
+			repositoryTree.addEntries("", gitTree.tree);
+		} else {
+			// Too large for one response, walk down a level at a time until sub-trees fit
+			logger.info("Recursive tree for {}@{} truncated, fetching sub-trees", repoId.generateId(), commitSha);
+			repositoryTree.fetchSubtrees(contentService, repoId, "", commitSha);
+		}
+		logger.debug("Read tree for {}@{} ({} directories)", repoId.generateId(), commitSha, repositoryTree.contentsByDirectory.size());
+		return repositoryTree;
+	}
+
+	public String getCommitSha()
+	{
+		return commitSha;
+	}
+
+	/**
+	 * Contents of the given directory (null or empty for the repository root)
+	 * @param path
+	 * @return
+	 */
+	public List<RepositoryContents> getContents(String path)
+	{
+		List<RepositoryContents> contents = contentsByDirectory.get(path == null ? "" : path);
+		return contents != null ? contents : Collections.emptyList();
+	}
+
+	private void fetchSubtrees(ContentsServiceEx contentService, RepositoryId repoId, String prefix, String treeSha)
+		throws IOException
+	{
+		GitTree gitTree = contentService.getTree(repoId, treeSha, false);
+		addEntries(prefix, gitTree.tree);
+		for(TreeEntry entry : gitTree.tree)
+		{
+			if(!TreeEntry.TYPE_TREE.equals(entry.getType()))
+				continue;
+			String subtreePrefix = prefix + entry.getPath() + "/";
+			GitTree subtree = contentService.getTree(repoId, entry.getSha(), true);
+			if(subtree.truncated)
+				fetchSubtrees(contentService, repoId, subtreePrefix, entry.getSha());
+			else
+				addEntries(subtreePrefix, subtree.tree);
+		}
+	}
+
+	private void addEntries(String prefix, List<TreeEntry> entries)
+	{
+		if(entries == null)
+			return;
+		for(TreeEntry entry : entries)
+		{
+			String path = prefix + entry.getPath();
+			int separatorPosition = path.lastIndexOf('/');
+			String directory = separatorPosition == -1 ? "" : path.substring(0, separatorPosition);
+			// Submodules (commit entries) are listed as files by the Contents API
+			RepositoryContents contents = new RepositoryContents()
+				.setType(TreeEntry.TYPE_TREE.equals(entry.getType()) ? RepositoryContents.TYPE_DIR : RepositoryContents.TYPE_FILE)
+				.setName(path.substring(separatorPosition + 1))
+				.setPath(path)
+				.setSha(entry.getSha())
+				.setSize(entry.getSize());
+			contentsByDirectory.computeIfAbsent(directory, key -> new ArrayList<>()).add(contents);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.RepositoryContents;
+
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.RepositoryItem;
+
+/**
+ * Directory level view of scanned repository contents, used to page through the contents one directory at a time
+ *   rather than sending the whole tree to the page
+ *
+ * File counts and byte totals per directory are computed once, the index is read only thereafter
+ */
+public final class RepositoryTreeIndex
+{
+	private static final String ROOT_PATH = "";
+
+	private final RepositoryItem root;
+	private final Map<String, RepositoryItem> directories = new HashMap<>();
+	private final Map<String, FolderSummary> summaries = new HashMap<>();
+
+	/**
+	 * Files (at any depth) within a directory and their total size
+	 */
+	private static final class FolderSummary
+	{
+		int fileCount;
+		long totalBytes;
+	}
+
+	/**
+	 * Directory or file within a page
+	 */
+	public static class TreeNode
+	{
+		public String path;
+		public String name;
+		public String type;
+		public String metadataType;
+		public int fileCount;
+		public long totalBytes;
+	}
+
+	/**
+	 * Items of a directory, from the cursor position, nextCursor is null on the last page
+	 */
+	public static class TreePage
+	{
+		public String path;
+		public boolean converted;
+		public int fileCount;
+		public long totalBytes;
+		public List<TreeNode> items = new ArrayList<>();
+		public Integer nextCursor;
+	}
+
+	public RepositoryTreeIndex(RepositoryItem root)
+	{
+		this.root = root;
+		directories.put(ROOT_PATH, root);
+		summaries.put(ROOT_PATH, summarise(root));
+	}
+
+	/**
+	 * Scanned contents this index was built from
+	 * @return
+	 */
+	public RepositoryItem getRoot()
+	{
+		return root;
+	}
+
+	public int getFileCount()
+	{
+		return summaries.get(ROOT_PATH).fileCount;
+	}
+
+	/**
+	 * Page of items within the given directory (empty or null for the root), null if there is no such directory
+	 * @param path
+	 * @param cursor
+	 * @param pageSize
+	 * @return
+	 */
+	public TreePage page(String path, int cursor, int pageSize)
+	{
+		String directoryPath = path == null ? ROOT_PATH : path;
+		RepositoryItem directory = directories.get(directoryPath);
+		if(directory == null)
+			return null;
+		FolderSummary directorySummary = summaries.get(directoryPath);
+		TreePage treePage = new TreePage();
+		treePage.path = directoryPath;
+		treePage.converted = root.downloadId != null;
+		treePage.fileCount = directorySummary.fileCount;
+		treePage.totalBytes = directorySummary.totalBytes;
+		List<RepositoryItem> items = directory.repositoryItems;
+		int start = Math.max(0, cursor);
+		int end = (int) Math.min(items.size(), (long) start + Math.max(1, pageSize));
+		for(int i = start; i < end; i++)
+		{
+			RepositoryItem item = items.get(i);
+			TreeNode treeNode = new TreeNode();
+			treeNode.path = item.repositoryItem.getPath();
+			treeNode.name = item.repositoryItem.getName();
+			treeNode.type = item.repositoryItem.getType();
+			treeNode.metadataType = item.metadataType;
+			if(isDirectory(item)) {
+				FolderSummary summary = summaries.get(treeNode.path);
+				treeNode.fileCount = summary.fileCount;
+				treeNode.totalBytes = summary.totalBytes;
+			} else {
+				treeNode.fileCount = 1;
+				treeNode.totalBytes = item.repositoryItem.getSize();
+			}
+			treePage.items.add(treeNode);
+		}
+		treePage.nextCursor = end < items.size() ? end : null;
+		return treePage;
+	}
+
+	private FolderSummary summarise(RepositoryItem container)
+	{
+		FolderSummary summary = new FolderSummary();
+		for(RepositoryItem item : container.repositoryItems)
+		{
+			if(isDirectory(item)) {
+				FolderSummary childSummary = summarise(item);
+				directories.put(item.repositoryItem.getPath(), item);
+				summaries.put(item.repositoryItem.getPath(), childSummary);
+				summary.fileCount += childSummary.fileCount;
+				summary.totalBytes += childSummary.totalBytes;
+			} else {
+				summary.fileCount++;
+				summary.totalBytes += item.repositoryItem.getSize();
+			}
+		}
+		return summary;
+	}
+
+	private static boolean isDirectory(RepositoryItem item)
+	{
+		return RepositoryContents.TYPE_DIR.equals(item.repositoryItem.getType());
+	}
+}
@@ -0,0 +1,155 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sforce.soap.metadata.AsyncRequestState;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * Metadata REST API deploy (POST /services/data/vXX.X/metadata/deployRequest), the zip is sent as a binary multipart
+ *   part streamed from the deploy spool, avoiding the base64 encoding the SOAP API needs
+ *
+ * The response is mapped to an AsyncResult so the deploy id can be polled in the same way as a SOAP deploy
+ */
+@Component
+public class RestDeployTransport
+{
+	private static final Logger logger = LoggerFactory.getLogger(RestDeployTransport.class);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	/**
+	 * Starts a deploy of the given zip
+	 * @param instanceUrl
+	 * @param apiVersion
+	 * @param sessionId
+	 * @param deployZip
+	 * @param deployOptions
+	 * @return
+	 * @throws IOException
+	 * @throws ConnectionException
+	 */
+	public AsyncResult deploy(String instanceUrl, String apiVersion, String sessionId, DeploySpool deployZip, DeployOptions deployOptions)
+		throws IOException, ConnectionException
+	{
+		String boundary = "----githubsfdeploy" + UUID.randomUUID().toString().replace("-", "");
+		HttpURLConnection connection = (HttpURLConnection)
+			new URL(instanceUrl + "/services/data/v" + apiVersion + "/metadata/deployRequest").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(64 * 1024); // Do not buffer the request to compute its length
+		connection.setConnectTimeout(deployProperties.getConnectTimeoutMillis());
+		connection.setReadTimeout(deployProperties.getReadTimeoutMillis());
+		connection.setRequestProperty("Authorization", "Bearer " + sessionId);
+		connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+		connection.setRequestProperty("Accept", "application/json");
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		// Write the deploy options and zip parts
+		long started = System.currentTimeMillis();
+		try (OutputStream out = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024)) {
+			writeAscii(out, "--" + boundary + "\r\n" +
+				"Content-Disposition: form-data; name=\"json\"\r\n" +
+				"Content-Type: application/json\r\n\r\n");
+			out.write(MAPPER.writeValueAsBytes(Map.of("deployOptions", toJson(deployOptions))));
+			writeAscii(out, "\r\n--" + boundary + "\r\n" +
+				"Content-Disposition: form-data; name=\"file\"; filename=\"deploy.zip\"\r\n" +
+				"Content-Type: application/zip\r\n\r\n");
+			try (InputStream zipIn = deployZip.openStream()) {
+				zipIn.transferTo(out);
+			}
+			writeAscii(out, "\r\n--" + boundary + "--\r\n");
+		}
+		logger.debug("Sent deploy request for {} byte zip in {}ms", deployZip.size(), System.currentTimeMillis() - started);
+
+		// Read the deploy request (or errors)
+		int status = connection.getResponseCode();
+		InputStream responseIn = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		// No body for a 401 (expired session), HttpURLConnection discards it when streaming the request
+		if(responseIn == null)
+			throw new ConnectionException("Deploy request failed with status " + status);
+		if("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+			responseIn = new GZIPInputStream(responseIn);
+		JsonNode response;
+		try (InputStream in = responseIn) {
+			response = MAPPER.readTree(in);
+		}
+		if(status >= 400) {
+			// e.g. [{"errorCode":"INVALID_SESSION_ID","message":"Session expired or invalid"}]
+			JsonNode error = response != null && response.isArray() && response.size() > 0 ? response.get(0) : response;
+			String message = error != null && error.hasNonNull("message") ? error.get("message").asText() : "status " + status;
+			throw new ConnectionException("Deploy request failed: " + message);
+		}
+		return toAsyncResult(response);
+	}
+
+	private static Map<String, Object> toJson(DeployOptions deployOptions)
+	{
+		Map<String, Object> options = new LinkedHashMap<>();
+		options.put("allowMissingFiles", deployOptions.isAllowMissingFiles());
+		options.put("autoUpdatePackage", deployOptions.isAutoUpdatePackage());
+		options.put("checkOnly", deployOptions.isCheckOnly());
+		options.put("ignoreWarnings", deployOptions.isIgnoreWarnings());
+		options.put("performRetrieve", deployOptions.isPerformRetrieve());
+		options.put("purgeOnDelete", deployOptions.isPurgeOnDelete());
+		options.put("rollbackOnError", deployOptions.isRollbackOnError());
+		options.put("singlePackage", deployOptions.isSinglePackage());
+		if(deployOptions.getTestLevel() != null)
+			options.put("testLevel", deployOptions.getTestLevel().name());
+		if(deployOptions.getRunTests() != null && deployOptions.getRunTests().length > 0)
+			options.put("runTests", deployOptions.getRunTests());
+		return options;
+	}
+
+	/**
+	 * Maps the deploy request to the AsyncResult the SOAP deploy call returns
+	 */
+	private static AsyncResult toAsyncResult(JsonNode response)
+		throws ConnectionException
+	{
+		if(response == null || !response.hasNonNull("id"))
+			throw new ConnectionException("No deploy id in response");
+		JsonNode deployResult = response.path("deployResult");
+		AsyncResult asyncResult = new AsyncResult();
+		asyncResult.setId(response.get("id").asText());
+		asyncResult.setDone(deployResult.path("done").asBoolean(false));
+		String deployStatus = deployResult.path("status").asText("Pending");
+		if(asyncResult.isDone())
+			asyncResult.setState(AsyncRequestState.Completed);
+		else if(deployStatus.equals("InProgress") || deployStatus.equals("Canceling"))
+			asyncResult.setState(AsyncRequestState.InProgress);
+		else
+			asyncResult.setState(AsyncRequestState.Queued);
+		if(deployResult.hasNonNull("errorMessage"))
+			asyncResult.setMessage(deployResult.get("errorMessage").asText());
+		return asyncResult;
+	}
+
+	private static void writeAscii(OutputStream out, String value) throws IOException
+	{
+		out.write(value.getBytes(StandardCharsets.US_ASCII));
+	}
+}
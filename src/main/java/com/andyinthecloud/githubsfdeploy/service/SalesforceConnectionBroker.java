@@ -0,0 +1,333 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.client.AuthorizedClientServiceOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProviderBuilder;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+import com.sforce.soap.metadata.MetadataConnection;
+import com.sforce.soap.partner.Connector;
+import com.sforce.soap.partner.GetUserInfoResult;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Metadata and Partner API connections per login and org, configured once and reused by the confirm page, the deploy
+ *   and every status poll. Access tokens are read from the OAuth2 authorized client saved at login (never the session)
+ *   and refreshed with its refresh token once older than the token refresh interval, connections are replaced when the
+ *   access token changes.
+ *
+ * Endpoints are built here for the configured API version. Calls share the JDK keep-alive HTTP connection cache, so
+ *   polls reuse open connections to the org rather than connecting each time.
+ */
+@Component
+public class SalesforceConnectionBroker
+{
+	private static final Logger logger = LoggerFactory.getLogger(SalesforceConnectionBroker.class);
+
+	private static final String REGISTRATION_ID = "salesforce";
+
+	@Autowired
+	private SalesforceProperties salesforceProperties;
+
+	@Autowired
+	private ClientRegistrationRepository clientRegistrationRepository;
+
+	@Autowired
+	private OAuth2AuthorizedClientService authorizedClientService;
+
+	/**
+	 * Refreshes access tokens, outside of a request (e.g. polls) as well as in one
+	 */
+	private AuthorizedClientServiceOAuth2AuthorizedClientManager authorizedClientManager;
+
+	private final Map<String, OrgConnections> connections = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OrgConnections> eldest) {
+			return size() > salesforceProperties.getConnectionCacheSize();
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Who logged in to which org, no tokens (safe to keep in the session), connections are looked up with it
+	 */
+	public static class OrgIdentity implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String principalName;
+		private final String instanceUrl;
+		private final String orgId;
+		private final String userId;
+		private final String metadataServerUrl;
+		private final String partnerServerUrl;
+
+		OrgIdentity(String principalName, String instanceUrl, String orgId, String userId, String metadataServerUrl, String partnerServerUrl)
+		{
+			this.principalName = principalName;
+			this.instanceUrl = instanceUrl;
+			this.orgId = orgId;
+			this.userId = userId;
+			this.metadataServerUrl = metadataServerUrl;
+			this.partnerServerUrl = partnerServerUrl;
+		}
+
+		/**
+		 * Org id, or the instance URL if the OAuth attributes did not include it
+		 * @return
+		 */
+		public String getOrgId()
+		{
+			return orgId;
+		}
+	}
+
+	/**
+	 * API connections to an org for an OAuth access token of a login, created when first used
+	 */
+	public static class OrgConnections
+	{
+		private final OrgIdentity identity;
+		private final String accessToken;
+		private volatile long lastUsed = System.currentTimeMillis();
+		private MetadataConnection metadataConnection;
+		private PartnerConnection partnerConnection;
+		private GetUserInfoResult userInfo;
+
+		OrgConnections(OrgIdentity identity, String accessToken)
+		{
+			this.identity = identity;
+			this.accessToken = accessToken;
+		}
+
+		public OrgIdentity getIdentity()
+		{
+			return identity;
+		}
+
+		public String getAccessToken()
+		{
+			return accessToken;
+		}
+
+		public String getInstanceUrl()
+		{
+			return identity.instanceUrl;
+		}
+
+		/**
+		 * Org id, or the instance URL if the OAuth attributes did not include it
+		 * @return
+		 */
+		public String getOrgId()
+		{
+			return identity.orgId;
+		}
+
+		/**
+		 * Who may share results read through these connections, the org and user (Salesforce checks access per user)
+		 * @return
+		 */
+		public String getScope()
+		{
+			return identity.orgId + "|" + identity.userId;
+		}
+
+		/**
+		 * Metadata API SOAP endpoint
+		 * @return
+		 */
+		public String getMetadataServerUrl()
+		{
+			return identity.metadataServerUrl;
+		}
+
+		public synchronized MetadataConnection getMetadataConnection()
+			throws ConnectionException
+		{
+			if(metadataConnection == null) {
+				ConnectorConfig config = new ConnectorConfig();
+				config.setSessionId(accessToken);
+				config.setServiceEndpoint(identity.metadataServerUrl);
+				metadataConnection = new MetadataConnection(config);
+			}
+			return metadataConnection;
+		}
+
+		public synchronized PartnerConnection getPartnerConnection()
+			throws ConnectionException
+		{
+			if(partnerConnection == null) {
+				ConnectorConfig config = new ConnectorConfig();
+				config.setSessionId(accessToken);
+				config.setServiceEndpoint(identity.partnerServerUrl);
+				partnerConnection = Connector.newConnection(config);
+			}
+			return partnerConnection;
+		}
+
+		/**
+		 * User and organization details (fetched once per access token)
+		 * @return
+		 * @throws ConnectionException
+		 */
+		public synchronized GetUserInfoResult getUserInfo()
+			throws ConnectionException
+		{
+			if(userInfo == null)
+				userInfo = getPartnerConnection().getUserInfo();
+			return userInfo;
+		}
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		authorizedClientManager = new AuthorizedClientServiceOAuth2AuthorizedClientManager(clientRegistrationRepository, authorizedClientService);
+		authorizedClientManager.setAuthorizedClientProvider(OAuth2AuthorizedClientProviderBuilder.builder().refreshToken().build());
+	}
+
+	/**
+	 * API version used for connections, describes, deploys and generated metadata (e.g. 61.0)
+	 * @return
+	 */
+	public String getApiVersion()
+	{
+		return salesforceProperties.getApiVersion();
+	}
+
+	/**
+	 * Identity of the org the given OAuth2 user logged in to
+	 * @param user attributes instance_url, organization_id, user_id and urls (metadata and partner endpoints)
+	 * @return
+	 */
+	public OrgIdentity getIdentity(OAuth2User user)
+	{
+		Map<String, Object> attributes = user != null ? user.getAttributes() : Map.of();
+		String instanceUrl = (String) attributes.get("instance_url");
+		if (user == null || instanceUrl == null) {
+			logger.error("Missing required OAuth attributes: user={}, instance_url={}", user != null, instanceUrl != null);
+			throw new IllegalStateException("Missing required OAuth attributes");
+		}
+		String orgId = attributes.get("organization_id") != null ? (String) attributes.get("organization_id") : instanceUrl;
+		String userId = attributes.get("user_id") != null ? (String) attributes.get("user_id") : (String) attributes.get("sub");
+		Object urlsObj = attributes.get("urls");
+		Map<?, ?> urls = urlsObj instanceof Map ? (Map<?, ?>) urlsObj : Map.of();
+		return new OrgIdentity(user.getName(), instanceUrl, orgId, userId,
+			endpoint(urls.get("metadata"), instanceUrl + "/services/Soap/m/{version}"),
+			endpoint(urls.get("partner"), instanceUrl + "/services/Soap/u/{version}"));
+	}
+
+	/**
+	 * Connections to the org the given OAuth2 user logged in to
+	 * @param user
+	 * @return
+	 */
+	public OrgConnections getConnections(OAuth2User user)
+	{
+		return getConnections(getIdentity(user));
+	}
+
+	/**
+	 * Connections to the org for the login's current access token, refreshed first if it is due
+	 * @param identity
+	 * @return
+	 * @throws IllegalStateException if the login is no longer authorized (log in to the org again)
+	 */
+	public OrgConnections getConnections(OrgIdentity identity)
+	{
+		String accessToken = getAccessToken(identity);
+		// The principal names the org and user (see SecurityConfig)
+		String key = identity.principalName;
+		long now = System.currentTimeMillis();
+		synchronized (connections) {
+			OrgConnections orgConnections = connections.get(key);
+			if(orgConnections != null && orgConnections.accessToken.equals(accessToken) &&
+				now - orgConnections.lastUsed <= salesforceProperties.getConnectionTtlSeconds() * 1000L) {
+				hits.incrementAndGet();
+				orgConnections.lastUsed = now;
+				return orgConnections;
+			}
+		}
+		misses.incrementAndGet();
+		OrgConnections orgConnections = new OrgConnections(identity, accessToken);
+		synchronized (connections) {
+			connections.put(key, orgConnections);
+		}
+		return orgConnections;
+	}
+
+	/**
+	 * Connections for the same login and org as the given connections, with its current access token (it may have
+	 *   been refreshed since they were made), for work that outlives the request
+	 * @param orgConnections
+	 * @return
+	 */
+	public OrgConnections getCurrentConnections(OrgConnections orgConnections)
+	{
+		return getConnections(orgConnections.identity);
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Access token of the login's authorized client, refreshed if older than the refresh interval (Salesforce token
+	 *   responses do not say when the token expires, so the client's own expiry cannot be relied on)
+	 */
+	private String getAccessToken(OrgIdentity identity)
+	{
+		OAuth2AuthorizedClient authorizedClient = authorizedClientService.loadAuthorizedClient(REGISTRATION_ID, identity.principalName);
+		if(authorizedClient == null)
+			throw new IllegalStateException("Log in to org " + identity.orgId + " again");
+		Instant issuedAt = authorizedClient.getAccessToken().getIssuedAt();
+		if(issuedAt != null && issuedAt.plusSeconds(salesforceProperties.getTokenRefreshSeconds()).isBefore(Instant.now())) {
+			try {
+				OAuth2AuthorizedClient refreshed = authorizedClientManager.authorize(
+					OAuth2AuthorizeRequest.withAuthorizedClient(authorizedClient).principal(identity.principalName).build());
+				if(refreshed != null)
+					authorizedClient = refreshed;
+			} catch (OAuth2AuthorizationException e) {
+				logger.warn("Failed to refresh access token for org {}", identity.orgId, e);
+				throw new IllegalStateException("Log in to org " + identity.orgId + " again", e);
+			}
+		}
+		return authorizedClient.getAccessToken().getTokenValue();
+	}
+
+	/**
+	 * Endpoint from the OAuth identity URLs (e.g. https://instance/services/Soap/m/{version}/00D...) for the configured API version
+	 */
+	private String endpoint(Object url, String defaultUrl)
+	{
+		return (url instanceof String ? (String) url : defaultUrl).replace("{version}", getApiVersion());
+	}
+}
@@ -0,0 +1,190 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.egit.github.core.RepositoryId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.ScanProperties;
+import com.andyinthecloud.githubsfdeploy.controller.GitHubSalesforceDeployController.RepositoryItem;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Finished repository scans keyed by the commit they were taken from, commits are immutable so entries
+ *   only leave the cache through LRU eviction. Also remembers recent branch/tag to commit resolutions.
+ *
+ * Lookups are published as githubsfdeploy.scan.cache.requests (tagged result=hit|miss), along with evictions and size.
+ */
+@Component
+public class ScanResultCache implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(ScanResultCache.class);
+
+	@Autowired
+	private ScanProperties scanProperties;
+
+	private final Map<String, CachedScan> scans = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedScan> eldest) {
+			if(size() > scanProperties.getCacheSize()) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private final Map<String, ResolvedRef> resolvedRefs = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ResolvedRef> eldest) {
+			return size() > scanProperties.getCacheSize();
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Scan of a commit, shared between requests so must not be modified once cached
+	 */
+	public static class CachedScan
+	{
+		public final RepositoryItem repositoryContainer;
+		public final String packageRepoPath;
+		public final RepositoryItem pacakgeRepoDirectory;
+
+		public CachedScan(RepositoryItem repositoryContainer, String packageRepoPath, RepositoryItem pacakgeRepoDirectory)
+		{
+			this.repositoryContainer = repositoryContainer;
+			this.packageRepoPath = packageRepoPath;
+			this.pacakgeRepoDirectory = pacakgeRepoDirectory;
+		}
+	}
+
+	private static class ResolvedRef
+	{
+		final String commitSha;
+		final long resolvedAt;
+
+		ResolvedRef(String commitSha, long resolvedAt)
+		{
+			this.commitSha = commitSha;
+			this.resolvedAt = resolvedAt;
+		}
+	}
+
+	/**
+	 * Cache key for a scan
+	 * @param scope who may see the entry ("public" or a hash of the user's GitHub token)
+	 * @param repoId
+	 * @param commitSha
+	 * @param describeFingerprint metadata types the scan classified files against
+	 * @return
+	 */
+	public static String key(String scope, RepositoryId repoId, String commitSha, String describeFingerprint)
+	{
+		return scope + ":" + repoId.generateId() + "@" + commitSha + "#" + describeFingerprint;
+	}
+
+	public CachedScan get(String key)
+	{
+		CachedScan cachedScan;
+		synchronized (scans) {
+			cachedScan = scans.get(key);
+			// Converted DX projects point to a deploy zip on local disk, which may have since gone
+			if(cachedScan != null && cachedScan.repositoryContainer.downloadId != null
+					&& !Files.exists(Paths.get(cachedScan.repositoryContainer.downloadId))) {
+				scans.remove(key);
+				cachedScan = null;
+			}
+		}
+		if(cachedScan != null) {
+			hits.incrementAndGet();
+			logger.debug("Scan cache hit for {}", key);
+		} else {
+			misses.incrementAndGet();
+			logger.debug("Scan cache miss for {}", key);
+		}
+		return cachedScan;
+	}
+
+	public void put(String key, CachedScan cachedScan)
+	{
+		synchronized (scans) {
+			scans.put(key, cachedScan);
+		}
+	}
+
+	/**
+	 * Commit a branch/tag was recently resolved to, null if unknown or older than the configured TTL
+	 * @param refKey
+	 * @return
+	 */
+	public String getResolvedRef(String refKey)
+	{
+		synchronized (resolvedRefs) {
+			ResolvedRef resolvedRef = resolvedRefs.get(refKey);
+			if(resolvedRef == null)
+				return null;
+			if(System.currentTimeMillis() - resolvedRef.resolvedAt > scanProperties.getRefTtlSeconds() * 1000L) {
+				resolvedRefs.remove(refKey);
+				return null;
+			}
+			return resolvedRef.commitSha;
+		}
+	}
+
+	public void putResolvedRef(String refKey, String commitSha)
+	{
+		synchronized (resolvedRefs) {
+			resolvedRefs.put(refKey, new ResolvedRef(commitSha, System.currentTimeMillis()));
+		}
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	public int getSize()
+	{
+		synchronized (scans) {
+			return scans.size();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		FunctionCounter.builder("githubsfdeploy.scan.cache.requests", hits, AtomicLong::get)
+			.tag("result", "hit").description("Repository scans answered from the cache").register(registry);
+		FunctionCounter.builder("githubsfdeploy.scan.cache.requests", misses, AtomicLong::get)
+			.tag("result", "miss").description("Repository scans not in the cache").register(registry);
+		FunctionCounter.builder("githubsfdeploy.scan.cache.evictions", evictions, AtomicLong::get)
+			.description("Scans evicted to stay within the cache size").register(registry);
+		Gauge.builder("githubsfdeploy.scan.cache.size", this, ScanResultCache::getSize)
+			.description("Scans in the cache").register(registry);
+	}
+}
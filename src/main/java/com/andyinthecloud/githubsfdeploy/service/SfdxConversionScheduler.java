@@ -0,0 +1,349 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.SfdxProperties;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs SFDX CLI conversions a bounded number at a time, so a burst of DX deploys does not start a Node process per request
+ *
+ * Requests wait in a first come first served queue (their position can be read while they wait), each conversion has a
+ *   wall clock limit after which the process and any processes it started are killed. Output and error streams are read
+ *   concurrently so a process blocked writing to a full pipe cannot stall the conversion.
+ */
+@Component
+public class SfdxConversionScheduler implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(SfdxConversionScheduler.class);
+
+	/**
+	 * Output kept (per stream) for logging and error messages, the rest is read and discarded
+	 */
+	private static final int MAX_OUTPUT_CHARS = 64 * 1024;
+
+	@Autowired
+	private SfdxProperties sfdxProperties;
+
+	/**
+	 * Reads process output, two threads per running conversion
+	 */
+	private ExecutorService outputExecutor;
+
+	private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+	private int running;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong totalDurationMillis = new AtomicLong();
+	private final AtomicLong maxDurationMillis = new AtomicLong();
+	private final AtomicLong totalQueuedMillis = new AtomicLong();
+	private final AtomicLong dequeued = new AtomicLong();
+
+	/**
+	 * Place in the queue of a requester waiting to convert
+	 */
+	private static class Ticket
+	{
+		final String requester;
+		final long queuedAt = System.currentTimeMillis();
+
+		Ticket(String requester)
+		{
+			this.requester = requester;
+		}
+	}
+
+	/**
+	 * The conversion was not run (queue full or waited too long for a slot)
+	 */
+	public static class ConversionRejectedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public ConversionRejectedException(String message)
+		{
+			super(message);
+		}
+	}
+
+	@PostConstruct
+	public void init()
+	{
+		// Two readers (stdout and stderr) per conversion
+		outputExecutor = ThreadPools.daemonPool("sfdx-output", Math.max(1, sfdxProperties.getMaxConcurrentConversions()) * 2);
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		outputExecutor.shutdownNow();
+	}
+
+	/**
+	 * Runs the command once a conversion slot is free, in the order requests arrived
+	 * @param requester identifies who is waiting (see getQueuePosition), e.g. the session id
+	 * @param command
+	 * @param directory working directory
+	 * @return combined output and error streams of the command
+	 * @throws IOException if the command could not be run, failed or timed out
+	 * @throws InterruptedException
+	 */
+	public String run(String requester, List<String> command, Path directory)
+		throws IOException, InterruptedException
+	{
+		awaitSlot(requester);
+		try {
+			return execute(command, directory);
+		} finally {
+			synchronized (queue) {
+				running--;
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Position (from 1) of the requester's conversion in the queue, 0 if it is running (or not queued)
+	 * @param requester
+	 * @return
+	 */
+	public int getQueuePosition(String requester)
+	{
+		synchronized (queue) {
+			int position = 0;
+			for(Ticket ticket : queue) {
+				position++;
+				if(ticket.requester != null && ticket.requester.equals(requester))
+					return position;
+			}
+			return 0;
+		}
+	}
+
+	public int getQueueDepth()
+	{
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	public int getRunning()
+	{
+		synchronized (queue) {
+			return running;
+		}
+	}
+
+	public long getCompleted()
+	{
+		return completed.get();
+	}
+
+	public long getFailed()
+	{
+		return failed.get();
+	}
+
+	public long getTimedOut()
+	{
+		return timedOut.get();
+	}
+
+	public long getRejected()
+	{
+		return rejected.get();
+	}
+
+	public long getTotalDurationMillis()
+	{
+		return totalDurationMillis.get();
+	}
+
+	public long getMaxDurationMillis()
+	{
+		return maxDurationMillis.get();
+	}
+
+	public long getTotalQueuedMillis()
+	{
+		return totalQueuedMillis.get();
+	}
+
+	/**
+	 * Conversions that left the queue for a slot
+	 * @return
+	 */
+	public long getDequeued()
+	{
+		return dequeued.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		Gauge.builder("githubsfdeploy.sfdx.conversions.queued", this, SfdxConversionScheduler::getQueueDepth)
+			.description("Salesforce DX conversions waiting for a slot").register(registry);
+		Gauge.builder("githubsfdeploy.sfdx.conversions.running", this, SfdxConversionScheduler::getRunning)
+			.description("Salesforce DX conversions running").register(registry);
+		// Durations are recorded for conversions that ran to completion, successful or not
+		FunctionTimer.builder("githubsfdeploy.sfdx.conversion.duration", this,
+				scheduler -> scheduler.getCompleted() + scheduler.getFailed(), SfdxConversionScheduler::getTotalDurationMillis, TimeUnit.MILLISECONDS)
+			.description("Time the SFDX CLI took to convert a project").register(registry);
+		TimeGauge.builder("githubsfdeploy.sfdx.conversion.duration.max", this, TimeUnit.MILLISECONDS, SfdxConversionScheduler::getMaxDurationMillis)
+			.description("Longest conversion so far").register(registry);
+		FunctionTimer.builder("githubsfdeploy.sfdx.conversion.queued", this,
+				SfdxConversionScheduler::getDequeued, SfdxConversionScheduler::getTotalQueuedMillis, TimeUnit.MILLISECONDS)
+			.description("Time conversions waited for a slot").register(registry);
+		FunctionCounter.builder("githubsfdeploy.sfdx.conversions", completed, AtomicLong::get)
+			.tag("result", "completed").description("Salesforce DX conversions by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.sfdx.conversions", failed, AtomicLong::get)
+			.tag("result", "failed").description("Salesforce DX conversions by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.sfdx.conversions", timedOut, AtomicLong::get)
+			.tag("result", "timed-out").description("Salesforce DX conversions by result").register(registry);
+		FunctionCounter.builder("githubsfdeploy.sfdx.conversions", rejected, AtomicLong::get)
+			.tag("result", "rejected").description("Salesforce DX conversions by result").register(registry);
+	}
+
+	/**
+	 * Queues the requester and waits until it is at the head of the queue and a slot is free, the slot is then held
+	 */
+	private void awaitSlot(String requester)
+		throws ConversionRejectedException, InterruptedException
+	{
+		Ticket ticket = new Ticket(requester);
+		synchronized (queue) {
+			if(queue.size() >= sfdxProperties.getMaxQueuedConversions()) {
+				rejected.incrementAndGet();
+				throw new ConversionRejectedException("Too many Salesforce DX conversions waiting (" + queue.size() + "), please try again shortly");
+			}
+			queue.addLast(ticket);
+			if(queue.size() > 1 || running >= sfdxProperties.getMaxConcurrentConversions())
+				logger.info("Conversion queued at position {} ({} running)", queue.size(), running);
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(sfdxProperties.getQueueTimeoutSeconds());
+			try {
+				while(queue.peekFirst() != ticket || running >= sfdxProperties.getMaxConcurrentConversions()) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						rejected.incrementAndGet();
+						throw new ConversionRejectedException("Timed out waiting for a Salesforce DX conversion slot, please try again shortly");
+					}
+					queue.wait(remaining);
+				}
+			} catch (ConversionRejectedException | InterruptedException e) {
+				queue.remove(ticket);
+				queue.notifyAll();
+				throw e;
+			}
+			queue.removeFirst();
+			running++;
+			// The next in line may also have a free slot
+			queue.notifyAll();
+		}
+		totalQueuedMillis.addAndGet(System.currentTimeMillis() - ticket.queuedAt);
+		dequeued.incrementAndGet();
+	}
+
+	private String execute(List<String> command, Path directory)
+		throws IOException, InterruptedException
+	{
+		long started = System.currentTimeMillis();
+		ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.directory(directory.toFile());
+		Process process = processBuilder.start();
+		try {
+			process.getOutputStream().close();
+			Future<String> output = outputExecutor.submit(() -> drain(process.getInputStream()));
+			Future<String> error = outputExecutor.submit(() -> drain(process.getErrorStream()));
+			long timeoutSeconds = sfdxProperties.getConversionTimeoutSeconds();
+			if(!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+				timedOut.incrementAndGet();
+				destroyProcessTree(process);
+				throw new IOException("SFDX conversion did not complete within " + timeoutSeconds + " seconds");
+			}
+			String combinedOutput = output(output) + output(error);
+			long duration = System.currentTimeMillis() - started;
+			totalDurationMillis.addAndGet(duration);
+			maxDurationMillis.accumulateAndGet(duration, Math::max);
+			if(process.exitValue() != 0) {
+				failed.incrementAndGet();
+				throw new IOException("SFDX conversion failed: " + combinedOutput);
+			}
+			completed.incrementAndGet();
+			logger.debug("Ran {} in {}ms", String.join(" ", command), duration);
+			return combinedOutput;
+		} finally {
+			if(process.isAlive())
+				destroyProcessTree(process);
+		}
+	}
+
+	/**
+	 * Kills the process and the processes it started (the CLI runs node, which may start further processes)
+	 */
+	private static void destroyProcessTree(Process process)
+	{
+		List<ProcessHandle> descendants = process.descendants().collect(Collectors.toList());
+		process.destroyForcibly();
+		descendants.forEach(ProcessHandle::destroyForcibly);
+	}
+
+	private static String drain(InputStream in)
+		throws IOException
+	{
+		StringBuilder output = new StringBuilder();
+		byte[] buffer = new byte[8192];
+		try (InputStream stream = in) {
+			int read;
+			while((read = stream.read(buffer)) != -1) {
+				if(output.length() < MAX_OUTPUT_CHARS)
+					output.append(new String(buffer, 0, Math.min(read, MAX_OUTPUT_CHARS - output.length()), StandardCharsets.UTF_8));
+			}
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Output read from a stream, the process has exited so the stream is at (or close to) its end
+	 */
+	private static String output(Future<String> drained)
+		throws IOException, InterruptedException
+	{
+		try {
+			return drained.get(30, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to read SFDX output", e.getCause());
+		} catch (TimeoutException e) {
+			// Held open by a process the CLI left running
+			drained.cancel(true);
+			return "";
+		}
+	}
+}
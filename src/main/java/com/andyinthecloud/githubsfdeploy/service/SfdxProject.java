@@ -0,0 +1,91 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Salesforce DX project descriptor (sfdx-project.json), the parts needed to extract and convert the project
+ */
+class SfdxProject
+{
+	public static final String PROJECT_FILE = "sfdx-project.json";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final List<String> packageDirectories;
+	private final String sourceApiVersion;
+
+	private SfdxProject(List<String> packageDirectories, String sourceApiVersion)
+	{
+		this.packageDirectories = Collections.unmodifiableList(packageDirectories);
+		this.sourceApiVersion = sourceApiVersion;
+	}
+
+	public static SfdxProject parse(InputStream in)
+		throws IOException
+	{
+		JsonNode project = MAPPER.readTree(in);
+		List<String> packageDirectories = new ArrayList<>();
+		for(JsonNode packageDirectory : project.path("packageDirectories"))
+		{
+			String path = packageDirectory.path("path").asText("").replace('\\', '/');
+			while(path.startsWith("./"))
+				path = path.substring(2);
+			while(path.endsWith("/"))
+				path = path.substring(0, path.length() - 1);
+			packageDirectories.add(path);
+		}
+		return new SfdxProject(packageDirectories, project.hasNonNull("sourceApiVersion") ? project.get("sourceApiVersion").asText() : null);
+	}
+
+	/**
+	 * Package directory paths relative to the project directory, without a trailing slash ("" for the project directory)
+	 * @return
+	 */
+	public List<String> getPackageDirectories()
+	{
+		return packageDirectories;
+	}
+
+	public String getSourceApiVersion()
+	{
+		return sourceApiVersion;
+	}
+
+	/**
+	 * True if the file (path relative to the project directory) is needed to convert the project, the descriptor,
+	 *   .forceignore and files within the package directories not excluded by .forceignore
+	 * @param path
+	 * @param forceIgnore
+	 * @return
+	 */
+	public boolean includes(String path, ForceIgnore forceIgnore)
+	{
+		if(path.equals(PROJECT_FILE) || path.equals(ForceIgnore.FORCE_IGNORE_FILE))
+			return true;
+		for(String packageDirectory : packageDirectories)
+			if(packageDirectory.isEmpty() || path.startsWith(packageDirectory + "/"))
+				return !forceIgnore.isIgnored(path);
+		return false;
+	}
+
+	/**
+	 * True if the directory (path relative to the project directory) is, is within or contains a package directory
+	 * @param directory
+	 * @return
+	 */
+	public boolean overlaps(String directory)
+	{
+		for(String packageDirectory : packageDirectories)
+			if(packageDirectory.isEmpty() || directory.isEmpty() || packageDirectory.equals(directory) ||
+				packageDirectory.startsWith(directory + "/") || directory.startsWith(packageDirectory + "/"))
+				return true;
+		return false;
+	}
+}
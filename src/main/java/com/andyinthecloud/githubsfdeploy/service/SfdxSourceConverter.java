@@ -0,0 +1,633 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeIndex.MetadataType;
+
+/**
+ * Converts a Salesforce DX project (source format) to Metadata API format in process, writing the converted files
+ *   directly to the deploy zip rather than running sfdx force:source:convert and zipping its output folder
+ *
+ * Covers the common source format rules, package directories from sfdx-project.json, .forceignore, -meta.xml files
+ *   paired with their content, bundles (aura, lwc), folders and CustomObjects decomposed into fields, list views,
+ *   record types etc. Source it cannot place raises UnsupportedSourceException, before anything is written,
+ *   so the caller can fall back to the CLI.
+ *
+ * Output matches sf project convert source (see src/test/resources/sfdx), apart from these intentional differences
+ *   - Recomposed objects are the same XML, but empty elements are written as &lt;name/&gt; and quotes in text are not escaped
+ *   - Expanded static resources are zipped with the same entries, but not the same zip bytes (timestamps, compression)
+ *   - Source the CLI merges from several package directories (e.g. CustomLabels) raises UnsupportedSourceException
+ *
+ * expected/ is regenerated with regenerate.sh, which records the CLI version in expected-cli-version.txt. Until that
+ *   file is present the expected output is hand-written to the CLI's format, and the order of recomposed children
+ *   (CLI_ORDER) is not yet confirmed against the CLI.
+ */
+@Component
+public class SfdxSourceConverter
+{
+	private static final Logger logger = LoggerFactory.getLogger(SfdxSourceConverter.class);
+
+	private static final String METADATA_NS = "http://soap.sforce.com/2006/04/metadata";
+	private static final String META_XML = "-meta.xml";
+
+	/**
+	 * CustomObject children decomposed into their own files, by suffix, and the element they are recomposed into
+	 */
+	private static final Map<String, String> OBJECT_CHILDREN = Map.of(
+		"businessProcess", "businessProcesses",
+		"compactLayout", "compactLayouts",
+		"field", "fields",
+		"fieldSet", "fieldSets",
+		"index", "indexes",
+		"listView", "listViews",
+		"recordType", "recordTypes",
+		"sharingReason", "sharingReasons",
+		"validationRule", "validationRules",
+		"webLink", "webLinks");
+
+	/**
+	 * Folder metadata suffixes and the directory of the type they hold
+	 */
+	private static final Map<String, String> FOLDER_SUFFIXES = Map.of(
+		"dashboardFolder", "dashboards",
+		"documentFolder", "documents",
+		"emailFolder", "email",
+		"reportFolder", "reports");
+
+	@Autowired
+	private DeployZipAssembler deployZipAssembler;
+
+	@Autowired
+	private SalesforceProperties salesforceProperties;
+
+	/**
+	 * The project contains source the converter does not handle
+	 */
+	public static class UnsupportedSourceException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedSourceException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * File written to the deploy zip
+	 */
+	public static class ConvertedEntry
+	{
+		private final String name;
+		private final long size;
+
+		ConvertedEntry(String name, long size)
+		{
+			this.name = name;
+			this.size = size;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+	}
+
+	/**
+	 * Converts the project in the given directory, writing a Metadata API deploy zip (including package.xml)
+	 * @param projectDir directory containing sfdx-project.json
+	 * @param describeIndex metadata types of the org being deployed to
+	 * @param zipPath
+	 * @return entries written to the zip
+	 * @throws IOException
+	 * @throws UnsupportedSourceException
+	 */
+	public List<ConvertedEntry> convert(Path projectDir, MetadataDescribeIndex describeIndex, Path zipPath)
+		throws IOException, UnsupportedSourceException
+	{
+		long started = System.currentTimeMillis();
+		projectDir = projectDir.toAbsolutePath().normalize();
+		SfdxProject project;
+		try (InputStream in = Files.newInputStream(projectDir.resolve(SfdxProject.PROJECT_FILE))) {
+			project = SfdxProject.parse(in);
+		}
+		if(project.getPackageDirectories().isEmpty())
+			throw new UnsupportedSourceException("No packageDirectories in sfdx-project.json");
+		Conversion conversion = new Conversion(projectDir, describeIndex, ForceIgnore.load(projectDir.resolve(ForceIgnore.FORCE_IGNORE_FILE)));
+		for(String path : project.getPackageDirectories())
+		{
+			Path packagePath = projectDir.resolve(path).normalize();
+			if(!packagePath.startsWith(projectDir) || !Files.isDirectory(packagePath))
+				throw new UnsupportedSourceException("Package directory '" + path + "' not found");
+			conversion.collect(packagePath);
+		}
+		List<ConvertedEntry> entries;
+		try (DeployZipWriter zipWriter = deployZipAssembler.newWriter(Files.newOutputStream(zipPath))) {
+			entries = conversion.write(zipWriter, project.getSourceApiVersion() != null ? project.getSourceApiVersion() : salesforceProperties.getApiVersion());
+			zipWriter.finish();
+		}
+		logger.info("Converted {} files to {} in {}ms", entries.size(), zipPath, System.currentTimeMillis() - started);
+		return entries;
+	}
+
+	/**
+	 * Files of one project mapped to their Metadata API names, then written to the zip
+	 */
+	private static class Conversion
+	{
+		private final Path projectDir;
+		private final MetadataDescribeIndex describeIndex;
+		private final ForceIgnore forceIgnore;
+
+		private final List<PlannedEntry> plannedEntries = new ArrayList<>();
+		private final Map<String, Path> plannedSources = new HashMap<>();
+		private final Map<String, ObjectParts> objects = new LinkedHashMap<>();
+		private final Set<Path> consumed = new HashSet<>();
+		private final List<Path> consumedDirectories = new ArrayList<>();
+		private final Map<String, Set<String>> members = new TreeMap<>();
+
+		Conversion(Path projectDir, MetadataDescribeIndex describeIndex, ForceIgnore forceIgnore)
+		{
+			this.projectDir = projectDir;
+			this.describeIndex = describeIndex;
+			this.forceIgnore = forceIgnore;
+		}
+
+		void collect(Path packagePath)
+			throws IOException, UnsupportedSourceException
+		{
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(packagePath)) {
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			// Metadata files first, they claim their content files
+			List<Path> contentFiles = new ArrayList<>();
+			for(Path file : files)
+			{
+				if(forceIgnore.isIgnored(relativePath(projectDir, file)))
+					continue;
+				List<String> segments = Arrays.asList(relativePath(packagePath, file).split("/"));
+				if(collectBundle(file, segments))
+					continue;
+				if(file.getFileName().toString().endsWith(META_XML))
+					collectMetadata(file, segments);
+				else
+					contentFiles.add(file);
+			}
+			for(Path file : contentFiles)
+				if(!isConsumed(file))
+					throw new UnsupportedSourceException("Unable to determine the metadata type of " + relativePath(projectDir, file));
+		}
+
+		/**
+		 * Bundles (aura, lwc etc.) are copied as is
+		 */
+		private boolean collectBundle(Path file, List<String> segments)
+			throws UnsupportedSourceException
+		{
+			for(int i = 0; i < segments.size() - 1; i++)
+			{
+				MetadataType type = describeIndex.getByDirectoryName(segments.get(i));
+				if(type == null)
+					continue;
+				if(type.getSuffix() != null || type.getInFolder())
+					return false;
+				// Files alongside the bundles (e.g. lwc/jsconfig.json) are not deployed
+				if(i < segments.size() - 2)
+				{
+					plan(type.getDirectoryName() + "/" + String.join("/", segments.subList(i + 1, segments.size())), file);
+					addMember(type.getXmlName(), segments.get(i + 1));
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private void collectMetadata(Path file, List<String> segments)
+			throws IOException, UnsupportedSourceException
+		{
+			int count = segments.size();
+			String fileName = segments.get(count - 1);
+			String baseName = fileName.substring(0, fileName.length() - META_XML.length());
+			int dot = baseName.lastIndexOf('.');
+			if(dot <= 0)
+				throw new UnsupportedSourceException("Unable to determine the metadata type of " + relativePath(projectDir, file));
+			String fullName = baseName.substring(0, dot);
+			String suffix = baseName.substring(dot + 1);
+			String parent = count >= 2 ? segments.get(count - 2) : null;
+			String grandParent = count >= 3 ? segments.get(count - 3) : null;
+
+			// Decomposed CustomObject, objects/Account/Account.object-meta.xml and objects/Account/fields/*.field-meta.xml etc.
+			MetadataType objectType = describeIndex.getBySuffix("object");
+			if(objectType != null)
+			{
+				if(OBJECT_CHILDREN.containsKey(suffix) && count >= 4 && objectType.getDirectoryName().equals(segments.get(count - 4)))
+				{
+					objectParts(objectType, grandParent).children.add(new ObjectChild(OBJECT_CHILDREN.get(suffix), fullName, file));
+					return;
+				}
+				if(suffix.equals(objectType.getSuffix()) && fullName.equals(parent) && objectType.getDirectoryName().equals(grandParent))
+				{
+					objectParts(objectType, fullName).objectFile = file;
+					return;
+				}
+			}
+
+			// Folders, reports/Sales.reportFolder-meta.xml is reports/Sales-meta.xml
+			String folderDirectory = FOLDER_SUFFIXES.get(suffix);
+			if(folderDirectory != null)
+			{
+				MetadataType folderType = describeIndex.getByDirectoryName(folderDirectory);
+				if(folderType == null)
+					throw new UnsupportedSourceException("Unknown folder type " + relativePath(projectDir, file));
+				plan(folderDirectory + "/" + fullName + META_XML, file);
+				addMember(folderType.getXmlName(), fullName);
+				return;
+			}
+
+			// Type by suffix, else by the folder it is in (e.g. documents)
+			int typeSegment = -1;
+			MetadataType type = describeIndex.getBySuffix(suffix);
+			for(int i = 0; i < count - 1 && typeSegment < 0; i++)
+			{
+				MetadataType folderType = describeIndex.getByDirectoryName(segments.get(i));
+				if(folderType != null && (type == null || folderType == type))
+				{
+					type = folderType;
+					typeSegment = i;
+				}
+			}
+			if(type == null)
+				throw new UnsupportedSourceException("Unable to determine the metadata type of " + relativePath(projectDir, file));
+			String folder = type.getDirectoryName() + "/";
+			String memberFolder = "";
+			if(type.getInFolder())
+			{
+				if(typeSegment < 0 || typeSegment >= count - 2)
+					throw new UnsupportedSourceException("No folder for " + relativePath(projectDir, file));
+				memberFolder = String.join("/", segments.subList(typeSegment + 1, count - 1)) + "/";
+				folder += memberFolder;
+			}
+
+			// No content file, the metadata file is the component
+			if(!type.getMetaFile())
+			{
+				plan(folder + baseName, file);
+				addMember(type.getXmlName(), memberFolder + fullName);
+				return;
+			}
+
+			// Content file of the same name, classes/Foo.cls and classes/Foo.cls-meta.xml
+			Path directory = file.getParent();
+			Path content = directory.resolve(baseName);
+			if(Files.isRegularFile(content))
+			{
+				plan(folder + baseName, content);
+				plan(folder + fileName, file);
+				consumed.add(content);
+				addMember(type.getXmlName(), memberFolder + fullName);
+				return;
+			}
+
+			// Content named by type (staticresources/Foo.js, documents/Shared/logo.png) or an expanded static resource
+			String contentName;
+			Path contentDirectory = directory.resolve(fullName);
+			if(type.getSuffix() != null && Files.isDirectory(contentDirectory))
+			{
+				contentName = fullName + "." + type.getSuffix();
+				plan(folder + contentName, contentDirectory);
+				consumedDirectories.add(contentDirectory);
+			}
+			else
+			{
+				List<Path> candidates;
+				try (Stream<Path> siblings = Files.list(directory)) {
+					candidates = siblings
+						.filter(sibling -> {
+							String siblingName = sibling.getFileName().toString();
+							return siblingName.startsWith(fullName + ".") && !siblingName.endsWith(META_XML);
+						})
+						.filter(Files::isRegularFile)
+						.collect(Collectors.toList());
+				}
+				if(candidates.size() != 1)
+					throw new UnsupportedSourceException("No content file for " + relativePath(projectDir, file));
+				content = candidates.get(0);
+				contentName = type.getSuffix() != null ? fullName + "." + type.getSuffix() : content.getFileName().toString();
+				plan(folder + contentName, content);
+				consumed.add(content);
+			}
+			plan(folder + contentName + META_XML, file);
+			addMember(type.getXmlName(), memberFolder + (type.getSuffix() != null ? fullName : contentName));
+		}
+
+		List<ConvertedEntry> write(DeployZipWriter zipWriter, String apiVersion)
+			throws IOException
+		{
+			List<ConvertedEntry> entries = new ArrayList<>();
+			for(PlannedEntry plannedEntry : plannedEntries)
+			{
+				if(Files.isDirectory(plannedEntry.source))
+				{
+					byte[] data = zipDirectory(plannedEntry.source);
+					zipWriter.addEntry(plannedEntry.name, data);
+					entries.add(new ConvertedEntry(plannedEntry.name, data.length));
+					continue;
+				}
+				try (InputStream in = Files.newInputStream(plannedEntry.source)) {
+					entries.add(new ConvertedEntry(plannedEntry.name, zipWriter.addEntry(plannedEntry.name, in)));
+				}
+			}
+			for(Map.Entry<String, ObjectParts> object : objects.entrySet())
+			{
+				byte[] data = object.getValue().recompose();
+				zipWriter.addEntry(object.getKey(), data);
+				entries.add(new ConvertedEntry(object.getKey(), data.length));
+			}
+			byte[] packageXml = packageXml(apiVersion);
+			zipWriter.addEntry("package.xml", packageXml);
+			entries.add(new ConvertedEntry("package.xml", packageXml.length));
+			return entries;
+		}
+
+		/**
+		 * Adds a zip entry copied from the given file (or zipped from the given directory)
+		 */
+		private void plan(String name, Path source)
+			throws UnsupportedSourceException
+		{
+			Path planned = plannedSources.putIfAbsent(name, source);
+			if(planned != null)
+				throw new UnsupportedSourceException(relativePath(projectDir, planned) + " and " + relativePath(projectDir, source) + " both convert to " + name);
+			plannedEntries.add(new PlannedEntry(name, source));
+		}
+
+		private ObjectParts objectParts(MetadataType objectType, String objectName)
+		{
+			String name = objectType.getDirectoryName() + "/" + objectName + "." + objectType.getSuffix();
+			ObjectParts objectParts = objects.get(name);
+			if(objectParts == null)
+			{
+				objectParts = new ObjectParts();
+				objects.put(name, objectParts);
+				addMember(objectType.getXmlName(), objectName);
+			}
+			return objectParts;
+		}
+
+		private void addMember(String type, String member)
+		{
+			members.computeIfAbsent(type, key -> new TreeSet<>()).add(member);
+		}
+
+		private boolean isConsumed(Path file)
+		{
+			if(consumed.contains(file))
+				return true;
+			for(Path consumedDirectory : consumedDirectories)
+				if(file.startsWith(consumedDirectory))
+					return true;
+			return false;
+		}
+
+		/**
+		 * Static resource folder as a zip, as the CLI does for expanded archives
+		 */
+		private byte[] zipDirectory(Path directory)
+			throws IOException
+		{
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(directory)) {
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ZipOutputStream zipOS = new ZipOutputStream(bytes)) {
+				for(Path file : files)
+				{
+					if(forceIgnore.isIgnored(relativePath(projectDir, file)))
+						continue;
+					zipOS.putNextEntry(new ZipEntry(relativePath(directory, file)));
+					Files.copy(file, zipOS);
+					zipOS.closeEntry();
+				}
+			}
+			return bytes.toByteArray();
+		}
+
+		private byte[] packageXml(String apiVersion)
+		{
+			StringBuilder packageXml = new StringBuilder();
+			packageXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			packageXml.append("<Package xmlns=\"").append(METADATA_NS).append("\">\n");
+			for(Map.Entry<String, Set<String>> type : members.entrySet())
+			{
+				packageXml.append("    <types>\n");
+				for(String member : type.getValue())
+					packageXml.append("        <members>").append(escape(member)).append("</members>\n");
+				packageXml.append("        <name>").append(escape(type.getKey())).append("</name>\n");
+				packageXml.append("    </types>\n");
+			}
+			packageXml.append("    <version>").append(escape(apiVersion)).append("</version>\n");
+			packageXml.append("</Package>\n");
+			return packageXml.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	private static class PlannedEntry
+	{
+		final String name;
+		final Path source;
+
+		PlannedEntry(String name, Path source)
+		{
+			this.name = name;
+			this.source = source;
+		}
+	}
+
+	private static class ObjectChild
+	{
+		final String element;
+		final String fullName;
+		final Path file;
+
+		ObjectChild(String element, String fullName, Path file)
+		{
+			this.element = element;
+			this.fullName = fullName;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * CustomObject decomposed into an object file (absent when only extending a standard object) and child files
+	 */
+	private static class ObjectParts
+	{
+		Path objectFile;
+		final List<ObjectChild> children = new ArrayList<>();
+
+		byte[] recompose()
+			throws IOException
+		{
+			try {
+				DocumentBuilder builder = documentBuilder();
+				Document document;
+				if(objectFile != null) {
+					document = builder.parse(objectFile.toFile());
+				} else {
+					document = builder.newDocument();
+					document.appendChild(document.createElementNS(METADATA_NS, "CustomObject"));
+				}
+				Element root = document.getDocumentElement();
+				// Child elements grouped after the object's own, groups and children in the CLI's order
+				children.sort(Comparator.comparing((ObjectChild child) -> child.element, CLI_ORDER).thenComparing(child -> child.fullName, CLI_ORDER));
+				for(ObjectChild child : children)
+				{
+					Element childRoot = builder.parse(child.file.toFile()).getDocumentElement();
+					Element element = document.createElementNS(METADATA_NS, child.element);
+					if(!hasChildElement(childRoot, "fullName"))
+					{
+						Element fullName = document.createElementNS(METADATA_NS, "fullName");
+						fullName.setTextContent(child.fullName);
+						element.appendChild(fullName);
+					}
+					for(Node node = childRoot.getFirstChild(); node != null; node = node.getNextSibling())
+						element.appendChild(document.importNode(node, true));
+					root.appendChild(element);
+				}
+				// Indented by four spaces as the CLI writes it, the source files' own indentation is dropped
+				removeWhitespace(root);
+				Transformer transformer = TransformerFactory.newInstance().newTransformer();
+				transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+				transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+				transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+				transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				bytes.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes(StandardCharsets.UTF_8));
+				transformer.transform(new DOMSource(document), new StreamResult(bytes));
+				return bytes.toByteArray();
+			} catch (ParserConfigurationException | SAXException | TransformerException e) {
+				throw new IOException("Unable to recompose " + (objectFile != null ? objectFile.getFileName() : "object"), e);
+			}
+		}
+
+		private static void removeWhitespace(Node node)
+		{
+			for(Node child = node.getFirstChild(); child != null; ) {
+				Node next = child.getNextSibling();
+				if(child.getNodeType() == Node.TEXT_NODE && child.getTextContent().isBlank())
+					node.removeChild(child);
+				else
+					removeWhitespace(child);
+				child = next;
+			}
+		}
+
+		private static boolean hasChildElement(Element element, String localName)
+		{
+			for(Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+				if(node.getNodeType() == Node.ELEMENT_NODE && localName.equals(node.getLocalName()))
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Orders names as the CLI does (JavaScript localeCompare), letters compare regardless of case (lower case first
+	 *   when that is all that differs) and '_' sorts before digits and letters, unlike String.compareTo
+	 */
+	static final Comparator<String> CLI_ORDER = (a, b) -> {
+		int length = Math.min(a.length(), b.length());
+		for(int i = 0; i < length; i++)
+		{
+			int compare = Integer.compare(collationKey(a.charAt(i)), collationKey(b.charAt(i)));
+			if(compare != 0)
+				return compare;
+		}
+		if(a.length() != b.length())
+			return Integer.compare(a.length(), b.length());
+		for(int i = 0; i < length; i++)
+		{
+			char ca = a.charAt(i), cb = b.charAt(i);
+			if(ca != cb)
+				return Character.isLowerCase(ca) ? -1 : Character.isLowerCase(cb) ? 1 : Character.compare(ca, cb);
+		}
+		return 0;
+	};
+
+	/**
+	 * Punctuation, then digits, then letters (case folded)
+	 */
+	private static int collationKey(char c)
+	{
+		return Character.isLetterOrDigit(c) ? 0x10000 + Character.toLowerCase(c) : c;
+	}
+
+	private static DocumentBuilder documentBuilder()
+		throws ParserConfigurationException
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setExpandEntityReferences(false);
+		return factory.newDocumentBuilder();
+	}
+
+	private static String relativePath(Path base, Path file)
+	{
+		return base.relativize(file).toString().replace('\\', '/');
+	}
+
+	private static String escape(String value)
+	{
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
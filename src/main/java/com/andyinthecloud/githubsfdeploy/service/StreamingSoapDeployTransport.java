@@ -0,0 +1,171 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.SoapFaultException;
+import com.sforce.ws.bind.TypeMapper;
+import com.sforce.ws.parser.PullParserException;
+import com.sforce.ws.parser.XmlInputStream;
+import com.sforce.ws.parser.XmlOutputStream;
+
+/**
+ * Metadata API SOAP deploy call that streams the request, base64 encoding the zip as it is written to the connection
+ *
+ * MetadataConnection.deploy needs the zip as a byte array and builds the whole envelope in memory before sending it,
+ *   this writes the envelope directly to the connection so memory used does not grow with the size of the zip
+ */
+@Component
+public class StreamingSoapDeployTransport
+{
+	private static final Logger logger = LoggerFactory.getLogger(StreamingSoapDeployTransport.class);
+
+	private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+	private static final String METADATA_NS = "http://soap.sforce.com/2006/04/metadata";
+
+	/**
+	 * Bytes of zip encoded per chunk, a multiple of 3 so only the final chunk is padded
+	 */
+	private static final int ENCODE_CHUNK_BYTES = 3 * 16 * 1024;
+
+	@Autowired
+	private DeployProperties deployProperties;
+
+	/**
+	 * Starts a deploy of the given zip
+	 * @param serviceEndpoint Metadata API SOAP endpoint (e.g. https://instance/services/Soap/m/61.0)
+	 * @param sessionId
+	 * @param deployZip
+	 * @param deployOptions
+	 * @return
+	 * @throws IOException
+	 * @throws ConnectionException
+	 */
+	public AsyncResult deploy(String serviceEndpoint, String sessionId, DeploySpool deployZip, DeployOptions deployOptions)
+		throws IOException, ConnectionException
+	{
+		boolean gzipRequest = deployProperties.isGzipRequests();
+		HttpURLConnection connection = (HttpURLConnection) new URL(serviceEndpoint).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(64 * 1024); // Do not buffer the request to compute its length
+		connection.setConnectTimeout(deployProperties.getConnectTimeoutMillis());
+		connection.setReadTimeout(deployProperties.getReadTimeoutMillis());
+		connection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
+		connection.setRequestProperty("SOAPAction", "\"\"");
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if(gzipRequest)
+			connection.setRequestProperty("Content-Encoding", "gzip");
+
+		// Write the envelope
+		long started = System.currentTimeMillis();
+		try (OutputStream connectionOut = connection.getOutputStream();
+			 OutputStream requestOut = gzipRequest ?
+				new GZIPOutputStream(connectionOut, 64 * 1024) : new BufferedOutputStream(connectionOut, 64 * 1024)) {
+			writeEnvelope(requestOut, sessionId, deployZip, deployOptions);
+		}
+		logger.debug("Sent deploy request for {} byte zip in {}ms (gzip {})", deployZip.size(), System.currentTimeMillis() - started, gzipRequest);
+
+		// Read the AsyncResult (or fault)
+		int status = connection.getResponseCode();
+		InputStream responseIn = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if(responseIn == null)
+			throw new ConnectionException("Deploy request failed with status " + status);
+		if("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+			responseIn = new GZIPInputStream(responseIn);
+		try (InputStream in = responseIn) {
+			return readResponse(in);
+		}
+	}
+
+	private static void writeEnvelope(OutputStream out, String sessionId, DeploySpool deployZip, DeployOptions deployOptions)
+		throws IOException
+	{
+		TypeMapper typeMapper = new TypeMapper();
+		XmlOutputStream xmlOut = new XmlOutputStream(out, false);
+		xmlOut.startDocument();
+		xmlOut.setPrefix("env", SOAP_NS);
+		xmlOut.setPrefix("xsd", "http://www.w3.org/2001/XMLSchema");
+		xmlOut.setPrefix("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+		xmlOut.writeStartTag(SOAP_NS, "Envelope");
+		xmlOut.writeStartTag(SOAP_NS, "Header");
+		xmlOut.writeStartTag(METADATA_NS, "SessionHeader");
+		xmlOut.writeStringElement(METADATA_NS, "sessionId", sessionId);
+		xmlOut.writeEndTag(METADATA_NS, "SessionHeader");
+		xmlOut.writeEndTag(SOAP_NS, "Header");
+		xmlOut.writeStartTag(SOAP_NS, "Body");
+		xmlOut.writeStartTag(METADATA_NS, "deploy");
+		xmlOut.writeStartTag(METADATA_NS, "ZipFile");
+		// Encode the zip a chunk at a time
+		Base64.Encoder encoder = Base64.getEncoder();
+		byte[] chunk = new byte[ENCODE_CHUNK_BYTES];
+		try (InputStream zipIn = deployZip.openStream()) {
+			int read;
+			while((read = zipIn.readNBytes(chunk, 0, chunk.length)) > 0) {
+				byte[] encoded = encoder.encode(read == chunk.length ? chunk : Arrays.copyOf(chunk, read));
+				xmlOut.writeText(new String(encoded, StandardCharsets.US_ASCII));
+			}
+		}
+		xmlOut.writeEndTag(METADATA_NS, "ZipFile");
+		deployOptions.write(new QName(METADATA_NS, "DeployOptions"), xmlOut, typeMapper);
+		xmlOut.writeEndTag(METADATA_NS, "deploy");
+		xmlOut.writeEndTag(SOAP_NS, "Body");
+		xmlOut.writeEndTag(SOAP_NS, "Envelope");
+		xmlOut.endDocument();
+		xmlOut.flush();
+	}
+
+	private static AsyncResult readResponse(InputStream in)
+		throws IOException, ConnectionException
+	{
+		XmlInputStream xmlIn = new XmlInputStream();
+		try {
+			xmlIn.setInput(in, "UTF-8");
+		} catch (PullParserException e) {
+			throw new ConnectionException("Unable to read deploy response", e);
+		}
+		String faultCode = null;
+		String faultString = null;
+		while(true)
+		{
+			int event = xmlIn.next();
+			if(event == XmlInputStream.END_DOCUMENT)
+				break;
+			if(event == XmlInputStream.START_TAG) {
+				if("deployResponse".equals(xmlIn.getName())) {
+					// Positioned before the result element, as the generated type expects
+					AsyncResult asyncResult = new AsyncResult();
+					asyncResult.load(xmlIn, new TypeMapper());
+					return asyncResult;
+				}
+				if("faultcode".equals(xmlIn.getName()))
+					faultCode = xmlIn.nextText();
+				else if("faultstring".equals(xmlIn.getName()))
+					faultString = xmlIn.nextText();
+			}
+		}
+		if(faultCode != null || faultString != null)
+			throw new SoapFaultException(new QName(faultCode != null ? faultCode : ""), faultString);
+		throw new ConnectionException("No deploy result in response");
+	}
+}
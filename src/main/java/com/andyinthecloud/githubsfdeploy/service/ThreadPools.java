@@ -0,0 +1,72 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools for the services, their threads are daemons (so never hold up shutdown) named after the pool
+ */
+public final class ThreadPools
+{
+	/**
+	 * Idle threads are let go after this long, pools sized for bursts cost nothing between them
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60L;
+
+	private ThreadPools()
+	{
+	}
+
+	/**
+	 * Fixed size pool with an unbounded queue, its threads started as needed and stopped when idle
+	 * @param name thread names are this followed by a number
+	 * @param threads
+	 * @return
+	 */
+	public static ThreadPoolExecutor daemonPool(String name, int threads)
+	{
+		return daemonPool(name, threads, new LinkedBlockingQueue<>());
+	}
+
+	/**
+	 * Fixed size pool with the given queue (e.g. bounded, so submissions are rejected once it is full)
+	 * @param name thread names are this followed by a number
+	 * @param threads
+	 * @param queue
+	 * @return
+	 */
+	public static ThreadPoolExecutor daemonPool(String name, int threads, BlockingQueue<Runnable> queue)
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, daemonThreads(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Pool for delayed and periodic tasks, cancelled tasks are removed from its queue straight away
+	 * @param name thread names are this followed by a number
+	 * @param threads
+	 * @return
+	 */
+	public static ScheduledThreadPoolExecutor daemonScheduler(String name, int threads)
+	{
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, daemonThreads(name));
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	private static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger threadCount = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
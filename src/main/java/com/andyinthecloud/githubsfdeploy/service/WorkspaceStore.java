@@ -0,0 +1,348 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andyinthecloud.githubsfdeploy.config.WorkspaceProperties;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Directories Salesforce DX projects are downloaded to and converted in, the converted deploy zip stays in its
+ *   workspace until the deploy has been sent
+ *
+ * Workspaces in use (being written by a scan or read by a deploy) are never removed. Otherwise a workspace is removed
+ *   once every page holding it has deployed, once it has not been used for the TTL, or (least recently used first)
+ *   when the workspaces on disk exceed the disk budget.
+ */
+@Component
+public class WorkspaceStore implements MeterBinder
+{
+	private static final Logger logger = LoggerFactory.getLogger(WorkspaceStore.class);
+
+	@Autowired
+	private WorkspaceProperties workspaceProperties;
+
+	private Path directory;
+
+	private long totalBytes;
+
+	private final LinkedHashMap<String, Workspace> workspaces = new LinkedHashMap<>(16, 0.75f, true);
+
+	private ScheduledExecutorService sweeper;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Workspace directory, its users and the pages holding it for a deploy
+	 */
+	public static class Workspace
+	{
+		private final String id;
+		private final Path path;
+		private long size;
+		private long lastUsed = System.currentTimeMillis();
+		private int users;
+		private int holds;
+		private boolean deleted;
+
+		Workspace(String id, Path path)
+		{
+			this.id = id;
+			this.path = path;
+		}
+
+		public String getId()
+		{
+			return id;
+		}
+
+		public Path getPath()
+		{
+			return path;
+		}
+	}
+
+	@PostConstruct
+	public void init() throws IOException
+	{
+		directory = workspaceProperties.getDirectory() != null && !workspaceProperties.getDirectory().isBlank() ?
+			Paths.get(workspaceProperties.getDirectory()) : Paths.get(System.getProperty("java.io.tmpdir"), "githubsfdeploy-workspaces");
+		directory = directory.toAbsolutePath().normalize();
+		// Workspaces from a previous run belong to sessions that no longer exist
+		Files.createDirectories(directory);
+		List<Path> existing;
+		try (Stream<Path> files = Files.list(directory)) {
+			existing = files.collect(Collectors.toList());
+		}
+		for(Path path : existing)
+			deleteRecursively(path);
+		long sweepSeconds = Math.max(1, Math.min(60, workspaceProperties.getTtlSeconds()));
+		sweeper = ThreadPools.daemonScheduler("workspace-sweeper", 1);
+		sweeper.scheduleWithFixedDelay(this::sweep, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+		logger.info("Workspace store at {}", directory);
+	}
+
+	@PreDestroy
+	public void destroy()
+	{
+		sweeper.shutdownNow();
+	}
+
+	/**
+	 * New empty workspace, in use by the caller until closed
+	 * @return
+	 * @throws IOException
+	 */
+	public Workspace create() throws IOException
+	{
+		String id = UUID.randomUUID().toString();
+		Workspace workspace = new Workspace(id, Files.createDirectory(directory.resolve(id)));
+		synchronized (workspaces) {
+			workspace.users++;
+			workspaces.put(id, workspace);
+		}
+		created.incrementAndGet();
+		return workspace;
+	}
+
+	/**
+	 * Workspace containing the given file (e.g. the deploy zip of a converted project), in use by the caller until closed
+	 * @param file
+	 * @return the workspace, null if the file is not in a workspace or it has been removed
+	 */
+	public Workspace open(String file)
+	{
+		Workspace workspace = find(file);
+		if(workspace == null)
+			return null;
+		synchronized (workspaces) {
+			if(workspace.deleted)
+				return null;
+			workspace.users++;
+			workspace.lastUsed = System.currentTimeMillis();
+			return workspace;
+		}
+	}
+
+	/**
+	 * Done using the workspace, records its size on disk
+	 * @param workspace
+	 */
+	public void close(Workspace workspace)
+	{
+		long size = sizeOf(workspace.path);
+		synchronized (workspaces) {
+			workspace.users--;
+			workspace.lastUsed = System.currentTimeMillis();
+			if(!workspace.deleted) {
+				totalBytes += size - workspace.size;
+				workspace.size = size;
+			}
+			removeIfUnused(workspace);
+			trim();
+		}
+	}
+
+	/**
+	 * A page will deploy from the workspace containing the given file, keeps it until released (or the TTL expires)
+	 * @param file
+	 * @return false if the workspace has been removed
+	 */
+	public boolean hold(String file)
+	{
+		Workspace workspace = find(file);
+		if(workspace == null)
+			return false;
+		synchronized (workspaces) {
+			if(workspace.deleted)
+				return false;
+			workspace.holds++;
+			workspace.lastUsed = System.currentTimeMillis();
+			return true;
+		}
+	}
+
+	/**
+	 * A page holding the workspace has deployed from it, the workspace is removed once nothing else holds it
+	 * @param workspace
+	 */
+	public void release(Workspace workspace)
+	{
+		synchronized (workspaces) {
+			workspace.holds = Math.max(0, workspace.holds - 1);
+			removeIfUnused(workspace);
+		}
+	}
+
+	public int getWorkspaceCount()
+	{
+		synchronized (workspaces) {
+			return workspaces.size();
+		}
+	}
+
+	public long getTotalBytes()
+	{
+		synchronized (workspaces) {
+			return totalBytes;
+		}
+	}
+
+	public long getCreated()
+	{
+		return created.get();
+	}
+
+	public long getDeleted()
+	{
+		return deleted.get();
+	}
+
+	public long getExpirations()
+	{
+		return expirations.get();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		Gauge.builder("githubsfdeploy.workspace.count", this, WorkspaceStore::getWorkspaceCount)
+			.description("Salesforce DX workspaces on disk").register(registry);
+		Gauge.builder("githubsfdeploy.workspace.bytes", this, WorkspaceStore::getTotalBytes)
+			.baseUnit("bytes").description("Disk used by Salesforce DX workspaces").register(registry);
+		FunctionCounter.builder("githubsfdeploy.workspace.created", created, AtomicLong::get)
+			.description("Salesforce DX workspaces created").register(registry);
+		FunctionCounter.builder("githubsfdeploy.workspace.deleted", deleted, AtomicLong::get)
+			.description("Salesforce DX workspaces removed, for any reason").register(registry);
+		FunctionCounter.builder("githubsfdeploy.workspace.expirations", expirations, AtomicLong::get)
+			.description("Workspaces removed as unused for the TTL").register(registry);
+		FunctionCounter.builder("githubsfdeploy.workspace.evictions", evictions, AtomicLong::get)
+			.description("Workspaces removed to keep within the disk budget").register(registry);
+	}
+
+	private Workspace find(String file)
+	{
+		if(file == null)
+			return null;
+		Path path = Paths.get(file).toAbsolutePath().normalize();
+		if(!path.startsWith(directory) || path.getNameCount() <= directory.getNameCount())
+			return null;
+		String id = path.getName(directory.getNameCount()).toString();
+		synchronized (workspaces) {
+			return workspaces.get(id);
+		}
+	}
+
+	/**
+	 * Removes workspaces not used within the TTL, then trims to the disk budget
+	 */
+	private void sweep()
+	{
+		long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(workspaceProperties.getTtlSeconds());
+		List<Workspace> expired = new ArrayList<>();
+		synchronized (workspaces) {
+			for(Workspace workspace : workspaces.values())
+				if(workspace.users == 0 && workspace.lastUsed < expiredBefore)
+					expired.add(workspace);
+			for(Workspace workspace : expired) {
+				expirations.incrementAndGet();
+				remove(workspace);
+			}
+			trim();
+		}
+	}
+
+	/**
+	 * Call holding the workspaces lock
+	 */
+	private void removeIfUnused(Workspace workspace)
+	{
+		if(!workspace.deleted && workspace.users == 0 && workspace.holds == 0)
+			remove(workspace);
+	}
+
+	/**
+	 * Removes least recently used workspaces while over the disk budget, those no page holds first, never those in use.
+	 *   Call holding the workspaces lock.
+	 */
+	private void trim()
+	{
+		for(int pass = 0; pass < 2 && totalBytes > workspaceProperties.getMaxBytes(); pass++) {
+			Iterator<Workspace> eldest = new ArrayList<>(workspaces.values()).iterator();
+			while(totalBytes > workspaceProperties.getMaxBytes() && eldest.hasNext()) {
+				Workspace workspace = eldest.next();
+				if(workspace.users > 0 || (pass == 0 && workspace.holds > 0))
+					continue;
+				evictions.incrementAndGet();
+				remove(workspace);
+			}
+		}
+	}
+
+	/**
+	 * Call holding the workspaces lock
+	 */
+	private void remove(Workspace workspace)
+	{
+		workspace.deleted = true;
+		workspaces.remove(workspace.id);
+		totalBytes -= workspace.size;
+		deleted.incrementAndGet();
+		try {
+			deleteRecursively(workspace.path);
+		} catch (IOException e) {
+			logger.warn("Failed to remove workspace {}", workspace.path, e);
+		}
+	}
+
+	private static long sizeOf(Path path)
+	{
+		try (Stream<Path> files = Files.walk(path)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static void deleteRecursively(Path path) throws IOException
+	{
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(path)) {
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		for(Path file : paths)
+			Files.deleteIfExists(file);
+	}
+}
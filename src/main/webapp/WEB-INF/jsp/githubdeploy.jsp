@@ -5,7 +5,10 @@
 	    <c:if test="${githubcontents != null}">
 	   	<div class="slds-col slds-no-flex slds-align-bottom">
 	      <div class="slds-button-group" role="group">
-	        <button id="deploy" class="slds-button slds-button--neutral" onclick="GitHubDeploy.deploy();">Deploy</button>
+	        <button id="deploy" class="slds-button slds-button--neutral" disabled="disabled" onclick="GitHubDeploy.deploy();">Deploy</button>
+	        <c:if test="${orgs != null && orgs.size() > 1}">
+	        <button id="deployfanout" class="slds-button slds-button--neutral" disabled="disabled" onclick="GitHubDeploy.deployFanOut();">Deploy to Selected Orgs</button>
+	        </c:if>
 	      </div>
 	    </div>		
 	    </c:if>
@@ -124,6 +127,27 @@
 								<c:out value="${userName}" />
 							</p>
 						</dd>
+						<c:if test="${orgs != null && orgs.size() > 1}">
+							<dt class="slds-dl--horizontal__label">
+								<p class="slds-truncate">Deploy To Orgs:</p>
+							</dt>
+							<dd class="slds-dl--horizontal__detail slds-tile__meta">
+								<c:forEach items="${orgs}" var="org">
+									<p class="slds-truncate">
+										<label><input type="checkbox" class="fanoutorg" value="<c:out value="${org.orgId}" />" <c:if test="${org.current}">checked="checked"</c:if> />
+										<c:out value="${org.name}" /></label>
+									</p>
+								</c:forEach>
+							</dd>
+						</c:if>
+						<dt class="slds-dl--horizontal__label">
+							<p class="slds-truncate">Other Orgs:</p>
+						</dt>
+						<dd class="slds-dl--horizontal__detail slds-tile__meta">
+							<p class="slds-truncate">
+								<a href="/oauth2/authorization/salesforce">Log in to another org</a> (as a user of that org), then return to this page to deploy to several orgs at once
+							</p>
+						</dd>
 					</dl>
 				</div>
 			</li>
@@ -142,8 +166,14 @@
 
 		var GitHubDeploy = {
 
-			// Contents of the GitHub repository
-			contents: ${githubcontents},
+			// Contents of the GitHub repository (loaded from the contents endpoint)
+			contents: null,
+
+			// Repository contents are expanded a directory at a time (larger repositories)
+			lazyTree: ${lazytree == true},
+
+			// Deploy job (download, zip and submit) run by the server before the Salesforce deploy starts
+			jobId : null,
 
 			// Async result from Salesforce Metadata API
 			deployResult : null,
@@ -151,6 +181,9 @@
 			// Client timer Id used to poll Salesforce Metadata API
 			intervalId : null,
 
+			// Deploy progress pushed from the server (server-sent events)
+			eventSource : null,
+
 			// Render GitHub repository contents
 			render: function(container) {
 					if(container.repositoryItem!=null)
@@ -179,7 +212,7 @@
 			checkStatus: function() {
 				$.ajax({
 					type: 'GET',
-					url: window.pathname + '/checkstatus/' + GitHubDeploy.deployResult.id,
+					url: window.location.pathname + '/checkstatus/' + GitHubDeploy.deployResult.id,
 					contentType : 'application/json; charset=utf-8',
 					dataType : 'json',
 					success: function(data, textStatus, jqXHR) {
@@ -197,6 +230,156 @@
 				});
 			},
 
+			// Deploy to each selected org, the deploy zip is built once
+			deployFanOut: function() {
+					var orgIds = $('.fanoutorg:checked').map(function() { return 'orgId=' + encodeURIComponent(this.value); }).get();
+					if(orgIds.length == 0) {
+						alert('Select the orgs to deploy to');
+						return;
+					}
+					$('#deploy').attr('disabled', 'disabled');
+					$('#deployfanout').attr('disabled', 'disabled');
+					$('#deploystatus').empty();
+					$('#deploystatus').show();
+					$('#deploystatus').append('Deployment Started');
+					$.ajax({
+						type: 'POST',
+						url: window.location.pathname + '/fanout?' + orgIds.join('&'),
+						processData : false,
+						data : JSON.stringify(GitHubDeploy.contents),
+						contentType : "application/json; charset=utf-8",
+						dataType : "json",
+						success: function(data, textStatus, jqXHR) {
+							GitHubDeploy.renderFanOut(data);
+							GitHubDeploy.intervalId = window.setInterval(function() { GitHubDeploy.checkFanOut(data.id); }, 2000);
+						},
+						error: function(jqXHR, textStatus, errorThrown) {
+							alert('Failed ' + textStatus + errorThrown);
+							$('#deploy').attr('disabled', null);
+							$('#deployfanout').attr('disabled', null);
+						}
+					});
+				},
+
+			// Check progress of each org of a multi-org deploy
+			checkFanOut: function(fanOutId) {
+					$.ajax({
+						type: 'GET',
+						url: window.location.pathname + '/fanout/' + fanOutId,
+						contentType : 'application/json; charset=utf-8',
+						dataType : 'json',
+						success: function(data, textStatus, jqXHR) {
+							GitHubDeploy.renderFanOut(data);
+							if(data.done) {
+								window.clearInterval(GitHubDeploy.intervalId);
+								$('#deploystatus').append('<div>Deployment Complete: ' + data.succeeded + ' succeeded, ' + data.failed + ' failed</div>');
+								$('#deploy').attr('disabled', null);
+								$('#deployfanout').attr('disabled', null);
+							}
+						},
+						error: function(jqXHR, textStatus, errorThrown) {
+							window.clearInterval(GitHubDeploy.intervalId);
+							$('#deploystatus').append('<div>Error: ' + textStatus + errorThrown + '</div>');
+						}
+					});
+				},
+
+			// Render the status of each org of a multi-org deploy (replacing the last)
+			renderFanOut: function(fanOut) {
+					var status = $('#fanoutstatus');
+					if(status.length == 0) {
+						status = $('<div id="fanoutstatus"></div>');
+						$('#deploystatus').append(status);
+					}
+					status.empty();
+					status.append($('<div></div>').text('Build: ' + fanOut.stateDetail));
+					for(targetIdx in fanOut.targets) {
+						var target = fanOut.targets[targetIdx];
+						var progress = target.progress;
+						status.append($('<div></div>').text(target.name + ': ' +
+							(progress != null ? progress.status : target.stage) + ' ' +
+							(target.stateDetail != null ? target.stateDetail : '') +
+							(progress != null && progress.numberComponentsTotal > 0 ?
+								' Components: ' + progress.numberComponentsDeployed + '/' + progress.numberComponentsTotal +
+								(progress.numberComponentErrors > 0 ? ' (' + progress.numberComponentErrors + ' errors)' : '') : '') +
+							(progress != null && progress.numberTestsTotal > 0 ?
+								' Tests: ' + progress.numberTestsCompleted + '/' + progress.numberTestsTotal +
+								(progress.numberTestErrors > 0 ? ' (' + progress.numberTestErrors + ' errors)' : '') : '') +
+							(target.errorMessage != null ? ' ' + target.errorMessage : '')));
+					}
+				},
+
+			// Poll the deploy job until it has sent the deploy to Salesforce (or failed)
+			watchJob: function() {
+				var stateDetail = null;
+				GitHubDeploy.intervalId = window.setInterval(function() {
+					$.ajax({
+						type: 'GET',
+						url: window.location.pathname + '/checkstatus/' + GitHubDeploy.jobId,
+						contentType : 'application/json; charset=utf-8',
+						dataType : 'json',
+						success: function(data, textStatus, jqXHR) {
+							if(data.id != GitHubDeploy.jobId) {
+								// Submitted, follow the Salesforce deploy
+								window.clearInterval(GitHubDeploy.intervalId);
+								GitHubDeploy.deployResult = data;
+								GitHubDeploy.renderDeploy();
+								if(GitHubDeploy.deployResult.completedDate)
+									GitHubDeploy.checkDeploy();
+								else
+									GitHubDeploy.watchDeploy();
+								return;
+							}
+							if(data.stateDetail != stateDetail) {
+								stateDetail = data.stateDetail;
+								$('#deploystatus').append('<div>Status: ' + data.stateDetail + '</div>');
+							}
+							if(data.completedDate) {
+								window.clearInterval(GitHubDeploy.intervalId);
+								GitHubDeploy.deployResult = data;
+								GitHubDeploy.checkDeploy();
+							}
+						},
+						error: function(jqXHR, textStatus, errorThrown) {
+							window.clearInterval(GitHubDeploy.intervalId);
+							$('#deploystatus').append('<div>Error: ' + textStatus + errorThrown + '</div>');
+							$('#deploy').attr('disabled', null);
+						}
+					});
+				}, 1000);
+			},
+
+			// Follow deploy progress pushed from the server, polling if the browser or connection does not allow it
+			watchDeploy: function() {
+				if(!window.EventSource) {
+					GitHubDeploy.intervalId = window.setInterval(GitHubDeploy.checkStatus, 2000);
+					return;
+				}
+				var eventSource = new EventSource(window.location.pathname + '/progress/' + GitHubDeploy.deployResult.id);
+				GitHubDeploy.eventSource = eventSource;
+				eventSource.addEventListener('progress', function(event) {
+					GitHubDeploy.deployResult = JSON.parse(event.data);
+					GitHubDeploy.renderDeploy();
+				});
+				eventSource.addEventListener('complete', function(event) {
+					eventSource.close();
+					GitHubDeploy.eventSource = null;
+					GitHubDeploy.deployResult = JSON.parse(event.data);
+					GitHubDeploy.renderDeploy();
+					GitHubDeploy.checkDeploy();
+				});
+				var fallback = function() {
+					eventSource.close();
+					if(GitHubDeploy.eventSource == eventSource) {
+						GitHubDeploy.eventSource = null;
+						GitHubDeploy.intervalId = window.setInterval(GitHubDeploy.checkStatus, 2000);
+					}
+				};
+				// The server could not check the deploy, or the stream failed
+				eventSource.addEventListener('failed', fallback);
+				eventSource.onerror = fallback;
+			},
+
 			// Deploy
 			deploy: function() {
 					$('#deploy').attr('disabled', 'disabled');
@@ -210,29 +393,34 @@
 		                contentType : "application/json; charset=utf-8",
 		                dataType : "json",
 		                success: function(data, textStatus, jqXHR) {
-		                    GitHubDeploy.deployResult = data;
+		                    GitHubDeploy.jobId = data.id;
 							$('#deploystatus').append(
 								'<div>Status: '+
-									GitHubDeploy.deployResult.state + ' ' +
-									(GitHubDeploy.deployResult.message != null ? GitHubDeploy.deployResult.message : '') +
+									data.state + ' ' +
+									(data.message != null ? data.message : '') +
 								'</div>');		
-		                    if(GitHubDeploy.deployResult.completedDate)
-		                    	GitHubDeploy.checkDeploy();
-		                    else
-		                    	GitHubDeploy.intervalId = window.setInterval(GitHubDeploy.checkStatus, 2000);
+		                    GitHubDeploy.watchJob();
 		                },
 		                error: function(jqXHR, textStatus, errorThrown) {
 		                    alert('Failed ' + textStatus + errorThrown);
+		                    $('#deploy').attr('disabled', null);
 		                }
 		            });
 				},
 
 			// Render Async
 			renderDeploy: function() {
+					var deployResult = GitHubDeploy.deployResult;
 					$('#deploystatus').append(
 						'<div>Status: '+
-							GitHubDeploy.deployResult.status + ' ' +
-							(GitHubDeploy.deployResult.message != null ? GitHubDeploy.deployResult.message : '') +
+							deployResult.status + ' ' +
+							(deployResult.message != null ? deployResult.message : '') +
+							(deployResult.numberComponentsTotal > 0 ?
+								' Components: ' + deployResult.numberComponentsDeployed + '/' + deployResult.numberComponentsTotal +
+								(deployResult.numberComponentErrors > 0 ? ' (' + deployResult.numberComponentErrors + ' errors)' : '') : '') +
+							(deployResult.numberTestsTotal > 0 ?
+								' Tests: ' + deployResult.numberTestsCompleted + '/' + deployResult.numberTestsTotal +
+								(deployResult.numberTestErrors > 0 ? ' (' + deployResult.numberTestErrors + ' errors)' : '') : '') +
 						'</div>');
 				},
 
@@ -243,7 +431,7 @@
 					$('#deploy').attr('disabled', null);
 		            $.ajax({
 		                type: 'GET',
-		                url: window.pathname + '/checkdeploy/' + GitHubDeploy.deployResult.id,
+		                url: window.location.pathname + '/checkdeploy/' + GitHubDeploy.deployResult.id,
 		                contentType : 'application/json; charset=utf-8',
 		                dataType : 'json',
 		                success: function(data, textStatus, jqXHR) {
@@ -253,11 +441,86 @@
 		                	$('#deploystatus').append('<div>Error: ' + textStatus + errorThrown + '</div>');
 		                }
 		            });
+				},
+
+			// Render a page of a directory of the GitHub repository contents, directories expand on demand
+			renderTree: function(path, cursor, target) {
+					$.ajax({
+						type: 'GET',
+						url: window.location.pathname + '/tree?ref=' + encodeURIComponent('${ref}') +
+							'&path=' + encodeURIComponent(path) + '&cursor=' + cursor,
+						dataType : 'json',
+						success: function(page, textStatus, jqXHR) {
+							for(itemIdx in page.items) {
+								var item = page.items[itemIdx];
+								if(item.type == 'dir') {
+									var children = $('<div style="margin-left: 1em"></div>');
+									var expand = $('<a href="#"></a>').text(
+										item.path + ' (' + item.fileCount + ' files, ' + item.totalBytes + ' bytes)');
+									expand.click(GitHubDeploy.expandTree(item.path, children));
+									target.append($('<div></div>').append(expand));
+									target.append(children);
+								} else if(page.converted) {
+									// Since SFDX repos go through conversion there is no mapping back to original repo file
+									target.append($('<div></div>').text(item.path));
+								} else {
+									target.append($('<div></div>').append(
+										$('<a target="_new"></a>').attr('href', '${repo.getHtmlUrl()}/blob/${ref}/' + item.path).text(item.path)));
+								}
+							}
+							if(page.nextCursor != null) {
+								var more = $('<a href="#">More...</a>');
+								more.click(function() {
+									more.parent().remove();
+									GitHubDeploy.renderTree(path, page.nextCursor, target);
+									return false;
+								});
+								target.append($('<div></div>').append(more));
+							}
+						},
+						error: function(jqXHR, textStatus, errorThrown) {
+							target.append('<div>Error: ' + textStatus + ' ' + errorThrown + '</div>');
+						}
+					});
+				},
+
+			// Click handler to load a directory on first expand, toggle it thereafter
+			expandTree: function(path, children) {
+					return function() {
+						if(children.data('loaded')) {
+							children.toggle();
+						} else {
+							children.data('loaded', true);
+							GitHubDeploy.renderTree(path, 0, children);
+						}
+						return false;
+					};
 				}
 		}
 
-		// Render files selected to deploy
-		GitHubDeploy.render(GitHubDeploy.contents);
+		// Load and render files selected to deploy
+		if(GitHubDeploy.lazyTree) {
+			// Deploy sends the ref only, the server deploys the contents it scanned
+			GitHubDeploy.contents = { ref: '${ref}' };
+			GitHubDeploy.renderTree('', 0, $('#githubcontents'));
+			$('#deploy').attr('disabled', null);
+			$('#deployfanout').attr('disabled', null);
+		} else {
+			$.ajax({
+				type: 'GET',
+				url: window.location.pathname + '/contents?ref=' + encodeURIComponent('${ref}'),
+				dataType : 'json',
+				success: function(data, textStatus, jqXHR) {
+					GitHubDeploy.contents = data;
+					GitHubDeploy.render(GitHubDeploy.contents);
+					$('#deploy').attr('disabled', null);
+					$('#deployfanout').attr('disabled', null);
+				},
+				error: function(jqXHR, textStatus, errorThrown) {
+					$('#githubcontents').append('<div>Error: ' + textStatus + ' ' + errorThrown + '</div>');
+				}
+			});
+		}
 
 	</script>
 </c:if>
@@ -17,9 +17,20 @@ function loginToSalesforce() {
             'https://githubsfdeploy-sandbox.herokuapp.com/app/githubdeploy';
     sfdeployurl+= '/' + $('#owner').val() + '/' + $('#repo').val() + (ref != '' ? '?ref=' + ref : '');
     window.location = sfdeployurl;
+    // Salesforce DX repositories may wait for a conversion slot while the next page loads
+    setInterval(checkconversion, 2000);
     return false;
 }
 
+function checkconversion() {
+    $.getJSON('/app/githubdeploy/conversion', function(conversion) {
+        if(conversion.position > 0)
+            $('#conversionstatus').text('Waiting to convert the Salesforce DX project, position ' + conversion.position + ' in the queue').show();
+        else
+            $('#conversionstatus').hide();
+    });
+}
+
 function githubdeploy() {
     return loginToSalesforce();
 }
@@ -111,6 +122,7 @@ function load()
 	    </div>				
 	</div>
 </div>
+<div id="conversionstatus" class="slds-text-body--small slds-p-around--x-small" style="display:none"></div>
 &nbsp;
 <div class="slds-form--horizontal">
 <div class="slds-form-element">
@@ -0,0 +1,129 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.DeployResult;
+import com.sforce.ws.ConnectionException;
+
+class DeployResultCacheTest
+{
+	private static final int CALLERS = 8;
+
+	private final DeployResultCache cache = new DeployResultCache();
+	private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+	private final AtomicInteger calls = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@BeforeEach
+	void setup()
+	{
+		ReflectionTestUtils.setField(cache, "deployProperties", new DeployProperties());
+	}
+
+	@AfterEach
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallersShareOneCall() throws Exception
+	{
+		DeployResult running = new DeployResult();
+		running.setId("0Af1");
+		List<Future<DeployResult>> results = callConcurrently((asyncId, includeDetails) -> {
+			calls.incrementAndGet();
+			await();
+			return running;
+		});
+
+		for(Future<DeployResult> result : results)
+			assertThat(result.get(10, TimeUnit.SECONDS)).isSameAs(running);
+		assertThat(calls).hasValue(1);
+		assertThat(cache.getUpstreamCalls()).isEqualTo(1);
+		assertThat(cache.getCoalesced()).isEqualTo(CALLERS - 1);
+
+		// Reused while fresh
+		assertThat(cache.getStatus("00D1|005A", "0Af1", (asyncId, includeDetails) -> { throw new AssertionError(); })).isSameAs(running);
+		assertThat(cache.getHits()).isEqualTo(1);
+	}
+
+	@Test
+	void failureReachesEveryCallerAndIsNotCached() throws Exception
+	{
+		ConnectionException failure = new ConnectionException("INVALID_SESSION_ID");
+		List<Future<DeployResult>> results = callConcurrently((asyncId, includeDetails) -> {
+			calls.incrementAndGet();
+			await();
+			throw failure;
+		});
+
+		for(Future<DeployResult> result : results) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				throw new AssertionError("Expected the call to fail");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause()).isSameAs(failure);
+			}
+		}
+		assertThat(calls).hasValue(1);
+		assertThat(cache.getSize()).isZero();
+
+		DeployResult done = new DeployResult();
+		done.setDone(true);
+		assertThat(cache.getStatus("00D1|005A", "0Af1", (asyncId, includeDetails) -> {
+			calls.incrementAndGet();
+			return done;
+		})).isSameAs(done);
+		assertThat(calls).hasValue(2);
+	}
+
+	@Test
+	void scopesDoNotShareResults() throws Exception
+	{
+		DeployResult first = cache.getStatus("00D1|005A", "0Af1", (asyncId, includeDetails) -> new DeployResult());
+		DeployResult second = cache.getStatus("00D1|005B", "0Af1", (asyncId, includeDetails) -> new DeployResult());
+		assertThat(second).isNotSameAs(first);
+		assertThat(cache.getUpstreamCalls()).isEqualTo(2);
+	}
+
+	/**
+	 * Starts the callers and releases the loader once all but the first are waiting on its call
+	 */
+	private List<Future<DeployResult>> callConcurrently(DeployResultCache.StatusLoader loader) throws InterruptedException
+	{
+		List<Future<DeployResult>> results = new ArrayList<>();
+		for(int i = 0; i < CALLERS; i++)
+			results.add(executor.submit(() -> cache.getStatus("00D1|005A", "0Af1", loader)));
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(cache.getCoalesced() < CALLERS - 1 && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		release.countDown();
+		return results;
+	}
+
+	private void await()
+	{
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+
+class DeploySpoolTest
+{
+	private static final long LARGE_ZIP_BYTES = 500L * 1024 * 1024;
+
+	/**
+	 * Heap the large deploy runs in, far less than the zip (or its base64 encoding)
+	 */
+	private static final int LARGE_DEPLOY_HEAP_MB = 64;
+
+	@Test
+	void keepsSmallZipsInMemory() throws IOException
+	{
+		DeploySpool spool = new DeploySpool(1024);
+		spool.write("small zip".getBytes(StandardCharsets.UTF_8));
+		spool.close();
+		assertThat(spool.isOnDisk()).isFalse();
+		assertThat(spool.size()).isEqualTo(9);
+		assertThat(spool.toByteArray()).asString(StandardCharsets.UTF_8).isEqualTo("small zip");
+		spool.discard();
+	}
+
+	@Test
+	void spillsToDiskPastTheThreshold() throws IOException
+	{
+		byte[] data = randomBytes(10000, 1);
+		DeploySpool spool = new DeploySpool(4096);
+		for(int offset = 0; offset < data.length; offset += 1000)
+			spool.write(data, offset, 1000);
+		spool.close();
+		assertThat(spool.isOnDisk()).isTrue();
+		assertThat(spool.size()).isEqualTo(data.length);
+		// Can be read as often as needed
+		for(int i = 0; i < 2; i++) {
+			try (InputStream in = spool.openStream()) {
+				assertThat(in.readAllBytes()).isEqualTo(data);
+			}
+		}
+		Path file = spoolFile(spool);
+		assertThat(file).exists();
+		spool.discard();
+		assertThat(file).doesNotExist();
+	}
+
+	@Test
+	void sharedSpoolIsReleasedByTheLastHolder() throws IOException
+	{
+		DeploySpool spool = new DeploySpool(16);
+		spool.write(randomBytes(100, 2));
+		spool.close();
+		Path file = spoolFile(spool);
+		spool.share(2);
+		spool.discard();
+		spool.discard();
+		assertThat(file).exists();
+		try (InputStream in = spool.openStream()) {
+			assertThat(in.readAllBytes()).hasSize(100);
+		}
+		spool.discard();
+		assertThat(file).doesNotExist();
+	}
+
+	@Test
+	void leavesExistingFilesInPlace(@TempDir Path directory) throws IOException
+	{
+		Path zip = Files.write(directory.resolve("deploy.zip"), randomBytes(100, 3));
+		DeploySpool spool = DeploySpool.ofFile(zip);
+		assertThat(spool.size()).isEqualTo(100);
+		assertThat(spool.isOnDisk()).isTrue();
+		spool.discard();
+		assertThat(zip).exists();
+	}
+
+	@Test
+	void mustBeClosedBeforeReading() throws IOException
+	{
+		DeploySpool spool = new DeploySpool(16);
+		spool.write(1);
+		assertThatThrownBy(spool::openStream).isInstanceOf(IOException.class);
+		spool.close();
+		assertThatThrownBy(() -> spool.write(2)).isInstanceOf(IOException.class);
+		spool.discard();
+	}
+
+	/**
+	 * Assembles and deploys a 500MB zip (to a stub endpoint) in a JVM whose heap is a fraction of that, which
+	 *   fails with an OutOfMemoryError if anything holds the zip (or its encoding) in memory
+	 */
+	@Test
+	void deploysLargeZipWithinBoundedHeap() throws Exception
+	{
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+		Process process = new ProcessBuilder(java, "-Xmx" + LARGE_DEPLOY_HEAP_MB + "m",
+				"-cp", classPath, LargeDeploy.class.getName(), String.valueOf(LARGE_ZIP_BYTES))
+			.redirectErrorStream(true)
+			.start();
+		String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		assertThat(process.waitFor(5, TimeUnit.MINUTES)).isTrue();
+		assertThat(process.exitValue()).as(output).isZero();
+		String result = output.lines().filter(line -> line.startsWith(LargeDeploy.RESULT)).findFirst().orElse(null);
+		assertThat(result).as(output).isNotNull();
+		String[] values = result.substring(LargeDeploy.RESULT.length()).split(" ");
+		long zipBytes = Long.parseLong(values[0]);
+		assertThat(zipBytes).isGreaterThanOrEqualTo(LARGE_ZIP_BYTES);
+		assertThat(Boolean.parseBoolean(values[1])).as("spilled to disk").isTrue();
+		// The envelope carries the whole zip base64 encoded
+		assertThat(Long.parseLong(values[2])).isGreaterThan(zipBytes / 3 * 4);
+		assertThat(values[3]).isEqualTo(StubSalesforceServer.DEPLOY_ID);
+	}
+
+	/**
+	 * Writes a zip of the given size to a spool and deploys it through the streaming SOAP transport,
+	 *   printing the zip size, whether it spilled to disk, request size, deploy id and peak heap used
+	 */
+	static class LargeDeploy
+	{
+		static final String RESULT = "LARGE-DEPLOY ";
+
+		public static void main(String[] args) throws Exception
+		{
+			long zipBytes = Long.parseLong(args[0]);
+			DeployProperties deployProperties = new DeployProperties();
+			deployProperties.setGzipRequests(false);
+			StreamingSoapDeployTransport transport = new StreamingSoapDeployTransport();
+			ReflectionTestUtils.setField(transport, "deployProperties", deployProperties);
+			try (StubSalesforceServer stub = StubSalesforceServer.start(0)) {
+				DeploySpool spool = new DeploySpool(deployProperties.getSpoolMemoryThreshold());
+				try {
+					writeZip(spool, zipBytes);
+					AsyncResult asyncResult = transport.deploy(stub.getSoapEndpoint(), "session", spool, new DeployOptions());
+					System.out.println(RESULT + spool.size() + " " + spool.isOnDisk() + " " + stub.getRequestBytes() + " " +
+						asyncResult.getId() + " " + peakHeapUsed());
+				} finally {
+					spool.discard();
+				}
+			}
+		}
+
+		/**
+		 * Static resources of incompressible content, stored so writing the zip is quick
+		 */
+		private static void writeZip(DeploySpool spool, long zipBytes) throws IOException
+		{
+			byte[] resource = randomBytes(1024 * 1024, 4);
+			try (ZipOutputStream zipOut = new ZipOutputStream(spool)) {
+				zipOut.setLevel(Deflater.NO_COMPRESSION);
+				for(int i = 0; (long) i * resource.length < zipBytes; i++) {
+					resource[0] = (byte) i;
+					zipOut.putNextEntry(new ZipEntry("staticresources/Resource" + i + ".resource"));
+					zipOut.write(resource);
+					zipOut.closeEntry();
+				}
+			}
+		}
+
+		private static long peakHeapUsed()
+		{
+			long peak = 0;
+			for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if(pool.getType() == MemoryType.HEAP)
+					peak += pool.getPeakUsage().getUsed();
+			}
+			return peak;
+		}
+	}
+
+	private static byte[] randomBytes(int length, long seed)
+	{
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static Path spoolFile(DeploySpool spool)
+	{
+		return (Path) ReflectionTestUtils.getField(spool, "file");
+	}
+}
@@ -0,0 +1,90 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * Time until a deploy is accepted (the deploy id is returned) over the REST and SOAP transports, against a stand-in
+ *   endpoint on the loopback interface, the bytes each sends are printed at the end of each trial
+ *
+ * The zip is random bytes, as incompressible as the deflated entries of a real deploy zip
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DeployTransportBenchmark
+{
+	public enum Transport { SOAP, SOAP_GZIP, REST }
+
+	@Param({ "1", "10", "50", "200" })
+	public int zipMegabytes;
+
+	@Param({ "SOAP", "SOAP_GZIP", "REST" })
+	public Transport transport;
+
+	private final DeployProperties deployProperties = new DeployProperties();
+	private final StreamingSoapDeployTransport soapTransport = new StreamingSoapDeployTransport();
+	private final RestDeployTransport restTransport = new RestDeployTransport();
+	private StubSalesforceServer stub;
+	private DeploySpool spool;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		deployProperties.setGzipRequests(transport == Transport.SOAP_GZIP);
+		ReflectionTestUtils.setField(soapTransport, "deployProperties", deployProperties);
+		ReflectionTestUtils.setField(restTransport, "deployProperties", deployProperties);
+		stub = StubSalesforceServer.start(0);
+		if(transport == Transport.REST)
+			stub.respond(201, "application/json", RestDeployTransportTest.REST_DEPLOY_RESPONSE);
+		byte[] megabyte = new byte[1024 * 1024];
+		Random random = new Random(42);
+		spool = new DeploySpool(deployProperties.getSpoolMemoryThreshold());
+		for(int i = 0; i < zipMegabytes; i++) {
+			random.nextBytes(megabyte);
+			spool.write(megabyte);
+		}
+		spool.close();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.out.println();
+		System.out.println("DEPLOY-TRANSPORT " + transport + " zip=" + spool.size() + " wire=" + stub.getWireBytes() +
+			String.format(" (%.2fx)", (double) stub.getWireBytes() / spool.size()));
+		spool.discard();
+		stub.close();
+	}
+
+	@Benchmark
+	public AsyncResult deploy() throws IOException, ConnectionException
+	{
+		if(transport == Transport.REST)
+			return restTransport.deploy(stub.getInstanceUrl(), "61.0", "session", spool, new DeployOptions());
+		return soapTransport.deploy(stub.getSoapEndpoint(), "session", spool, new DeployOptions());
+	}
+}
@@ -0,0 +1,114 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+
+/**
+ * Writing a deploy zip with DeployZipWriter over a number of compression threads, against the single threaded
+ *   ZipOutputStream it replaced (the threads parameter does not apply to it)
+ *
+ * The deploy is the metadata files of a synthetic repository, text with some repetition and static resources and
+ *   documents holding already compressed content, entries are read from streams as they are from the repository archive
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeployZipWriterBenchmark
+{
+	private static final byte[] PNG_HEADER = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "2000" })
+	public int files;
+
+	private final DeployProperties deployProperties = new DeployProperties();
+	private final List<String> names = new ArrayList<>();
+	private final List<byte[]> contents = new ArrayList<>();
+	private ExecutorService executor;
+
+	@Setup
+	public void setup()
+	{
+		executor = Executors.newFixedThreadPool(threads);
+		Random random = new Random(42);
+		long bytes = 0;
+		for(String path : new LinkedHashSet<>(SyntheticRepository.paths(files, 42))) {
+			byte[] content;
+			if(path.endsWith(".resource") || path.endsWith(".png")) {
+				content = new byte[20 * 1024 + random.nextInt(200 * 1024)];
+				random.nextBytes(content);
+				System.arraycopy(PNG_HEADER, 0, content, 0, PNG_HEADER.length);
+			} else {
+				StringBuilder text = new StringBuilder();
+				for(int lines = 20 + random.nextInt(500); lines > 0; lines--)
+					text.append("    <field name=\"Field").append(random.nextInt(100)).append("__c\" value=\"").append(random.nextInt()).append("\"/>\n");
+				content = text.toString().getBytes(StandardCharsets.UTF_8);
+			}
+			names.add(path);
+			contents.add(content);
+			bytes += content.length;
+		}
+		System.out.println();
+		System.out.println("DEPLOY-ZIP " + names.size() + " entries, " + bytes + " bytes");
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public void deployZipWriter() throws IOException
+	{
+		try (DeployZipWriter writer = new DeployZipWriter(OutputStream.nullOutputStream(), executor,
+				deployProperties.getCompressionBufferBytes(), deployProperties.getCompressionMaxEntryBytes())) {
+			for(int i = 0; i < names.size(); i++)
+				writer.addEntry(names.get(i), new ByteArrayInputStream(contents.get(i)));
+			writer.finish();
+		}
+	}
+
+	@Benchmark
+	public void zipOutputStream() throws IOException
+	{
+		try (ZipOutputStream zipOut = new ZipOutputStream(OutputStream.nullOutputStream())) {
+			for(int i = 0; i < names.size(); i++) {
+				zipOut.putNextEntry(new ZipEntry(names.get(i)));
+				new ByteArrayInputStream(contents.get(i)).transferTo(zipOut);
+				zipOut.closeEntry();
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeployZipWriterTest
+{
+	private static final byte[] PNG_HEADER = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@TempDir
+	Path directory;
+
+	@AfterEach
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	void deflatesTextAndStoresCompressedContent() throws IOException
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		entries.put("package.xml", "<Package/>".getBytes(StandardCharsets.UTF_8));
+		entries.put("classes/Invoice.cls", "public class Invoice { }\n".repeat(200).getBytes(StandardCharsets.UTF_8));
+		entries.put("staticresources/logo.resource", png(20000));
+		entries.put("staticresources/noise.resource", randomBytes(20000, 1));
+		entries.put("documents/Empty.txt", new byte[0]);
+
+		Path zip = write(1024 * 1024, 1024 * 1024, writer -> {
+			for(Map.Entry<String, byte[]> entry : entries.entrySet())
+				writer.addEntry(entry.getKey(), entry.getValue());
+		});
+
+		assertEntries(zip, entries);
+		try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+			assertThat(zipFile.getEntry("classes/Invoice.cls").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+			assertThat(zipFile.getEntry("classes/Invoice.cls").getCompressedSize()).isLessThan(1000);
+			assertThat(zipFile.getEntry("staticresources/logo.resource").getMethod()).isEqualTo(ZipEntry.STORED);
+			// Deflating did not make it smaller
+			assertThat(zipFile.getEntry("staticresources/noise.resource").getMethod()).isEqualTo(ZipEntry.STORED);
+		}
+	}
+
+	@Test
+	void keepsTheOrderEntriesWereAdded() throws IOException
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		Random random = new Random(2);
+		for(int i = 0; i < 500; i++) {
+			// Sizes vary so entries finish compressing out of order
+			byte[] data = ("<CustomField>" + i + "</CustomField>\n").repeat(1 + random.nextInt(2000)).getBytes(StandardCharsets.UTF_8);
+			entries.put("objects/Object" + i + ".object", data);
+		}
+
+		Path zip = write(256 * 1024, 1024 * 1024, writer -> {
+			for(Map.Entry<String, byte[]> entry : entries.entrySet())
+				writer.addEntry(entry.getKey(), new ByteArrayInputStream(entry.getValue()));
+		});
+
+		assertEntries(zip, entries);
+	}
+
+	@Test
+	void deflatesLargeEntriesInlineWithADataDescriptor() throws IOException
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		entries.put("package.xml", "<Package/>".getBytes(StandardCharsets.UTF_8));
+		entries.put("staticresources/data.resource", "{\"name\":\"value\"},".repeat(20000).getBytes(StandardCharsets.UTF_8));
+		entries.put("staticresources/images.resource", png(300 * 1024));
+		entries.put("classes/Invoice.cls", "public class Invoice { }".getBytes(StandardCharsets.UTF_8));
+
+		Path zip = write(1024 * 1024, 64 * 1024, writer -> {
+			for(Map.Entry<String, byte[]> entry : entries.entrySet())
+				assertThat(writer.addEntry(entry.getKey(), new ByteArrayInputStream(entry.getValue()))).isEqualTo(entry.getValue().length);
+		});
+
+		assertEntries(zip, entries);
+		try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+			ZipEntry data = zipFile.getEntry("staticresources/data.resource");
+			assertThat(data.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+			assertThat(data.getCompressedSize()).isLessThan(data.getSize() / 10);
+			// Already compressed, wrapped in uncompressed deflate blocks
+			ZipEntry images = zipFile.getEntry("staticresources/images.resource");
+			assertThat(images.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+			assertThat(images.getCompressedSize()).isBetween(images.getSize(), images.getSize() + 1024);
+		}
+	}
+
+	@Test
+	void rejectsDuplicateEntries() throws IOException
+	{
+		try (DeployZipWriter writer = new DeployZipWriter(new ByteArrayOutputStream(), executor, 1024, 1024)) {
+			writer.addEntry("package.xml", new byte[1]);
+			assertThatThrownBy(() -> writer.addEntry("package.xml", new byte[1]))
+				.isInstanceOf(ZipException.class)
+				.hasMessageContaining("duplicate entry");
+		}
+	}
+
+	@Test
+	void failsPastTheEntryLimit() throws IOException
+	{
+		try (DeployZipWriter writer = new DeployZipWriter(OutputStream.nullOutputStream(), executor, 1024 * 1024, 1024)) {
+			for(int i = 0; i < 65535; i++)
+				writer.addEntry("labels/Label" + i + ".labels", new byte[0]);
+			assertThatThrownBy(() -> writer.addEntry("labels/Label65535.labels", new byte[0]))
+				.isInstanceOf(ZipException.class)
+				.hasMessageContaining("Too many entries");
+		}
+	}
+
+	@Test
+	void failsOnceTheZipReaches4GB() throws IOException
+	{
+		// Content that looks compressed is copied into uncompressed deflate blocks, so this writes over 4GB
+		InputStream content = new InputStream() {
+			private long remaining = 0x100000000L;
+
+			@Override
+			public int read()
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len)
+			{
+				if(remaining == 0)
+					return -1;
+				int read = (int) Math.min(len, remaining);
+				Arrays.fill(b, off, off + read, (byte) 0);
+				if(remaining == 0x100000000L)
+					System.arraycopy(PNG_HEADER, 0, b, off, PNG_HEADER.length);
+				remaining -= read;
+				return read;
+			}
+		};
+		try (DeployZipWriter writer = new DeployZipWriter(OutputStream.nullOutputStream(), executor, 1024 * 1024, 1024)) {
+			assertThatThrownBy(() -> writer.addEntry("staticresources/huge.resource", content))
+				.isInstanceOf(ZipException.class)
+				.hasMessageContaining("Zip too large");
+			assertThatThrownBy(writer::finish).isInstanceOf(IOException.class);
+		}
+	}
+
+	@Test
+	void abandonsTheZipWhenNotFinished() throws IOException
+	{
+		Path zip = directory.resolve("deploy.zip");
+		try (DeployZipWriter writer = new DeployZipWriter(Files.newOutputStream(zip), executor, 1024 * 1024, 1024 * 1024)) {
+			writer.addEntry("package.xml", "<Package/>".getBytes(StandardCharsets.UTF_8));
+		}
+		assertNoCentralDirectory(zip);
+	}
+
+	@Test
+	void abandonsTheZipAfterAFailedEntry() throws IOException
+	{
+		InputStream failing = new InputStream() {
+			private int remaining = 100 * 1024;
+
+			@Override
+			public int read() throws IOException
+			{
+				if(remaining-- <= 0)
+					throw new IOException("Archive download failed");
+				return 'x';
+			}
+		};
+		Path zip = directory.resolve("deploy.zip");
+		try (DeployZipWriter writer = new DeployZipWriter(Files.newOutputStream(zip), executor, 1024 * 1024, 16 * 1024)) {
+			writer.addEntry("package.xml", "<Package/>".getBytes(StandardCharsets.UTF_8));
+			assertThatThrownBy(() -> writer.addEntry("staticresources/data.resource", failing))
+				.hasMessage("Archive download failed");
+			assertThatThrownBy(() -> writer.addEntry("classes/Invoice.cls", new byte[1]))
+				.isInstanceOf(IOException.class);
+			assertThatThrownBy(writer::finish)
+				.isInstanceOf(IOException.class)
+				.hasMessageContaining("failed");
+		}
+		assertNoCentralDirectory(zip);
+	}
+
+	@FunctionalInterface
+	private interface Entries
+	{
+		void add(DeployZipWriter writer) throws IOException;
+	}
+
+	private Path write(long maxBufferedBytes, int maxParallelEntryBytes, Entries entries) throws IOException
+	{
+		Path zip = directory.resolve("deploy.zip");
+		try (DeployZipWriter writer = new DeployZipWriter(Files.newOutputStream(zip), executor, maxBufferedBytes, maxParallelEntryBytes)) {
+			entries.add(writer);
+			writer.finish();
+		}
+		return zip;
+	}
+
+	/**
+	 * Reads the zip back through its central directory (ZipFile) and its local headers (ZipInputStream)
+	 */
+	private static void assertEntries(Path zip, Map<String, byte[]> entries) throws IOException
+	{
+		try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+			assertThat(Collections.list(zipFile.entries()).stream().map(ZipEntry::getName)).containsExactlyElementsOf(entries.keySet());
+			for(Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+				assertThat(zipEntry.getSize()).as(entry.getKey()).isEqualTo(entry.getValue().length);
+				try (InputStream in = zipFile.getInputStream(zipEntry)) {
+					assertThat(in.readAllBytes()).as(entry.getKey()).isEqualTo(entry.getValue());
+				}
+			}
+		}
+		List<String> names = new ArrayList<>();
+		try (ZipInputStream zipIn = new ZipInputStream(Files.newInputStream(zip))) {
+			ZipEntry zipEntry;
+			while((zipEntry = zipIn.getNextEntry()) != null) {
+				names.add(zipEntry.getName());
+				assertThat(zipIn.readAllBytes()).as(zipEntry.getName()).isEqualTo(entries.get(zipEntry.getName()));
+			}
+		}
+		assertThat(names).containsExactlyElementsOf(entries.keySet());
+	}
+
+	private static void assertNoCentralDirectory(Path zip) throws IOException
+	{
+		assertThatThrownBy(() -> new ZipFile(zip.toFile()).close()).isInstanceOf(ZipException.class);
+		// At most the entries written so far, no central directory or end record
+		assertThat(new String(Files.readAllBytes(zip), StandardCharsets.ISO_8859_1)).doesNotContain("PK\u0001\u0002", "PK\u0005\u0006");
+	}
+
+	private static byte[] png(int length)
+	{
+		byte[] data = randomBytes(length, length);
+		System.arraycopy(PNG_HEADER, 0, data, 0, PNG_HEADER.length);
+		return data;
+	}
+
+	private static byte[] randomBytes(int length, long seed)
+	{
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+}
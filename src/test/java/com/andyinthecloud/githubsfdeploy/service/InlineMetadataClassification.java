@@ -0,0 +1,74 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import com.andyinthecloud.githubsfdeploy.service.MetadataDescribeIndex.MetadataType;
+
+/**
+ * The classification RepositoryScanner did inline before MetadataClassifier, kept as the reference
+ *   the classifier is tested and benchmarked against
+ */
+final class InlineMetadataClassification
+{
+	final MetadataType metadataType;
+	final String suffix;
+
+	private InlineMetadataClassification(MetadataType metadataType, String suffix)
+	{
+		this.metadataType = metadataType;
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @param describeIndex
+	 * @param path repository path of the file
+	 * @return null if the file is not Salesforce metadata
+	 */
+	static InlineMetadataClassification classify(MetadataDescribeIndex describeIndex, String path)
+	{
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		// Could this be a Salesforce file?
+		int extensionPosition = name.lastIndexOf(".");
+		if(extensionPosition == -1) // File extension?
+			return null;
+		String fileExtension = name.substring(extensionPosition+1);
+		String fileNameWithoutExtension = name.substring(0, extensionPosition);
+		// Could this be Salesforce metadata file?
+		if(fileExtension.equals("xml"))
+		{
+			// Adjust to look for a Salesforce metadata file extension?
+			extensionPosition = fileNameWithoutExtension.lastIndexOf(".");
+			if(extensionPosition != -1)
+				fileExtension = name.substring(extensionPosition + 1);
+		}
+		// Is this file extension recognised by Salesforce Metadata API?
+		MetadataType metadataObject = describeIndex.getBySuffix(fileExtension);
+		String metadataSuffix = metadataObject!=null ? metadataObject.getSuffix() : null;
+		if(metadataObject==null)
+		{
+			// Is this a file within a sub-directory of a metadata folder?
+			//   e.g. src/documents/Eventbrite/Eventbrite_Sync_Logo.png
+			String[] folders = path.split("/");
+			if(folders.length>3)
+			{
+				// Metadata describe for containing folder?
+				metadataObject = describeIndex.getByFolder(folders[folders.length-3]);
+				if(metadataObject==null)
+					return null;
+			}
+			// Is this a metadata file for a sub-folder within the root of a metadata folder?
+			//   (such as the XML metadata file for a folder in documents)
+			//   e.g.  src/documents/Eventbrite
+			//         src/documents/Eventbrite-meta.xml <<<<
+			else if(folders.length>2)
+			{
+				// Metadata describe for metadata folder?
+				metadataObject = describeIndex.getByFolder(folders[folders.length-2]);
+				if(metadataObject==null)
+					return null;
+				metadataSuffix = "dir";
+			}
+			else
+				return null;
+		}
+		return new InlineMetadataClassification(metadataObject, metadataSuffix);
+	}
+}
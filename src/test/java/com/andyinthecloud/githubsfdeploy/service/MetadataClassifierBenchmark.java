@@ -0,0 +1,58 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classifying every file of a repository, MetadataClassifier against the inline logic it replaced
+ *   (run with -prof gc to compare allocation)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataClassifierBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	public int paths;
+
+	private MetadataDescribeIndex describeIndex;
+	private MetadataClassifier classifier;
+	private String[] repositoryPaths;
+
+	@Setup
+	public void setup()
+	{
+		describeIndex = MetadataDescribeIndex.build(MetadataDescribes.sample());
+		classifier = describeIndex.getClassifier();
+		repositoryPaths = SyntheticRepository.paths(paths, 42).toArray(new String[0]);
+	}
+
+	@Benchmark
+	public void classifier(Blackhole blackhole)
+	{
+		for(String path : repositoryPaths)
+			blackhole.consume(classifier.classify(path));
+	}
+
+	@Benchmark
+	public void inline(Blackhole blackhole)
+	{
+		for(String path : repositoryPaths)
+			blackhole.consume(InlineMetadataClassification.classify(describeIndex, path));
+	}
+}
@@ -0,0 +1,80 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import com.andyinthecloud.githubsfdeploy.service.MetadataClassifier.Classification;
+
+class MetadataClassifierTest
+{
+	private final MetadataDescribeIndex describeIndex = MetadataDescribeIndex.build(MetadataDescribes.sample());
+	private final MetadataClassifier classifier = describeIndex.getClassifier();
+
+	@ParameterizedTest
+	@CsvSource({
+		"src/classes/Foo.cls, ApexClass, cls",
+		"src/classes/Foo.cls-meta.xml, ApexClass, cls",
+		"Foo.cls, ApexClass, cls",
+		"src/objects/Invoice__c.object, CustomObject, object",
+		"src/staticresources/jquery.min.resource, StaticResource, resource",
+		"src/documents/Eventbrite/Eventbrite_Sync_Logo.png, Document, ",
+		"src/documents/Eventbrite/Eventbrite_Sync_Logo.png-meta.xml, Document, ",
+		"src/documents/Eventbrite-meta.xml, Document, dir",
+		"documents/Eventbrite/Logo.png, , ",
+		"src/lwc/invoiceList/invoiceList.js, LightningComponentBundle, ",
+		"src/lwc/invoiceList/invoiceList.js-meta.xml, LightningComponentBundle, ",
+		"src/email/Welcome/Welcome.email, EmailTemplate, email",
+		"src/email/Welcome-meta.xml, , ",
+		"src/package.xml, , ",
+		"README.txt, , ",
+		"LICENSE, , ",
+		"src/classes/Foo, , ",
+		"src/classes.old/Foo, , ",
+		"src/classes/.cls, ApexClass, cls",
+		"src/classes/Foo.CLS, , ",
+		"node_modules/lib/index.js, , ",
+	})
+	void classifiesAsTheScanDidInline(String path, String xmlName, String suffix)
+	{
+		Classification classification = classifier.classify(path);
+		InlineMetadataClassification expected = InlineMetadataClassification.classify(describeIndex, path);
+		if(xmlName == null) {
+			assertThat(classification).isNull();
+			assertThat(expected).isNull();
+			return;
+		}
+		assertThat(classification.getMetadataType().getXmlName()).isEqualTo(xmlName);
+		assertThat(classification.getSuffix()).isEqualTo(suffix);
+		assertThat(classification.getMetadataType()).isSameAs(expected.metadataType);
+		assertThat(classification.getSuffix()).isEqualTo(expected.suffix);
+	}
+
+	@Test
+	void agreesWithInlineClassificationAcrossARepository()
+	{
+		int classified = 0;
+		for(String path : SyntheticRepository.paths(20000, 7))
+		{
+			Classification classification = classifier.classify(path);
+			InlineMetadataClassification expected = InlineMetadataClassification.classify(describeIndex, path);
+			if(expected == null) {
+				assertThat(classification).as(path).isNull();
+				continue;
+			}
+			assertThat(classification).as(path).isNotNull();
+			assertThat(classification.getMetadataType()).as(path).isSameAs(expected.metadataType);
+			assertThat(classification.getSuffix()).as(path).isEqualTo(expected.suffix);
+			classified++;
+		}
+		assertThat(classified).isGreaterThan(10000);
+	}
+
+	@Test
+	void returnsSharedClassifications()
+	{
+		assertThat(classifier.classify("src/classes/A.cls")).isSameAs(classifier.classify("force-app/main/default/classes/B.cls"));
+	}
+}
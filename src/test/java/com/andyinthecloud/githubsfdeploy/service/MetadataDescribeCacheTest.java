@@ -0,0 +1,70 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+import com.sforce.soap.metadata.DeployDetails;
+import com.sforce.soap.metadata.DeployMessage;
+import com.sforce.soap.metadata.DeployResult;
+
+class MetadataDescribeCacheTest
+{
+	private final MetadataDescribeCache cache = new MetadataDescribeCache();
+	private final AtomicInteger describes = new AtomicInteger();
+
+	@BeforeEach
+	void setup()
+	{
+		ReflectionTestUtils.setField(cache, "salesforceProperties", new SalesforceProperties());
+	}
+
+	@Test
+	void describesAgainAfterADeployNamesAnUnknownType() throws Exception
+	{
+		describe("00D1");
+		describe("00D2");
+		assertThat(cache.invalidateIfStale("00D1", failed("Unknown type name 'ExperienceBundle' specified in package.xml"))).isTrue();
+		describe("00D1");
+		describe("00D2");
+		assertThat(describes).hasValue(3);
+		assertThat(cache.getInvalidations()).isEqualTo(1);
+	}
+
+	@Test
+	void keepsDescribesAfterOtherFailures() throws Exception
+	{
+		describe("00D1");
+		assertThat(cache.invalidateIfStale("00D1", failed("Variable does not exist: amount"))).isFalse();
+		DeployResult failedOverall = new DeployResult();
+		failedOverall.setErrorMessage("Unknown type name 'Foo' specified in package.xml");
+		assertThat(cache.invalidateIfStale("00D2", failedOverall)).isTrue();
+		describe("00D1");
+		assertThat(describes).hasValue(1);
+	}
+
+	private void describe(String orgId) throws Exception
+	{
+		cache.getIndex(orgId, 61.0, apiVersion -> {
+			describes.incrementAndGet();
+			return MetadataDescribes.sample();
+		});
+	}
+
+	private static DeployResult failed(String problem)
+	{
+		DeployMessage message = new DeployMessage();
+		message.setSuccess(false);
+		message.setProblem(problem);
+		DeployDetails details = new DeployDetails();
+		details.setComponentFailures(new DeployMessage[] { message });
+		DeployResult deployResult = new DeployResult();
+		deployResult.setDetails(details);
+		return deployResult;
+	}
+}
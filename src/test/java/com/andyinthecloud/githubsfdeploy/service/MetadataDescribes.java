@@ -0,0 +1,58 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sforce.soap.metadata.DescribeMetadataObject;
+import com.sforce.soap.metadata.DescribeMetadataResult;
+
+/**
+ * describeMetadata results for tests and benchmarks, a subset of the types a current org returns
+ */
+final class MetadataDescribes
+{
+	private MetadataDescribes()
+	{
+	}
+
+	static DescribeMetadataResult sample()
+	{
+		List<DescribeMetadataObject> metadataObjects = new ArrayList<>();
+		metadataObjects.add(type("ApexClass", "classes", "cls", false, true));
+		metadataObjects.add(type("ApexComponent", "components", "component", false, true));
+		metadataObjects.add(type("ApexPage", "pages", "page", false, true));
+		metadataObjects.add(type("ApexTrigger", "triggers", "trigger", false, true));
+		metadataObjects.add(type("AuraDefinitionBundle", "aura", null, false, false));
+		metadataObjects.add(type("LightningComponentBundle", "lwc", null, false, false));
+		metadataObjects.add(type("ContentAsset", "contentassets", "asset", false, true));
+		metadataObjects.add(type("CustomLabels", "labels", "labels", false, false));
+		metadataObjects.add(type("CustomMetadata", "customMetadata", "md", false, false));
+		metadataObjects.add(type("CustomObject", "objects", "object", false, false));
+		metadataObjects.add(type("CustomTab", "tabs", "tab", false, false));
+		metadataObjects.add(type("Dashboard", "dashboards", "dashboard", true, false));
+		metadataObjects.add(type("Document", "documents", null, true, true));
+		metadataObjects.add(type("EmailTemplate", "email", "email", true, true));
+		metadataObjects.add(type("Flow", "flows", "flow", false, false));
+		metadataObjects.add(type("Layout", "layouts", "layout", false, false));
+		metadataObjects.add(type("PermissionSet", "permissionsets", "permissionset", false, false));
+		metadataObjects.add(type("Profile", "profiles", "profile", false, false));
+		metadataObjects.add(type("Report", "reports", "report", true, false));
+		metadataObjects.add(type("StaticResource", "staticresources", "resource", false, true));
+		metadataObjects.add(type("Translations", "translations", "translation", false, false));
+		metadataObjects.add(type("Workflow", "workflows", "workflow", false, false));
+		DescribeMetadataResult describeResult = new DescribeMetadataResult();
+		describeResult.setMetadataObjects(metadataObjects.toArray(new DescribeMetadataObject[0]));
+		return describeResult;
+	}
+
+	private static DescribeMetadataObject type(String xmlName, String directoryName, String suffix, boolean inFolder, boolean metaFile)
+	{
+		DescribeMetadataObject describeObject = new DescribeMetadataObject();
+		describeObject.setXmlName(xmlName);
+		describeObject.setDirectoryName(directoryName);
+		describeObject.setSuffix(suffix);
+		describeObject.setInFolder(inFolder);
+		describeObject.setMetaFile(metaFile);
+		return describeObject;
+	}
+}
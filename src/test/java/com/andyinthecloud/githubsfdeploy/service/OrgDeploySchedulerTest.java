@@ -0,0 +1,181 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.service.DeployJobEngine.DeployJob;
+import com.andyinthecloud.githubsfdeploy.service.OrgDeployScheduler.QueuedDeploy;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgConnections;
+import com.andyinthecloud.githubsfdeploy.service.SalesforceConnectionBroker.OrgIdentity;
+import com.sforce.soap.metadata.DeployOptions;
+
+class OrgDeploySchedulerTest
+{
+	private static final String USER = "005A";
+
+	private final DeployProperties deployProperties = new DeployProperties();
+	private final DeployZipAssembler deployZipAssembler = new DeployZipAssembler();
+	private final OrgDeployScheduler scheduler = new OrgDeployScheduler();
+	private final List<DeploySpool> spools = new ArrayList<>();
+
+	@BeforeEach
+	void setup()
+	{
+		ReflectionTestUtils.setField(deployZipAssembler, "deployProperties", deployProperties);
+		deployZipAssembler.init();
+		ReflectionTestUtils.setField(scheduler, "deployProperties", deployProperties);
+		ReflectionTestUtils.setField(scheduler, "deployZipAssembler", deployZipAssembler);
+	}
+
+	@AfterEach
+	void cleanup()
+	{
+		spools.forEach(DeploySpool::discard);
+		deployZipAssembler.destroy();
+	}
+
+	@Test
+	void mergesCompatibleDeploysIntoOnePackage() throws Exception
+	{
+		QueuedDeploy head = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), "classes/Invoice.cls"));
+		QueuedDeploy other = queued(USER, options(), zip(packageXml("ApexClass:InvoiceTest", "CustomObject:Invoice__c"),
+			"classes/InvoiceTest.cls", "objects/Invoice__c.object"));
+
+		List<QueuedDeploy> mergeable = OrgDeployScheduler.selectMergeable(head, List.of(other));
+		assertThat(mergeable).containsExactly(other);
+
+		List<QueuedDeploy> batch = new ArrayList<>(List.of(head));
+		batch.addAll(mergeable);
+		DeploySpool merged = scheduler.merge(batch);
+		spools.add(merged);
+		List<String> names = new ArrayList<>();
+		String packageXml = null;
+		try (ZipInputStream zipIS = new ZipInputStream(merged.openStream())) {
+			ZipEntry zipEntry;
+			while ((zipEntry = zipIS.getNextEntry()) != null) {
+				names.add(zipEntry.getName());
+				if(zipEntry.getName().equals("package.xml"))
+					packageXml = new String(zipIS.readAllBytes(), StandardCharsets.UTF_8);
+			}
+		}
+		assertThat(names).containsExactlyInAnyOrder("package.xml", "classes/Invoice.cls", "classes/InvoiceTest.cls", "objects/Invoice__c.object");
+		assertThat(packageXml)
+			.contains("<members>Invoice</members>", "<members>InvoiceTest</members>", "<members>Invoice__c</members>")
+			.contains("<version>61.0</version>");
+	}
+
+	@Test
+	void keepsOverlappingAndWildcardDeploysSeparate() throws Exception
+	{
+		QueuedDeploy head = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), "classes/Invoice.cls"));
+		QueuedDeploy sameMember = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), "classes/Invoice.cls"));
+		QueuedDeploy wildcard = queued(USER, options(), zip(packageXml("ApexClass:*"), "classes/Payment.cls"));
+		QueuedDeploy sameFile = queued(USER, options(), zip(packageXml("ApexPage:Invoice"), "classes/Invoice.cls"));
+
+		assertThat(OrgDeployScheduler.selectMergeable(head, List.of(sameMember, wildcard, sameFile))).isEmpty();
+
+		QueuedDeploy headWildcard = queued(USER, options(), zip(packageXml("ApexClass:*"), "classes/Invoice.cls"));
+		QueuedDeploy named = queued(USER, options(), zip(packageXml("ApexClass:Payment"), "classes/Payment.cls"));
+		assertThat(OrgDeployScheduler.selectMergeable(headWildcard, List.of(named))).isEmpty();
+	}
+
+	@Test
+	void keepsDestructiveChangesOtherOptionsAndUsersSeparate() throws Exception
+	{
+		QueuedDeploy head = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), "classes/Invoice.cls"));
+		QueuedDeploy destructive = queued(USER, options(), zip(packageXml("ApexClass:Payment"), "classes/Payment.cls", "destructiveChanges.xml"));
+		DeployOptions checkOnly = options();
+		checkOnly.setCheckOnly(true);
+		QueuedDeploy validation = queued(USER, checkOnly, zip(packageXml("ApexClass:Receipt"), "classes/Receipt.cls"));
+		DeployOptions runTests = options();
+		runTests.setRunTests(new String[] { "ReceiptTest" });
+		QueuedDeploy specifiedTests = queued(USER, runTests, zip(packageXml("ApexClass:Receipt"), "classes/Receipt.cls"));
+		QueuedDeploy otherUser = queued("005B", options(), zip(packageXml("ApexClass:Refund"), "classes/Refund.cls"));
+
+		assertThat(OrgDeployScheduler.selectMergeable(head, List.of(destructive, validation, specifiedTests, otherUser))).isEmpty();
+
+		QueuedDeploy headDestructive = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), "classes/Invoice.cls", "destructiveChangesPost.xml"));
+		QueuedDeploy plain = queued(USER, options(), zip(packageXml("ApexClass:Payment"), "classes/Payment.cls"));
+		assertThat(OrgDeployScheduler.selectMergeable(headDestructive, List.of(plain))).isEmpty();
+	}
+
+	@Test
+	void keepsMergedZipWithinSizeLimit() throws Exception
+	{
+		int half = (int) (OrgDeployScheduler.MAX_MERGED_BYTES / 2);
+		QueuedDeploy head = queued(USER, options(), zip(packageXml("ApexClass:Invoice"), half, "classes/Invoice.cls"));
+		QueuedDeploy tooLarge = queued(USER, options(), zip(packageXml("ApexClass:Payment"), half, "classes/Payment.cls"));
+		QueuedDeploy small = queued(USER, options(), zip(packageXml("ApexClass:Receipt"), "classes/Receipt.cls"));
+
+		assertThat(head.deployZip.size() + tooLarge.deployZip.size()).isGreaterThan(OrgDeployScheduler.MAX_MERGED_BYTES);
+		assertThat(OrgDeployScheduler.selectMergeable(head, List.of(tooLarge, small))).containsExactly(small);
+	}
+
+	private static DeployOptions options()
+	{
+		DeployOptions deployOptions = new DeployOptions();
+		deployOptions.setSinglePackage(true);
+		deployOptions.setRollbackOnError(true);
+		return deployOptions;
+	}
+
+	private static QueuedDeploy queued(String userId, DeployOptions deployOptions, DeploySpool deployZip)
+	{
+		OrgIdentity identity = new OrgIdentity("00D1|" + userId, "https://example.my.salesforce.com", "00D1", userId, null, null);
+		return new QueuedDeploy(new DeployJob("job", "00D1|" + userId), new OrgConnections(identity, "token"), deployZip, deployOptions, Runnable::run);
+	}
+
+	/**
+	 * package.xml naming the given Type:member pairs
+	 */
+	private static String packageXml(String... members)
+	{
+		StringBuilder packageXml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Package xmlns=\"http://soap.sforce.com/2006/04/metadata\">\n");
+		Arrays.stream(members).map(member -> member.split(":")).forEach(typeMember ->
+			packageXml.append("<types><members>").append(typeMember[1]).append("</members><name>").append(typeMember[0]).append("</name></types>\n"));
+		return packageXml.append("<version>61.0</version>\n</Package>\n").toString();
+	}
+
+	private DeploySpool zip(String packageXml, String... entries) throws IOException
+	{
+		return zip(packageXml, 0, entries);
+	}
+
+	/**
+	 * Deploy zip with the package.xml and entries, the first padded (stored, not deflated) to the given size
+	 */
+	private DeploySpool zip(String packageXml, int padding, String... entries) throws IOException
+	{
+		DeploySpool spool = new DeploySpool(1024 * 1024);
+		spools.add(spool);
+		try (ZipOutputStream zipOS = new ZipOutputStream(spool)) {
+			zipOS.setLevel(0);
+			zipOS.putNextEntry(new ZipEntry("package.xml"));
+			zipOS.write(packageXml.getBytes(StandardCharsets.UTF_8));
+			for(int i = 0; i < entries.length; i++) {
+				zipOS.putNextEntry(new ZipEntry(entries[i]));
+				zipOS.write(("// " + entries[i]).getBytes(StandardCharsets.UTF_8));
+				if(i == 0 && padding > 0) {
+					byte[] chunk = new byte[64 * 1024];
+					for(int written = 0; written < padding; written += chunk.length)
+						zipOS.write(chunk, 0, Math.min(chunk.length, padding - written));
+				}
+			}
+		}
+		return spool;
+	}
+}
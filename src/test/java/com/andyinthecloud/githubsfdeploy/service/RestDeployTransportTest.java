@@ -0,0 +1,205 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sforce.soap.metadata.AsyncRequestState;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.soap.metadata.TestLevel;
+import com.sforce.ws.ConnectionException;
+
+class RestDeployTransportTest
+{
+	static final String REST_DEPLOY_RESPONSE =
+		"{\"validatedDeployRequestId\":null,\"deployResult\":{\"checkOnly\":false,\"done\":false,\"id\":\"" + StubSalesforceServer.DEPLOY_ID + "\"," +
+		"\"status\":\"Pending\",\"numberComponentsDeployed\":0,\"numberComponentsTotal\":0,\"success\":false}," +
+		"\"id\":\"" + StubSalesforceServer.DEPLOY_ID + "\",\"url\":\"/services/data/v61.0/metadata/deployRequest/" + StubSalesforceServer.DEPLOY_ID + "\"}";
+
+	private final DeployProperties deployProperties = new DeployProperties();
+	private final RestDeployTransport transport = new RestDeployTransport();
+	private StubSalesforceServer stub;
+
+	/**
+	 * Part of a multipart/form-data request
+	 */
+	private static class Part
+	{
+		final String headers;
+		final byte[] content;
+
+		Part(String headers, byte[] content)
+		{
+			this.headers = headers;
+			this.content = content;
+		}
+	}
+
+	@BeforeEach
+	void startStub() throws IOException
+	{
+		ReflectionTestUtils.setField(transport, "deployProperties", deployProperties);
+		stub = StubSalesforceServer.start(4 * 1024 * 1024);
+		stub.respond(201, "application/json", REST_DEPLOY_RESPONSE);
+	}
+
+	@AfterEach
+	void stopStub()
+	{
+		stub.close();
+	}
+
+	@Test
+	void sendsDeployOptionsAndZipAsMultipart() throws Exception
+	{
+		byte[] zip = randomBytes(200 * 1024);
+		DeployOptions deployOptions = new DeployOptions();
+		deployOptions.setCheckOnly(true);
+		deployOptions.setRollbackOnError(true);
+		deployOptions.setSinglePackage(true);
+		deployOptions.setTestLevel(TestLevel.RunSpecifiedTests);
+		deployOptions.setRunTests(new String[] { "InvoiceTest" });
+
+		transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(zip), deployOptions);
+
+		assertThat(stub.getRequests()).isEqualTo(1);
+		assertThat(stub.getRequestPath()).isEqualTo("/services/data/v61.0/metadata/deployRequest");
+		assertThat(stub.getRequestHeaders().getFirst("Authorization")).isEqualTo("Bearer SESSION-ID");
+		String contentType = stub.getRequestHeaders().getFirst("Content-Type");
+		assertThat(contentType).startsWith("multipart/form-data; boundary=");
+		List<Part> parts = parts(stub.getRequestBody(), contentType.substring(contentType.indexOf("boundary=") + 9));
+		assertThat(parts).hasSize(2);
+
+		Part json = parts.get(0);
+		assertThat(json.headers).contains("Content-Disposition: form-data; name=\"json\"", "Content-Type: application/json");
+		JsonNode options = new ObjectMapper().readTree(json.content).get("deployOptions");
+		assertThat(options.get("checkOnly").asBoolean()).isTrue();
+		assertThat(options.get("rollbackOnError").asBoolean()).isTrue();
+		assertThat(options.get("singlePackage").asBoolean()).isTrue();
+		assertThat(options.get("purgeOnDelete").asBoolean()).isFalse();
+		assertThat(options.get("testLevel").asText()).isEqualTo("RunSpecifiedTests");
+		assertThat(options.get("runTests").get(0).asText()).isEqualTo("InvoiceTest");
+
+		Part file = parts.get(1);
+		assertThat(file.headers).contains("Content-Disposition: form-data; name=\"file\"; filename=\"deploy.zip\"", "Content-Type: application/zip");
+		// Binary, not base64 encoded
+		assertThat(file.content).isEqualTo(zip);
+	}
+
+	@Test
+	void leavesOutUnsetTestOptions() throws Exception
+	{
+		transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions());
+		String contentType = stub.getRequestHeaders().getFirst("Content-Type");
+		JsonNode options = new ObjectMapper().readTree(
+			parts(stub.getRequestBody(), contentType.substring(contentType.indexOf("boundary=") + 9)).get(0).content).get("deployOptions");
+		assertThat(options.has("testLevel")).isFalse();
+		assertThat(options.has("runTests")).isFalse();
+	}
+
+	@Test
+	void mapsAPendingDeployToAQueuedAsyncResult() throws Exception
+	{
+		AsyncResult asyncResult = transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions());
+		assertThat(asyncResult.getId()).isEqualTo(StubSalesforceServer.DEPLOY_ID);
+		assertThat(asyncResult.isDone()).isFalse();
+		assertThat(asyncResult.getState()).isEqualTo(AsyncRequestState.Queued);
+		assertThat(asyncResult.getMessage()).isNull();
+	}
+
+	@Test
+	void mapsAnInProgressDeploy() throws Exception
+	{
+		stub.respond(201, "application/json", REST_DEPLOY_RESPONSE.replace("\"Pending\"", "\"InProgress\""));
+		AsyncResult asyncResult = transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions());
+		assertThat(asyncResult.getState()).isEqualTo(AsyncRequestState.InProgress);
+	}
+
+	@Test
+	void mapsACompletedDeployAndItsError() throws Exception
+	{
+		stub.respond(201, "application/json", REST_DEPLOY_RESPONSE
+			.replace("\"done\":false", "\"done\":true")
+			.replace("\"status\":\"Pending\"", "\"status\":\"Failed\",\"errorMessage\":\"No package.xml found\""));
+		AsyncResult asyncResult = transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions());
+		assertThat(asyncResult.isDone()).isTrue();
+		assertThat(asyncResult.getState()).isEqualTo(AsyncRequestState.Completed);
+		assertThat(asyncResult.getMessage()).isEqualTo("No package.xml found");
+	}
+
+	@Test
+	void throwsTheErrorMessageOfAFailedRequest()
+	{
+		stub.respond(400, "application/json", "[{\"message\":\"Invalid testLevel\",\"errorCode\":\"INVALID_INPUT\"}]");
+		assertThatThrownBy(() -> transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions()))
+			.isInstanceOf(ConnectionException.class)
+			.hasMessage("Deploy request failed: Invalid testLevel");
+	}
+
+	@Test
+	void throwsTheStatusOfAnExpiredSession()
+	{
+		stub.respond(401, "application/json", "[{\"message\":\"Session expired or invalid\",\"errorCode\":\"INVALID_SESSION_ID\"}]");
+		assertThatThrownBy(() -> transport.deploy(stub.getInstanceUrl(), "61.0", "EXPIRED", spool(randomBytes(100)), new DeployOptions()))
+			.isInstanceOf(ConnectionException.class)
+			.hasMessage("Deploy request failed with status 401");
+	}
+
+	@Test
+	void failsWithoutADeployId()
+	{
+		stub.respond(201, "application/json", "{}");
+		assertThatThrownBy(() -> transport.deploy(stub.getInstanceUrl(), "61.0", "SESSION-ID", spool(randomBytes(100)), new DeployOptions()))
+			.isInstanceOf(ConnectionException.class)
+			.hasMessage("No deploy id in response");
+	}
+
+	/**
+	 * Splits a multipart body into its parts (read as ISO-8859-1 so the binary content is unchanged)
+	 */
+	private static List<Part> parts(byte[] body, String boundary)
+	{
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		assertThat(text).startsWith("--" + boundary + "\r\n").endsWith("\r\n--" + boundary + "--\r\n");
+		List<Part> parts = new ArrayList<>();
+		String delimiter = "\r\n--" + boundary;
+		int start = boundary.length() + 4;
+		int end;
+		while((end = text.indexOf(delimiter, start)) != -1) {
+			String part = text.substring(start, end);
+			int headersEnd = part.indexOf("\r\n\r\n");
+			parts.add(new Part(part.substring(0, headersEnd), part.substring(headersEnd + 4).getBytes(StandardCharsets.ISO_8859_1)));
+			start = end + delimiter.length() + 2;
+		}
+		return parts;
+	}
+
+	private static DeploySpool spool(byte[] zip) throws IOException
+	{
+		DeploySpool spool = new DeploySpool(64 * 1024);
+		spool.write(zip);
+		spool.close();
+		return spool;
+	}
+
+	private static byte[] randomBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,108 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+
+/**
+ * Time to convert a source format project to a deploy zip, for projects of the given number of classes (with as many
+ *   custom fields over a tenth as many decomposed objects, and the fixture project's other components)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SfdxSourceConverterBenchmark
+{
+	@Param({ "100", "1000", "5000" })
+	public int classes;
+
+	private final DeployZipAssembler deployZipAssembler = new DeployZipAssembler();
+	private final SfdxSourceConverter converter = new SfdxSourceConverter();
+	private final MetadataDescribeIndex describeIndex = MetadataDescribeIndex.build(MetadataDescribes.sample());
+	private Path directory;
+	private Path project;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		ReflectionTestUtils.setField(deployZipAssembler, "deployProperties", new DeployProperties());
+		deployZipAssembler.init();
+		ReflectionTestUtils.setField(converter, "deployZipAssembler", deployZipAssembler);
+		ReflectionTestUtils.setField(converter, "salesforceProperties", new SalesforceProperties());
+
+		directory = Files.createTempDirectory("sfdx-benchmark");
+		project = directory.resolve("project");
+		Path fixture = Path.of(SfdxSourceConverterBenchmark.class.getClassLoader().getResource("sfdx/project").toURI());
+		copy(fixture, project);
+		Path source = project.resolve("force-app/main/default");
+		String classMeta = Files.readString(source.resolve("classes/InvoiceService.cls-meta.xml"));
+		String field = Files.readString(source.resolve("objects/Invoice__c/fields/Amount__c.field-meta.xml"));
+		String object = Files.readString(source.resolve("objects/Invoice__c/Invoice__c.object-meta.xml"));
+		for(int i = 0; i < classes; i++)
+		{
+			Files.writeString(source.resolve("classes/Generated" + i + ".cls"), "public class Generated" + i + " {\n    public Integer value = " + i + ";\n}\n");
+			Files.writeString(source.resolve("classes/Generated" + i + ".cls-meta.xml"), classMeta);
+			Path objectDirectory = source.resolve("objects/Generated" + (i / 10) + "__c");
+			if(i % 10 == 0) {
+				Files.createDirectories(objectDirectory.resolve("fields"));
+				Files.writeString(objectDirectory.resolve("Generated" + (i / 10) + "__c.object-meta.xml"), object);
+			}
+			Files.writeString(objectDirectory.resolve("fields/Field" + i + "__c.field-meta.xml"), field.replace("Amount__c", "Field" + i + "__c"));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		deployZipAssembler.destroy();
+		try (Stream<Path> walk = Files.walk(directory)) {
+			for(Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+				Files.delete(path);
+		}
+	}
+
+	@Benchmark
+	public List<SfdxSourceConverter.ConvertedEntry> convert() throws Exception
+	{
+		return converter.convert(project, describeIndex, directory.resolve("deploy.zip"));
+	}
+
+	private static void copy(Path from, Path to) throws IOException
+	{
+		try (Stream<Path> walk = Files.walk(from)) {
+			for(Path path : walk.collect(Collectors.toList()))
+			{
+				Path target = to.resolve(from.relativize(path).toString());
+				if(Files.isDirectory(path))
+					Files.createDirectories(target);
+				else
+					Files.copy(path, target);
+			}
+		}
+	}
+}
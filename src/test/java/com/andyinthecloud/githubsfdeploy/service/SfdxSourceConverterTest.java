@@ -0,0 +1,197 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.andyinthecloud.githubsfdeploy.config.SalesforceProperties;
+import com.andyinthecloud.githubsfdeploy.service.SfdxSourceConverter.ConvertedEntry;
+import com.andyinthecloud.githubsfdeploy.service.SfdxSourceConverter.UnsupportedSourceException;
+
+/**
+ * Converts the project under src/test/resources/sfdx/project and compares the zip with expected/, the output of
+ *   sf project convert source for the same project (regenerate.sh)
+ */
+class SfdxSourceConverterTest
+{
+	private final DeployZipAssembler deployZipAssembler = new DeployZipAssembler();
+	private final SfdxSourceConverter converter = new SfdxSourceConverter();
+	private final MetadataDescribeIndex describeIndex = MetadataDescribeIndex.build(MetadataDescribes.sample());
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void setup()
+	{
+		ReflectionTestUtils.setField(deployZipAssembler, "deployProperties", new DeployProperties());
+		deployZipAssembler.init();
+		ReflectionTestUtils.setField(converter, "deployZipAssembler", deployZipAssembler);
+		ReflectionTestUtils.setField(converter, "salesforceProperties", new SalesforceProperties());
+	}
+
+	@AfterEach
+	void shutdown()
+	{
+		deployZipAssembler.destroy();
+	}
+
+	@Test
+	void convertsAsTheCliDoes() throws Exception
+	{
+		Path zip = directory.resolve("deploy.zip");
+		List<ConvertedEntry> entries = converter.convert(resource("sfdx/project"), describeIndex, zip);
+
+		Map<String, byte[]> actual = unzip(Files.readAllBytes(zip));
+		Map<String, byte[]> expected = files(resource("sfdx/expected"));
+		// .forceignore'd (classes/ScratchData.cls, lwc/jsconfig.json) and Jest tests are left out
+		assertThat(actual.keySet()).containsExactlyElementsOf(expected.keySet());
+		assertThat(entries.stream().map(ConvertedEntry::getName).sorted()).containsExactlyElementsOf(expected.keySet());
+		for(Map.Entry<String, byte[]> entry : expected.entrySet())
+		{
+			String name = entry.getKey();
+			byte[] expectedBytes = entry.getValue();
+			byte[] actualBytes = actual.get(name);
+			if(name.equals("package.xml") || name.endsWith(".object")) {
+				// Written rather than copied, the same elements in the same order
+				assertThat(canonical(actualBytes)).as(name).isEqualTo(canonical(expectedBytes));
+			} else if(isZip(expectedBytes)) {
+				// Expanded static resource
+				assertThat(unzip(actualBytes)).as(name).containsExactlyEntriesOf(unzip(expectedBytes));
+			} else {
+				assertThat(actualBytes).as(name).isEqualTo(expectedBytes);
+			}
+		}
+	}
+
+	@Test
+	void writesRecomposedObjectsAsTheCliDoes() throws Exception
+	{
+		Path zip = directory.resolve("deploy.zip");
+		converter.convert(resource("sfdx/project"), describeIndex, zip);
+		Map<String, byte[]> actual = unzip(Files.readAllBytes(zip));
+		for(String name : List.of("objects/Invoice__c.object", "objects/Account.object"))
+			assertThat(new String(actual.get(name), StandardCharsets.UTF_8)).as(name)
+				.isEqualToNormalizingNewlines(Files.readString(resource("sfdx/expected").resolve(name)));
+	}
+
+	@Test
+	void ordersChildrenAsTheCli()
+	{
+		List<String> names = new ArrayList<>(List.of("paidOn__c", "DueDate__c", "Due_Date_Override__c", "Amount__c", "account__c", "Account__c",
+			"fieldSets", "fields", "Field2__c", "Field10__c"));
+		names.sort(SfdxSourceConverter.CLI_ORDER);
+		assertThat(names).containsExactly("account__c", "Account__c", "Amount__c", "Due_Date_Override__c", "DueDate__c",
+			"Field10__c", "Field2__c", "fields", "fieldSets", "paidOn__c");
+	}
+
+	@Test
+	void leavesLabelsInSeveralPackagesToTheCli() throws Exception
+	{
+		Path project = directory.resolve("project");
+		Files.writeString(Files.createDirectories(project).resolve(SfdxProject.PROJECT_FILE),
+			"{\"packageDirectories\":[{\"path\":\"force-app\",\"default\":true},{\"path\":\"invoices\"}]}");
+		for(String packageDirectory : List.of("force-app", "invoices"))
+			Files.copy(resource("sfdx/project/force-app/main/default/labels/CustomLabels.labels-meta.xml"),
+				Files.createDirectories(project.resolve(packageDirectory).resolve("labels")).resolve("CustomLabels.labels-meta.xml"));
+
+		assertThatThrownBy(() -> converter.convert(project, describeIndex, directory.resolve("deploy.zip")))
+			.isInstanceOf(UnsupportedSourceException.class)
+			.hasMessageContaining("both convert to labels/CustomLabels.labels");
+		assertThat(directory.resolve("deploy.zip")).doesNotExist();
+	}
+
+	private static Path resource(String name) throws URISyntaxException
+	{
+		return Paths.get(SfdxSourceConverterTest.class.getClassLoader().getResource(name).toURI());
+	}
+
+	private static Map<String, byte[]> files(Path root) throws IOException
+	{
+		try (Stream<Path> walk = Files.walk(root)) {
+			List<Path> files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+			Map<String, byte[]> contents = new TreeMap<>();
+			for(Path file : files)
+				contents.put(root.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+			return contents;
+		}
+	}
+
+	private static Map<String, byte[]> unzip(byte[] zip) throws IOException
+	{
+		Map<String, byte[]> contents = new TreeMap<>();
+		try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(zip))) {
+			ZipEntry zipEntry;
+			while((zipEntry = zipIn.getNextEntry()) != null) {
+				if(!zipEntry.isDirectory())
+					contents.put(zipEntry.getName(), zipIn.readAllBytes());
+			}
+		}
+		return contents;
+	}
+
+	private static boolean isZip(byte[] bytes)
+	{
+		return bytes.length >= 4 && bytes[0] == 'P' && bytes[1] == 'K' && bytes[2] == 3 && bytes[3] == 4;
+	}
+
+	/**
+	 * The XML without the whitespace between elements, so formatting differences are ignored but not ordering
+	 */
+	private static String canonical(byte[] xml) throws Exception
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document;
+		try (InputStream in = new ByteArrayInputStream(xml)) {
+			document = factory.newDocumentBuilder().parse(in);
+		}
+		removeWhitespace(document.getDocumentElement());
+		StringWriter canonical = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(canonical));
+		return canonical.toString();
+	}
+
+	private static void removeWhitespace(Node node)
+	{
+		for(Node child = node.getFirstChild(); child != null; ) {
+			Node next = child.getNextSibling();
+			if(child.getNodeType() == Node.TEXT_NODE && child.getTextContent().isBlank())
+				node.removeChild(child);
+			else
+				removeWhitespace(child);
+			child = next;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.andyinthecloud.githubsfdeploy.config.DeployProperties;
+import com.sforce.soap.metadata.AsyncRequestState;
+import com.sforce.soap.metadata.AsyncResult;
+import com.sforce.soap.metadata.DeployOptions;
+import com.sforce.soap.metadata.TestLevel;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.SoapFaultException;
+
+class StreamingSoapDeployTransportTest
+{
+	private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+	private static final String METADATA_NS = "http://soap.sforce.com/2006/04/metadata";
+
+	private final DeployProperties deployProperties = new DeployProperties();
+	private final StreamingSoapDeployTransport transport = new StreamingSoapDeployTransport();
+	private StubSalesforceServer stub;
+
+	@BeforeEach
+	void startStub() throws IOException
+	{
+		ReflectionTestUtils.setField(transport, "deployProperties", deployProperties);
+		stub = StubSalesforceServer.start(4 * 1024 * 1024);
+	}
+
+	@AfterEach
+	void stopStub()
+	{
+		stub.close();
+	}
+
+	@Test
+	void streamsTheZipInADeployEnvelope() throws Exception
+	{
+		deployProperties.setGzipRequests(false);
+		byte[] zip = randomBytes(300 * 1024 + 1); // Not a multiple of the encoding chunk
+		DeployOptions deployOptions = new DeployOptions();
+		deployOptions.setCheckOnly(true);
+		deployOptions.setRollbackOnError(true);
+		deployOptions.setTestLevel(TestLevel.RunSpecifiedTests);
+		deployOptions.setRunTests(new String[] { "InvoiceTest", "PaymentTest" });
+
+		AsyncResult asyncResult = transport.deploy(stub.getSoapEndpoint(), "SESSION-ID", spool(zip), deployOptions);
+
+		assertThat(asyncResult.getId()).isEqualTo(StubSalesforceServer.DEPLOY_ID);
+		assertThat(asyncResult.getState()).isEqualTo(AsyncRequestState.Queued);
+		assertThat(asyncResult.isDone()).isFalse();
+		assertThat(stub.getRequestHeaders().getFirst("Content-Type")).startsWith("text/xml");
+		assertThat(stub.getRequestHeaders().getFirst("SOAPAction")).isEqualTo("\"\"");
+		assertThat(stub.getRequestHeaders().getFirst("Content-Encoding")).isNull();
+		assertThat(stub.getWireBytes()).isEqualTo(stub.getRequestBytes());
+
+		Document envelope = parse(stub.getRequestBody());
+		assertThat(text(envelope, METADATA_NS, "sessionId")).isEqualTo("SESSION-ID");
+		Element deploy = (Element) envelope.getElementsByTagNameNS(METADATA_NS, "deploy").item(0);
+		assertThat(deploy.getParentNode().getLocalName()).isEqualTo("Body");
+		assertThat(deploy.getParentNode().getNamespaceURI()).isEqualTo(SOAP_NS);
+		assertThat(Base64.getDecoder().decode(text(envelope, METADATA_NS, "ZipFile"))).isEqualTo(zip);
+		Element options = (Element) deploy.getElementsByTagNameNS(METADATA_NS, "DeployOptions").item(0);
+		assertThat(text(options, "checkOnly")).isEqualTo("true");
+		assertThat(text(options, "rollbackOnError")).isEqualTo("true");
+		assertThat(text(options, "testLevel")).isEqualTo("RunSpecifiedTests");
+		assertThat(options.getElementsByTagNameNS(METADATA_NS, "runTests").getLength()).isEqualTo(2);
+	}
+
+	@Test
+	void compressesTheRequest() throws Exception
+	{
+		deployProperties.setGzipRequests(true);
+		// Compressible, as are most metadata zips once base64 encoded
+		byte[] zip = ("<ApexClass/>".repeat(50000)).getBytes(StandardCharsets.UTF_8);
+
+		AsyncResult asyncResult = transport.deploy(stub.getSoapEndpoint(), "SESSION-ID", spool(zip), new DeployOptions());
+
+		assertThat(asyncResult.getId()).isEqualTo(StubSalesforceServer.DEPLOY_ID);
+		assertThat(stub.getRequestHeaders().getFirst("Content-Encoding")).isEqualTo("gzip");
+		assertThat(stub.getWireBytes()).isLessThan(stub.getRequestBytes() / 2);
+		Document envelope = parse(stub.getRequestBody());
+		assertThat(Base64.getDecoder().decode(text(envelope, METADATA_NS, "ZipFile"))).isEqualTo(zip);
+	}
+
+	@Test
+	void sendsAnEmptyZip() throws Exception
+	{
+		deployProperties.setGzipRequests(false);
+		transport.deploy(stub.getSoapEndpoint(), "SESSION-ID", spool(new byte[0]), new DeployOptions());
+		assertThat(text(parse(stub.getRequestBody()), METADATA_NS, "ZipFile")).isEmpty();
+	}
+
+	@Test
+	void throwsSoapFaults()
+	{
+		stub.respond(500, "text/xml; charset=UTF-8",
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<soapenv:Envelope xmlns:soapenv=\"" + SOAP_NS + "\"><soapenv:Body><soapenv:Fault>" +
+			"<faultcode>sf:INVALID_SESSION_ID</faultcode><faultstring>INVALID_SESSION_ID: Invalid Session ID found in SessionHeader</faultstring>" +
+			"</soapenv:Fault></soapenv:Body></soapenv:Envelope>");
+
+		assertThatThrownBy(() -> transport.deploy(stub.getSoapEndpoint(), "EXPIRED", spool(randomBytes(100)), new DeployOptions()))
+			.isInstanceOf(SoapFaultException.class)
+			.hasMessageContaining("INVALID_SESSION_ID");
+	}
+
+	@Test
+	void failsWithoutADeployResult()
+	{
+		stub.respond(200, "text/xml; charset=UTF-8",
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope xmlns:soapenv=\"" + SOAP_NS + "\"><soapenv:Body/></soapenv:Envelope>");
+
+		assertThatThrownBy(() -> transport.deploy(stub.getSoapEndpoint(), "SESSION-ID", spool(randomBytes(100)), new DeployOptions()))
+			.isInstanceOf(ConnectionException.class)
+			.hasMessageContaining("No deploy result");
+	}
+
+	private static DeploySpool spool(byte[] zip) throws IOException
+	{
+		DeploySpool spool = new DeploySpool(64 * 1024);
+		spool.write(zip);
+		spool.close();
+		return spool;
+	}
+
+	private static byte[] randomBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static Document parse(byte[] xml) throws Exception
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+	}
+
+	private static String text(Document document, String namespace, String name)
+	{
+		return document.getElementsByTagNameNS(namespace, name).item(0).getTextContent();
+	}
+
+	private static String text(Element element, String name)
+	{
+		return element.getElementsByTagNameNS(METADATA_NS, name).item(0).getTextContent();
+	}
+}
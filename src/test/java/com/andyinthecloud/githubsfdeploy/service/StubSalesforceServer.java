@@ -0,0 +1,189 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the Salesforce Metadata API deploy endpoints (SOAP and REST) on a local port, reads each request as it arrives
+ *   (keeping only the first captureLimit bytes) and replies with a canned response
+ */
+final class StubSalesforceServer implements AutoCloseable
+{
+	static final String DEPLOY_ID = "0Af5g00000ABCDEFGH";
+
+	static final String SOAP_DEPLOY_RESPONSE =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+		"<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns=\"http://soap.sforce.com/2006/04/metadata\">" +
+		"<soapenv:Body><deployResponse><result><done>false</done><id>" + DEPLOY_ID + "</id><state>Queued</state></result>" +
+		"</deployResponse></soapenv:Body></soapenv:Envelope>";
+
+	private final HttpServer server;
+	private final int captureLimit;
+
+	private volatile int status = 200;
+	private volatile String contentType = "text/xml; charset=UTF-8";
+	private volatile String response = SOAP_DEPLOY_RESPONSE;
+
+	private volatile int requests;
+	private volatile String requestPath;
+	private volatile Headers requestHeaders;
+	private volatile long requestBytes;
+	private volatile long wireBytes;
+	private volatile byte[] requestBody;
+
+	private StubSalesforceServer(int captureLimit) throws IOException
+	{
+		this.captureLimit = captureLimit;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "stub-salesforce");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/**
+	 * @param captureLimit request bodies up to this size are kept for getRequestBody
+	 * @return
+	 * @throws IOException
+	 */
+	static StubSalesforceServer start(int captureLimit) throws IOException
+	{
+		return new StubSalesforceServer(captureLimit);
+	}
+
+	String getInstanceUrl()
+	{
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	String getSoapEndpoint()
+	{
+		return getInstanceUrl() + "/services/Soap/m/61.0";
+	}
+
+	/**
+	 * Replies to following requests with the given response
+	 */
+	void respond(int status, String contentType, String response)
+	{
+		this.status = status;
+		this.contentType = contentType;
+		this.response = response;
+	}
+
+	int getRequests()
+	{
+		return requests;
+	}
+
+	String getRequestPath()
+	{
+		return requestPath;
+	}
+
+	Headers getRequestHeaders()
+	{
+		return requestHeaders;
+	}
+
+	/**
+	 * Size of the last request body, after removing any gzip content encoding
+	 */
+	long getRequestBytes()
+	{
+		return requestBytes;
+	}
+
+	/**
+	 * Size of the last request body as sent
+	 */
+	long getWireBytes()
+	{
+		return wireBytes;
+	}
+
+	/**
+	 * The last request body (decoded), null if it was larger than the capture limit
+	 */
+	byte[] getRequestBody()
+	{
+		return requestBody;
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		CountingInputStream wireIn = new CountingInputStream(exchange.getRequestBody());
+		InputStream in = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")) ?
+			new GZIPInputStream(wireIn, 64 * 1024) : wireIn;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		long bytes = 0;
+		int read;
+		while((read = in.read(buffer)) != -1) {
+			if(bytes + read <= captureLimit)
+				captured.write(buffer, 0, read);
+			bytes += read;
+		}
+		requestPath = exchange.getRequestURI().getPath();
+		requestHeaders = exchange.getRequestHeaders();
+		requestBytes = bytes;
+		wireBytes = wireIn.count;
+		requestBody = bytes <= captureLimit ? captured.toByteArray() : null;
+		requests++;
+		byte[] body = response.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream
+	{
+		long count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if(read > 0)
+				count += read;
+			return read;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.andyinthecloud.githubsfdeploy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * File paths of a made up repository for tests and benchmarks, a mix of metadata (including folders,
+ *   bundles and -meta.xml files) and the non-metadata files repositories carry alongside it
+ */
+final class SyntheticRepository
+{
+	private SyntheticRepository()
+	{
+	}
+
+	/**
+	 * @param count number of paths
+	 * @param seed the same seed gives the same paths
+	 * @return
+	 */
+	static List<String> paths(int count, long seed)
+	{
+		Random random = new Random(seed);
+		List<String> paths = new ArrayList<>(count);
+		int n = 0;
+		while(paths.size() < count)
+		{
+			n++;
+			String root = n % 5 == 0 ? "force-app/main/default/" : "src/";
+			switch (random.nextInt(12)) {
+				case 0:
+				case 1:
+					paths.add(root + "classes/Class" + n + ".cls");
+					paths.add(root + "classes/Class" + n + ".cls-meta.xml");
+					break;
+				case 2:
+					paths.add(root + "triggers/Trigger" + n + ".trigger");
+					paths.add(root + "triggers/Trigger" + n + ".trigger-meta.xml");
+					break;
+				case 3:
+					paths.add(root + "pages/Page" + n + ".page");
+					paths.add(root + "objects/Object" + n + "__c.object");
+					break;
+				case 4:
+					String documentFolder = "Folder" + (n % 17);
+					paths.add("src/documents/" + documentFolder + "-meta.xml");
+					paths.add("src/documents/" + documentFolder + "/Logo" + n + ".png");
+					paths.add("src/documents/" + documentFolder + "/Logo" + n + ".png-meta.xml");
+					break;
+				case 5:
+					String emailFolder = "Templates" + (n % 7);
+					paths.add("src/email/" + emailFolder + "/Welcome" + n + ".email");
+					paths.add("src/email/" + emailFolder + "/Welcome" + n + ".email-meta.xml");
+					break;
+				case 6:
+					paths.add(root + "lwc/component" + n + "/component" + n + ".js");
+					paths.add(root + "lwc/component" + n + "/component" + n + ".html");
+					paths.add(root + "lwc/component" + n + "/component" + n + ".js-meta.xml");
+					break;
+				case 7:
+					paths.add(root + "staticresources/Resource" + n + ".resource");
+					paths.add(root + "staticresources/Resource" + n + ".resource-meta.xml");
+					break;
+				case 8:
+					paths.add(root + "layouts/Object" + n + "__c-Layout.layout");
+					paths.add(root + "profiles/Profile" + n + ".profile");
+					break;
+				case 9:
+					paths.add("docs/guide" + n + ".md");
+					paths.add("scripts/build" + n + ".sh");
+					break;
+				case 10:
+					paths.add("node_modules/package" + n + "/index.js");
+					paths.add("node_modules/package" + n + "/package.json");
+					break;
+				default:
+					paths.add("src/package.xml");
+					paths.add("README.md");
+					paths.add("LICENSE");
+					paths.add(".github/workflows/ci" + n + ".yml");
+					break;
+			}
+		}
+		return new ArrayList<>(paths.subList(0, count));
+	}
+}
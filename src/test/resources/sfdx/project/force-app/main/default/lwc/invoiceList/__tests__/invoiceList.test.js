@@ -0,0 +1,8 @@
+import { createElement } from 'lwc';
+import InvoiceList from 'c/invoiceList';
+
+describe('c-invoice-list', () => {
+    it('renders', () => {
+        document.body.appendChild(createElement('c-invoice-list', { is: InvoiceList }));
+    });
+});
@@ -0,0 +1,2 @@
+/*! jQuery stand-in for tests */
+window.jQuery = function () {};
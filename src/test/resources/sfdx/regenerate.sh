@@ -0,0 +1,14 @@
+#!/bin/sh
+# Regenerates expected/ by converting project/ with the Salesforce CLI (sf), review the diff before committing it
+#   SfdxSourceConverterTest compares the converter's zip with expected/, see SfdxSourceConverter for the known differences
+#   The CLI version is recorded in expected-cli-version.txt, commit it with expected/
+set -e
+cd "$(dirname "$0")"
+if ! command -v sf >/dev/null 2>&1; then
+	echo "sf not found, install the Salesforce CLI (npm install -g @salesforce/cli)" >&2
+	exit 1
+fi
+rm -rf expected
+sf --version > expected-cli-version.txt
+cd project
+sf project convert source --root-dir force-app --output-dir ../expected